@@ -4,30 +4,232 @@ package com.goodeast.economics;
  * 
  * @author amsuh
  * Model of wholesale electricity market 
+ * 
+ * By default, orders go straight into the book as they are placed, and the 
+ * market must only be used from one thread. With concurrent intake turned on,
+ * companies may place orders from several threads at once: new orders are put
+ * into a lock-free queue for each company, and wait there until the matcher
+ * moves one company's orders into the book with enterIntake() (in the order
+ * in which the company placed them), or every company's when intake is
+ * turned off. So the matcher decides the order in which companies' orders
+ * meet the book, and entering each company's orders and then calling
+ * makeTrades(), one company at a time, trades just as placing them one
+ * company at a time does. Everything other than placing orders, including
+ * makeTrades(), must still be called from one thread, and each company's
+ * orders must be placed by one thread at a time, since they are also added
+ * to its records.
+ * 
+ * Every order gets an id when it is placed, except that a ladder of orders
+ * placed through the concurrent intake gets its ids when it enters the book,
+ * so ids follow the order in which orders meet the book. Orders can be
+ * cancelled or amended by id in O(1) (O(log n) when a price level empties).
  *
  */
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AuctionMarket {
-	// list of bids 
-	private List<ElectricityOrder> bids = new ArrayList<ElectricityOrder>();
-	// list of asks
-	private List<ElectricityOrder> asks = new ArrayList<ElectricityOrder>();
+	// bids, highest price first
+	private OrderBook bids = new OrderBook(true);
+	// asks, lowest price first
+	private OrderBook asks = new OrderBook(false);
+	
+	// how the market matches bids and asks
+	private MatchingMode mode;
+	
+	// id of the next order to be placed
+	private final AtomicLong nextOrderId = new AtomicLong(1);
+	
+	// whether orders may be placed from several threads at once
+	private volatile boolean concurrentIntake = false;
+	
+	// batches of orders placed through the concurrent intake, waiting for the matcher, in a queue for each company
+	private final ConcurrentHashMap<ElectricityCompany, ConcurrentLinkedQueue<IntakeBatch>> intake = new ConcurrentHashMap<ElectricityCompany, ConcurrentLinkedQueue<IntakeBatch>>();
+	
+	// batch of orders waiting in the concurrent intake, and which side of the book it goes on
+	private static class IntakeBatch {
+		final ElectricityOrder[] orders;
+		final boolean buying;
+		
+		IntakeBatch(ElectricityOrder[] o, boolean b) {
+			orders = o;
+			buying = b;
+		}
+	}
+	
+	// sends electricity across the network of regions for trades
+	private final TransferEngine transferEngine = new TransferEngine();
+	
+	// DC power flow that sends electricity instead, if any
+	private DcPowerFlow powerFlow;
+	
+	// router that routes trades one island at a time in parallel, if any
+	private ComponentRouter componentRouter;
+	
+	// counters and timers for routing, if any
+	private RoutingMetrics metrics;
+	
+	// asks waiting for another try during executeTrades()
+	private ArrayDeque<ElectricityOrder> retryQueue = new ArrayDeque<ElectricityOrder>();
+	
+	// supply and demand curves for a call auction, in order of priority
+	// reused from one call auction to the next, and grown when the book outgrows them
+	private ElectricityOrder[] curveOrders = new ElectricityOrder[0];
+	private double[] curvePrices = new double[0];
+	private double[] curveQuantities = new double[0];
+	private double[] curveFills = new double[0];
 	
-	// constructor
+	// journal in which every fill is recorded, or null if fills are not recorded
+	private TradeJournal journal = null;
+	
+	// price and volume at which the last call auction cleared
+	private double clearingPrice = Double.NaN;
+	private double clearingVolume = 0;
+	
+	// constructors
 	public AuctionMarket() {
+		this(MatchingMode.BATCH);
+	}
+	
+	public AuctionMarket(MatchingMode matching) {
 		super();
+		mode = matching;
+	}
+	
+	// accessor and mutator methods
+	public MatchingMode getMatchingMode() {
+		return mode;
+	}
+	
+	public boolean getConcurrentIntake() {
+		return concurrentIntake;
+	}
+	
+	// turns concurrent intake on or off (see above)
+	// must not be called while orders are being placed
+	public void setConcurrentIntake(boolean b) {
+		// orders already queued go into the book before intake changes
+		drainIntake();
+		concurrentIntake = b;
+	}
+	
+	// moves a company's orders waiting in the concurrent intake into the market, in the order in which it placed them
+	// (when matching continuously, this is when they are matched)
+	// must not be called while the company is placing orders
+	public void enterIntake(ElectricityCompany company) {
+		// temporary storage
+		ConcurrentLinkedQueue<IntakeBatch> queue = intake.get(company);
+		IntakeBatch batch;
+		
+		if(queue == null)
+			return;
+		while((batch = queue.poll()) != null) {
+			if(batch.orders[0].id < 0)
+				numberBatch(batch.orders);
+			enterBatch(batch.orders, batch.orders.length, batch.buying);
+		}
+	}
+	
+	public DcPowerFlow getPowerFlow() {
+		return powerFlow;
+	}
+	
+	// sets a DC power flow to send electricity with, or null to route it along paths
+	public void setPowerFlow(DcPowerFlow p) {
+		powerFlow = p;
+	}
+	
+	public ComponentRouter getComponentRouter() {
+		return componentRouter;
+	}
+	
+	// has executeTrades() route islands of the network in parallel with a router (null to route serially)
+	// a DC power flow, if set, is always run serially
+	public void setComponentRouter(ComponentRouter r) {
+		componentRouter = r;
+	}
+	
+	public RoutingMetrics getMetrics() {
+		return metrics;
+	}
+	
+	// has routing add to a set of metrics from now on (null to stop counting)
+	public void setMetrics(RoutingMetrics m) {
+		metrics = m;
+		transferEngine.setMetrics(m);
+	}
+	
+	public TradeJournal getJournal() {
+		return journal;
+	}
+	
+	// has market record every fill in a journal from now on (null to stop recording)
+	public void setJournal(TradeJournal j) {
+		journal = j;
+	}
+	
+	// price at which the last call auction cleared, or NaN if it did not clear
+	public double getClearingPrice() {
+		return clearingPrice;
+	}
+	
+	// volume of electricity accepted in the last call auction
+	public double getClearingVolume() {
+		return clearingVolume;
 	}
 	
 	// places a buy order
-	public void placeBuyOrder(double price, double quantity, ElectricityCompany company, Region region) {
+	// returns the order's id
+	public long placeBuyOrder(double price, double quantity, ElectricityCompany company, Region region) {
 		// make a new order
 		ElectricityOrder newOrder = new ElectricityOrder(price, quantity, company, region);
+		newOrder.id = nextOrderId.getAndIncrement();
 		
-		// add order to market 
-		bids.add(newOrder);
+		// add order to company records
 		company.buyOrders.add(newOrder);
+		
+		// add order to market, or leave it for the matcher
+		if(concurrentIntake)
+			queueBatch(new ElectricityOrder[] {newOrder}, true);
+		else
+			enterBid(newOrder);
+		
+		return newOrder.id;
+	}
+	
+	// puts a new bid into the market
+	private void enterBid(ElectricityOrder newOrder) {
+		// if matching continuously, try to fill order right away
+		if(mode == MatchingMode.CONTINUOUS && matchBid(newOrder))
+			return;
+		
+		// add whatever is left of order to market 
+		bids.add(newOrder);
+	}
+	
+	// places a ladder of buy orders for one region in a single call
+	// prices[x] and quantities[x] are the price and quantity of order x, for x from 0 to count - 1
+	public void placeBuyOrders(double[] prices, double[] quantities, int count, ElectricityCompany company, Region region) {
+		// make new orders and add them to company records
+		ElectricityOrder[] batch = makeBatch(prices, quantities, count, company, region);
+		for(int i = 0; i < count; ++i)
+			company.buyOrders.add(batch[i]);
+		
+		// add orders to market, or leave them for the matcher (numbered when they enter the market)
+		if(concurrentIntake) {
+			if(count > 0)
+				queueBatch(batch, true);
+		}
+		else {
+			numberBatch(batch);
+			enterBatch(batch, count, true);
+		}
 	}
 	
 	// cancels a buy order and erases it from company records
@@ -42,43 +244,185 @@ public class AuctionMarket {
 	}
 	
 	// method to view list of bids as two-dimensional array
-	// record[x] represents bid x
+	// record[x] represents bid x, in order of priority (highest price first)
+	// allocates a new array on every call; use getBidPrices() and getBidQuantities() to poll the book
 	// record[x][0] is the price of bid x, record[x][1] is the quantity of bid x
 	public double[][] viewBids() {
-		// the array that will contain prices and quantities of bids
-		double[][] record = new double[bids.size()][2];
-		
-		// counter to keep track of which order we are on (i.e., which index of record we are on)
-		int counter = 0;
-		
-		// temporary storage
-		ElectricityOrder tempOrder;
-		
-		// iterate over bids
-		Iterator<ElectricityOrder> itr = bids.iterator();
-		while(itr.hasNext()) {
-			tempOrder = itr.next();
-			
-			// place price and quantity of bid into record
-			record[counter][0] = tempOrder.getPrice();
-			record[counter][1] = tempOrder.getQuantity();
-			
-			// increment counter
-			++counter;
-		}
-		
-		// return record
-		return record;
+		return viewBook(bids);
 	}
 	
 	// places a sell order
-	public void placeSellOrder(double price, double quantity, ElectricityCompany company, Region region) {
+	// returns the order's id
+	public long placeSellOrder(double price, double quantity, ElectricityCompany company, Region region) {
 		// make a new order
 		ElectricityOrder newOrder = new ElectricityOrder(price, quantity, company, region);
+		newOrder.id = nextOrderId.getAndIncrement();
 				
-		// add order to market and company records
-		asks.add(newOrder);
+		// add order to company records
 		company.sellOrders.add(newOrder);
+		
+		// add order to market, or leave it for the matcher
+		if(concurrentIntake)
+			queueBatch(new ElectricityOrder[] {newOrder}, false);
+		else
+			enterAsk(newOrder);
+		
+		return newOrder.id;
+	}
+	
+	// puts a new ask into the market
+	private void enterAsk(ElectricityOrder newOrder) {
+		// if matching continuously, try to fill order right away
+		if(mode == MatchingMode.CONTINUOUS) {
+			matchAsk(newOrder);
+			if(isFilled(newOrder))
+				return;
+		}
+		
+		// add whatever is left of order to market
+		asks.add(newOrder);
+	}
+	
+	// places a ladder of sell orders for one region in a single call
+	// prices[x] and quantities[x] are the price and quantity of order x, for x from 0 to count - 1
+	public void placeSellOrders(double[] prices, double[] quantities, int count, ElectricityCompany company, Region region) {
+		// make new orders and add them to company records
+		ElectricityOrder[] batch = makeBatch(prices, quantities, count, company, region);
+		for(int i = 0; i < count; ++i)
+			company.sellOrders.add(batch[i]);
+		
+		// add orders to market, or leave them for the matcher (numbered when they enter the market)
+		if(concurrentIntake) {
+			if(count > 0)
+				queueBatch(batch, false);
+		}
+		else {
+			numberBatch(batch);
+			enterBatch(batch, count, false);
+		}
+	}
+	
+	// puts a batch of new orders into the market
+	private void enterBatch(ElectricityOrder[] batch, int count, boolean buying) {
+		OrderBook book = buying ? bids : asks;
+		
+		// if matching continuously, try to fill orders right away, best price first
+		if(mode == MatchingMode.CONTINUOUS) {
+			book.sortByPriority(batch, count);
+			count = matchBatch(batch, count, buying);
+		}
+		
+		// merge whatever is left into the market
+		book.addAll(batch, count);
+	}
+	
+	// leaves a batch of orders in its company's queue in the concurrent intake
+	private void queueBatch(ElectricityOrder[] batch, boolean buying) {
+		ElectricityCompany company = batch[0].getCompany();
+		ConcurrentLinkedQueue<IntakeBatch> queue = intake.get(company);
+		if(queue == null) {
+			intake.putIfAbsent(company, new ConcurrentLinkedQueue<IntakeBatch>());
+			queue = intake.get(company);
+		}
+		queue.add(new IntakeBatch(batch, buying));
+	}
+	
+	// moves every company's orders waiting in the concurrent intake into the market, one company at a time
+	// (companies are taken in no particular order; use enterIntake() to choose it)
+	private void drainIntake() {
+		for(ElectricityCompany company : intake.keySet())
+			enterIntake(company);
+	}
+	
+	// makes orders for a batch, not yet numbered
+	private ElectricityOrder[] makeBatch(double[] prices, double[] quantities, int count, ElectricityCompany company, Region region) {
+		ElectricityOrder[] batch = new ElectricityOrder[count];
+		for(int i = 0; i < count; ++i)
+			batch[i] = new ElectricityOrder(prices[i], quantities[i], company, region);
+		return batch;
+	}
+	
+	// gives the orders of a batch consecutive ids
+	private void numberBatch(ElectricityOrder[] batch) {
+		long firstId = nextOrderId.getAndAdd(batch.length);
+		for(int i = 0; i < batch.length; ++i)
+			batch[i].id = firstId + i;
+	}
+	
+	// cancels the order with a given id and erases it from company records
+	// returns true on success, false if there is no such order resting in the market
+	public boolean cancelOrder(long id) {
+		// orders waiting in the concurrent intake go into the book first
+		drainIntake();
+		
+		ElectricityOrder order = bids.find(id);
+		if(order != null)
+			return cancelBuyOrder(order, order.getCompany());
+		
+		order = asks.find(id);
+		if(order != null)
+			return cancelSellOrder(order, order.getCompany());
+		
+		return false;
+	}
+	
+	// changes the quantity of the order with a given id
+	// a smaller quantity keeps the order's priority; a larger quantity puts it behind other orders at its price
+	// a quantity of 0 or less cancels the order
+	// returns true on success, false if there is no such order resting in the market
+	public boolean amendOrder(long id, double quantity) {
+		if(quantity <= 0)
+			return cancelOrder(id);
+		
+		// orders waiting in the concurrent intake go into the book first
+		drainIntake();
+		
+		ElectricityOrder order = bids.find(id);
+		if(order != null)
+			return bids.amendQuantity(order, quantity);
+		
+		order = asks.find(id);
+		if(order != null)
+			return asks.amendQuantity(order, quantity);
+		
+		return false;
+	}
+	
+	// cancels the order with a given id and places a new order with a new price and quantity in its place
+	// returns the new order's id, or -1 if there is no such order resting in the market
+	public long replaceOrder(long id, double price, double quantity) {
+		// orders waiting in the concurrent intake go into the book first
+		drainIntake();
+		
+		ElectricityOrder order = bids.find(id);
+		if(order != null) {
+			cancelBuyOrder(order, order.getCompany());
+			return placeBuyOrder(price, quantity, order.getCompany(), order.getLocation());
+		}
+		
+		order = asks.find(id);
+		if(order != null) {
+			cancelSellOrder(order, order.getCompany());
+			return placeSellOrder(price, quantity, order.getCompany(), order.getLocation());
+		}
+		
+		return -1;
+	}
+	
+	// matches each order in a batch against the other side of the book, in the batch's order
+	// unfilled orders are moved to the front of the batch; returns how many there are
+	private int matchBatch(ElectricityOrder[] batch, int count, boolean buying) {
+		int unfilled = 0;
+		for(int i = 0; i < count; ++i) {
+			if(buying)
+				matchBid(batch[i]);
+			else
+				matchAsk(batch[i]);
+			
+			if(!isFilled(batch[i]))
+				batch[unfilled++] = batch[i];
+		}
+		return unfilled;
 	}
 	
 	// cancels a sell order and erases it from company records
@@ -92,25 +436,91 @@ public class AuctionMarket {
 			return false;
 	}
 	
+	// cancels every order in the market, including orders still waiting in the concurrent intake,
+	// and erases them from company records, e.g., before the next interval of a simulation
+	public void cancelAllOrders() {
+		ElectricityOrder order;
+		IntakeBatch batch;
+		for(ConcurrentLinkedQueue<IntakeBatch> queue : intake.values()) {
+			while((batch = queue.poll()) != null) {
+				for(ElectricityOrder o : batch.orders) {
+					if(batch.buying)
+						o.getCompany().buyOrders.remove(o);
+					else
+						o.getCompany().sellOrders.remove(o);
+				}
+			}
+		}
+		while((order = bids.first()) != null)
+			cancelBuyOrder(order, order.getCompany());
+		while((order = asks.first()) != null)
+			cancelSellOrder(order, order.getCompany());
+	}
+	
 	// method to view list of asks as two-dimensional array
-	// record[x] represents ask x
+	// record[x] represents ask x, in order of priority (lowest price first)
+	// allocates a new array on every call; use getAskPrices() and getAskQuantities() to poll the book
 	// record[x][0] is the price of ask x, record[x][1] is the quantity of ask x
 	public double[][] viewAsks() {
-		// the array that will contain prices and quantities of asks
-		double[][] record = new double[asks.size()][2];
+		return viewBook(asks);
+	}
+	
+	// number of bids and asks in the market
+	public int getBidCount() {
+		return bids.size();
+	}
+	
+	public int getAskCount() {
+		return asks.size();
+	}
+	
+	// read-only views of the prices and quantities of bids and asks, in order of priority
+	// index x of the price view and index x of the quantity view belong to the same order
+	// views are filled from the book when first read after a change (see the OrderStore class), and are shared and
+	// valid until the next change to the market
+	public DoubleBuffer getBidPrices() {
+		return bids.getStore().prices();
+	}
+	
+	public DoubleBuffer getBidQuantities() {
+		return bids.getStore().quantities();
+	}
+	
+	public DoubleBuffer getAskPrices() {
+		return asks.getStore().prices();
+	}
+	
+	public DoubleBuffer getAskQuantities() {
+		return asks.getStore().quantities();
+	}
+	
+	// returns the best (highest) bid price, or NaN if there are no bids
+	public double getBestBid() {
+		if(bids.isEmpty())
+			return Double.NaN;
+		else
+			return bids.getBestLevel().getPrice();
+	}
+	
+	// returns the best (lowest) ask price, or NaN if there are no asks
+	public double getBestAsk() {
+		if(asks.isEmpty())
+			return Double.NaN;
+		else
+			return asks.getBestLevel().getPrice();
+	}
+	
+	// helper function for viewBids() and viewAsks()
+	private double[][] viewBook(OrderBook book) {
+		// the array that will contain prices and quantities of orders
+		double[][] record = new double[book.size()][2];
 		
 		// counter to keep track of which order we are on (i.e., which index of record we are on)
 		int counter = 0;
 		
-		// temporary storage
-		ElectricityOrder tempOrder;
-		
-		// iterate over bids
-		Iterator<ElectricityOrder> itr = asks.iterator();
-		while(itr.hasNext()) {
-			tempOrder = itr.next();
-			
-			// place price and quantity of bid into record
+		// walk the book in order of priority
+		for(ElectricityOrder tempOrder = book.first(); tempOrder != null; tempOrder = book.next(tempOrder)) {
+			// place price and quantity of order into record
 			record[counter][0] = tempOrder.getPrice();
 			record[counter][1] = tempOrder.getQuantity();
 			
@@ -123,126 +533,407 @@ public class AuctionMarket {
 	}
 	
 	// matches bids and asks to try to execute trades
+	// (orders still waiting in the concurrent intake are not in the market yet; see enterIntake())
 	public void makeTrades() {
-		// sort bids and asks in order of ascending price
-		OrderPriceComparator priceOrder = new OrderPriceComparator();
-		Collections.sort(bids, priceOrder);
-		Collections.sort(asks, priceOrder);
-		
-		// temporary storage for information on trade being executed
-		ElectricityOrder highestBid = null; 
-		Set<Region> done = new HashSet<Region>();
-		List<Region> path = new ArrayList<Region>();
-		ArrayDeque<Region> checkPoints = new ArrayDeque<Region>();
-		ArrayDeque<Region> deadEnds = new ArrayDeque<Region>();
-		int checkPointsNumber = 0;
-		int deadEndsNumber = 0;
-		double amountOwed = 0;
-		double amountSent = 0;
-		double tradeQuantity = 0;
-		double tradePrice = 0;
-		
-		executeTrades(asks, done, path, checkPoints, deadEnds, checkPointsNumber, deadEndsNumber, amountOwed, amountSent, tradeQuantity, tradePrice, highestBid);
-	}
-	
-	// helper function for makeTrades(); actual execution of trades
-	public void executeTrades(List<ElectricityOrder> askList, Set<Region> done, List<Region> path, ArrayDeque<Region> checkPoints, ArrayDeque<Region> deadEnds, int checkPointsNumber, int deadEndsNumber, double amountOwed, double amountSent, double tradeQuantity, double tradePrice, ElectricityOrder highestBid) {
-		// iterator for asks and counter for bids
-		Iterator<ElectricityOrder> askItr = askList.iterator();
-		int bidsCounter = bids.size() - 1;
-		
-		// boolean to see if current ask order has been completed
-		boolean askFilled = true;
-		
-		// temporary storage for lowest ask
-		ElectricityOrder lowestAsk = null;
-		
-		// iterate through asks
-		while(askItr.hasNext()) {		
-			// if the last sell order was filled
-			if(askFilled) {
-				// get next lowest ask from sorted lists
-				lowestAsk = askItr.next();
-				// reset bidsCounter
-				bidsCounter = bids.size() - 1;
-			}
+		// when matching continuously, orders were matched as they came in, so anything still crossing in the book
+		// could not be routed then; trades since may have freed the way, so match the book again (see executeTrades())
+		if(mode == MatchingMode.CONTINUOUS) {
+			if(!bids.isEmpty() && !asks.isEmpty() && bids.first().getPrice() >= asks.first().getPrice())
+				executeTrades();
+			return;
+		}
+		
+		// clear the whole book at once in a call auction
+		if(mode == MatchingMode.CALL_AUCTION) {
+			clearCallAuction();
+			return;
+		}
+		
+		// the book keeps both sides sorted, so go straight to matching every ask
+		executeTrades();
+	}
+	
+	/*
+	 * clears the whole book as a call auction
+	 * 
+	 * The bids form a demand curve and the asks form a supply curve. Both are
+	 * read from the book into primitive arrays, already in order of priority, 
+	 * and one sweep along both curves finds the volume at which they cross. 
+	 * Everything trades at a single price, halfway between the marginal bid and 
+	 * the marginal ask. Orders with better prices than the marginal ones are
+	 * accepted in full, and orders at the marginal prices share what is left 
+	 * pro-rata.
+	 * 
+	 * Accepted orders are then paired in order of priority and the electricity
+	 * is sent across the network. Only electricity that reaches the buyer is 
+	 * paid for; whatever could not be routed stays in the book.
+	 */
+	private void clearCallAuction() {
+		clearingPrice = Double.NaN;
+		clearingVolume = 0;
+		
+		int bidCount = bids.size();
+		int askCount = asks.size();
+		if(bidCount == 0 || askCount == 0)
+			return;
+		
+		// read both curves from the book: bids go in [0, bidCount), asks go in [bidCount, bidCount + askCount)
+		growCurves(bidCount + askCount);
+		readCurve(bids, 0);
+		readCurve(asks, bidCount);
+		
+		// sweep along both curves until they no longer cross
+		int i = 0;
+		int j = bidCount;
+		int end = bidCount + askCount;
+		double bidLeft = curveQuantities[i];
+		double askLeft = curveQuantities[j];
+		double marginalBid = 0;
+		double marginalAsk = 0;
+		double tempQuantity;
+		while(i < bidCount && j < end && curvePrices[i] >= curvePrices[j]) {
+			tempQuantity = Math.min(bidLeft, askLeft);
+			clearingVolume += tempQuantity;
+			marginalBid = curvePrices[i];
+			marginalAsk = curvePrices[j];
 			
-			// set the bid to be used in this iteration, assuming there are bids left
-			if(bidsCounter > 0)
-				highestBid = bids.get(bidsCounter);
-			// else we've gone through all the bids, so we're done with this ask order
-			else {
-				askFilled = true;
+			bidLeft -= tempQuantity;
+			askLeft -= tempQuantity;
+			if(bidLeft <= Math.ulp(curveQuantities[i]) && ++i < bidCount)
+				bidLeft = curveQuantities[i];
+			if(askLeft <= Math.ulp(curveQuantities[j]) && ++j < end)
+				askLeft = curveQuantities[j];
+		}
+		
+		// if curves do not cross, nothing trades
+		if(clearingVolume <= 0)
+			return;
+		clearingPrice = (marginalBid + marginalAsk) / 2;
+		
+		// decide how much of each order is accepted
+		allocateFills(0, bidCount, marginalBid, true);
+		allocateFills(bidCount, end, marginalAsk, false);
+		
+		// pair accepted bids and asks in order of priority and deliver electricity
+		i = 0;
+		j = bidCount;
+		while(i < bidCount && j < end) {
+			// skip orders with nothing (left) to deliver
+			if(curveFills[i] <= Math.ulp(curveQuantities[i])) {
+				++i;
+				continue;
+			}
+			if(curveFills[j] <= Math.ulp(curveQuantities[j])) {
+				++j;
 				continue;
 			}
 			
-			// if highest bid is greater than or equal to lowest ask
-			if(highestBid.getPrice() >= lowestAsk.getPrice()) {
-				// try to execute trade:
-				// determine quantity to trade
-				if(highestBid.getQuantity() >= lowestAsk.getQuantity()) {
-					// if buyer's desired quantity is greater than or equal to seller's
-					// use seller's quantity
-					tradeQuantity = lowestAsk.getQuantity();
-				}
-				else {
-					// else use buyer's quantity
-					tradeQuantity = highestBid.getQuantity();
-				}
-				
-				// determine price of trade
-				tradePrice = (highestBid.getPrice() + lowestAsk.getPrice()) / 2;
-				
-				// transfer electricity:
-				lowestAsk.getLocation().clearInfo(done);
-				lowestAsk.getLocation().changeExcessElectricity(tradeQuantity);
-				lowestAsk.getLocation().findTransmissionLines(path, highestBid.getLocation());
-				lowestAsk.getLocation().sendElectricity(highestBid.getLocation(), checkPoints, deadEnds);
-				do {
-					// while there are still dead ends and check points in network of regions, there is still electricity to send
-					deadEndsNumber = Region.returnElectricity(lowestAsk.getLocation(), highestBid.getLocation(), checkPoints, deadEnds);
-					checkPointsNumber = Region.doCheckPoints(highestBid.getLocation(), checkPoints, deadEnds);
-				}
-				while(deadEndsNumber > 0 && checkPointsNumber > 0);
-				// clear path and done for next trade
-				path.clear();
-				done.clear();
-				
-				// transfer money:
-				// amount of electricity successfully sent
-				amountSent = tradeQuantity - lowestAsk.getLocation().getExcessElectricity();
-				// amount of money owed
-				amountOwed = tradePrice * amountSent;
-				// update companies' expenses
-				lowestAsk.getCompany().updateExpenses(-1 * amountOwed);
-				highestBid.getCompany().updateExpenses(amountOwed);
-				
-				// if buy order was only partially completed, update order quantity
-				if(amountSent < highestBid.getQuantity() - Math.ulp(highestBid.getQuantity())) 
-					highestBid.updateQuantity(-1*amountSent);
-				// else buy order was completed, so remove buy order from bids
-				else 
-					bids.remove(bidsCounter);
-				// if any electricity was sent, go through failed orders again
-				if(amountSent > Math.ulp(tradeQuantity))
-					executeTrades(askList.subList(0, askList.indexOf(lowestAsk)), done, path, checkPoints, deadEnds, checkPointsNumber, deadEndsNumber, amountOwed, amountSent, tradeQuantity, tradePrice, highestBid);
-				// if sell order was only partially completed
-				if(amountSent < lowestAsk.getQuantity() - Math.ulp(lowestAsk.getQuantity())) {
-					// ask order was not filled
-					askFilled = false;
-					// update order quantity
-					lowestAsk.updateQuantity(-1*amountSent);
-				}
-				// else ask order was completed
-				else {
-					askFilled = true;
-					// remove sell order from asks
-					askItr.remove();
+			tempQuantity = Math.min(curveFills[i], curveFills[j]);
+			settleTrade(curveOrders[i], curveOrders[j], tempQuantity, clearingPrice);
+			curveFills[i] -= tempQuantity;
+			curveFills[j] -= tempQuantity;
+		}
+		
+		// release references to orders
+		Arrays.fill(curveOrders, 0, end, null);
+	}
+	
+	// makes sure call auction curves can hold a given number of orders
+	private void growCurves(int count) {
+		if(curveOrders.length >= count)
+			return;
+		
+		// grow by at least half, so a growing book is not copied again on every call
+		int length = Math.max(count, curveOrders.length + curveOrders.length / 2);
+		curveOrders = new ElectricityOrder[length];
+		curvePrices = new double[length];
+		curveQuantities = new double[length];
+		curveFills = new double[length];
+	}
+	
+	// copies one side of the book into the curve arrays, starting at a given index
+	private void readCurve(OrderBook book, int start) {
+		int index = start;
+		for(ElectricityOrder tempOrder = book.first(); tempOrder != null; tempOrder = book.next(tempOrder)) {
+			curveOrders[index] = tempOrder;
+			curvePrices[index] = tempOrder.getPrice();
+			curveQuantities[index] = tempOrder.getQuantity();
+			++index;
+		}
+	}
+	
+	// decides how much of each order in [start, end) of the curves is accepted at the clearing volume
+	// orders priced better than the marginal price are accepted in full, orders at the marginal price pro-rata
+	private void allocateFills(int start, int end, double marginalPrice, boolean bidSide) {
+		// quantity offered at better prices than marginal price, and at marginal price
+		double better = 0;
+		double marginal = 0;
+		int k;
+		for(k = start; k < end; ++k) {
+			if(curvePrices[k] == marginalPrice)
+				marginal += curveQuantities[k];
+			else if(bidSide ? curvePrices[k] > marginalPrice : curvePrices[k] < marginalPrice)
+				better += curveQuantities[k];
+			// curves are sorted, so once we pass marginal price there is nothing more to accept
+			else
+				break;
+		}
+		
+		// share of each marginal order that is accepted (none if marginal orders are all empty)
+		double share = marginal > 0 ? Math.max(0, Math.min(1, (clearingVolume - better) / marginal)) : 0;
+		
+		for(k = start; k < end; ++k) {
+			if(curvePrices[k] == marginalPrice)
+				curveFills[k] = curveQuantities[k] * share;
+			else if(bidSide ? curvePrices[k] > marginalPrice : curvePrices[k] < marginalPrice)
+				curveFills[k] = curveQuantities[k];
+			else
+				curveFills[k] = 0;
+		}
+	}
+	
+	/*
+	 * helper function for makeTrades(); actual execution of trades
+	 * 
+	 * Asks are taken from the book from lowest price to highest, and each one
+	 * is matched against the bids that cross it (see matchAsk()). If an ask
+	 * still crosses the best bid after that, the network could not carry its
+	 * electricity, so it is put into a retry queue. Whenever a trade moves
+	 * electricity, line currents and regions' electricity change, so the asks
+	 * in the retry queue are swept again, in price order, until a sweep moves
+	 * no electricity. Then matching goes on to the next ask in the book.
+	 * 
+	 * Bounds: let A and B be the number of asks and bids and F the number of 
+	 * trades that move electricity. An ask enters the retry queue at most once
+	 * per sweep, so the queue holds at most A asks, and a sweep tries at most
+	 * A * B pairs. A sweep only starts after a trade that moved electricity, 
+	 * so there are at most A + F sweeps, and at most (A + F) * A * B routing 
+	 * attempts in all. There is no recursion, so stack use does not depend on
+	 * the size of the book.
+	 * 
+	 * With a component router set, the same loop runs on each island of the
+	 * network in parallel, and the fills are settled here afterwards, in the
+	 * order a serial run would make them (see the ComponentRouter class).
+	 */
+	public void executeTrades() {
+		if(metrics != null)
+			metrics.recordRound();
+		
+		// route islands in parallel, if possible
+		if(componentRouter != null)
+			componentRouter.setMetrics(metrics);
+		if(componentRouter != null && powerFlow == null && componentRouter.route(bids, asks)) {
+			while(componentRouter.nextFill())
+				settleFill(componentRouter.getFillBid(), componentRouter.getFillAsk(), componentRouter.getFillAmount(), componentRouter.getFillPrice());
+			componentRouter.clear();
+			return;
+		}
+		
+		// temporary storage
+		ElectricityOrder lowestAsk = asks.first();
+		ElectricityOrder nextAsk;
+		ElectricityOrder retryAsk;
+		boolean moved;
+		int sweepSize;
+		
+		// asks that cross some bid but could not be routed, in price order
+		retryQueue.clear();
+		
+		// iterate through asks, from lowest price to highest
+		while(lowestAsk != null) {
+			// get the next ask now, since lowestAsk may leave the book
+			// (the retry sweep below only touches asks that come before nextAsk)
+			nextAsk = asks.next(lowestAsk);
+			
+			// try to fill ask; if it is still crossing, it's blocked
+			moved = matchAsk(lowestAsk);
+			if(isBlocked(lowestAsk))
+				retryQueue.add(lowestAsk);
+			
+			// while electricity keeps moving, give blocked asks another try
+			while(moved && !retryQueue.isEmpty()) {
+				moved = false;
+				sweepSize = retryQueue.size();
+				if(metrics != null)
+					metrics.recordRetrySweep(sweepSize);
+				for(int i = 0; i < sweepSize; ++i) {
+					retryAsk = retryQueue.poll();
+					
+					// an earlier retry may have filled this ask by now
+					if(!asks.contains(retryAsk))
+						continue;
+					
+					if(matchAsk(retryAsk))
+						moved = true;
+					if(isBlocked(retryAsk))
+						retryQueue.add(retryAsk);
 				}
-				
-				// go to next bid
-				--bidsCounter;
 			}
-		}		
+			
+			// go to next ask
+			lowestAsk = nextAsk;
+		}
+		
+		// release references to orders
+		retryQueue.clear();
+	}
+	
+	// whether an ask is still resting in the book and crosses the best bid
+	private boolean isBlocked(ElectricityOrder ask) {
+		return asks.contains(ask) && !bids.isEmpty() && bids.first().getPrice() >= ask.getPrice();
+	}
+	
+	// matches a new bid against the asks that cross it, lowest price first
+	// returns true if bid was filled
+	private boolean matchBid(ElectricityOrder newBid) {
+		// temporary storage
+		ElectricityOrder lowestAsk = asks.first();
+		ElectricityOrder nextAsk;
+		
+		// stop at the first ask that no longer crosses bid
+		while(lowestAsk != null && lowestAsk.getPrice() <= newBid.getPrice()) {
+			// get the next ask now, since lowestAsk may leave the book
+			nextAsk = asks.next(lowestAsk);
+			
+			// try to execute trade; if that fills bid, we're done
+			executeTrade(newBid, lowestAsk);
+			if(isFilled(newBid))
+				return true;
+			
+			lowestAsk = nextAsk;
+		}
+		
+		return false;
+	}
+	
+	// matches an ask against the bids that cross it, highest price first, until ask is filled
+	// ask may be resting in the book or may be a new order
+	// returns true if any electricity was sent
+	private boolean matchAsk(ElectricityOrder ask) {
+		// temporary storage
+		ElectricityOrder highestBid = bids.first();
+		ElectricityOrder nextBid;
+		boolean moved = false;
+		
+		// stop at the first bid that no longer crosses ask
+		while(highestBid != null && highestBid.getPrice() >= ask.getPrice()) {
+			// get the next bid now, since highestBid may leave the book
+			nextBid = bids.next(highestBid);
+			
+			// try to execute trade
+			if(executeTrade(highestBid, ask) > 0)
+				moved = true;
+			// if that fills ask, we're done
+			if(isFilled(ask))
+				break;
+			
+			highestBid = nextBid;
+		}
+		
+		return moved;
+	}
+	
+	// whether an order has been completely filled
+	private boolean isFilled(ElectricityOrder order) {
+		return order.getQuantity() <= 0;
+	}
+	
+	// executes a trade between a crossing bid and ask at the midpoint of their prices
+	// returns the amount of electricity sent
+	private double executeTrade(ElectricityOrder highestBid, ElectricityOrder lowestAsk) {
+		// determine quantity to trade
+		double tradeQuantity;
+		if(highestBid.getQuantity() >= lowestAsk.getQuantity()) {
+			// if buyer's desired quantity is greater than or equal to seller's
+			// use seller's quantity
+			tradeQuantity = lowestAsk.getQuantity();
+		}
+		else {
+			// else use buyer's quantity
+			tradeQuantity = highestBid.getQuantity();
+		}
+		
+		// determine price of trade
+		double tradePrice = (highestBid.getPrice() + lowestAsk.getPrice()) / 2;
+		
+		return settleTrade(highestBid, lowestAsk, tradeQuantity, tradePrice);
+	}
+	
+	// sends a given quantity of electricity from seller to buyer at a given price
+	// updates or removes the orders and settles payment for the electricity that reaches the buyer
+	// returns the amount of electricity sent
+	private double settleTrade(ElectricityOrder highestBid, ElectricityOrder lowestAsk, double tradeQuantity, double tradePrice) {
+		// transfer electricity
+		double amountSent = transferElectricity(lowestAsk.getLocation(), highestBid.getLocation(), tradeQuantity);
+		
+		settleFill(highestBid, lowestAsk, amountSent, tradePrice);
+		return amountSent;
+	}
+	
+	// settles payment for electricity that has been sent from seller to buyer at a given price
+	// records the fill and updates or removes the orders
+	private void settleFill(ElectricityOrder highestBid, ElectricityOrder lowestAsk, double amountSent, double tradePrice) {
+		// transfer money:
+		// amount of money owed
+		double amountOwed = tradePrice * amountSent;
+		// update companies' expenses
+		lowestAsk.getCompany().updateExpenses(-1 * amountOwed);
+		highestBid.getCompany().updateExpenses(amountOwed);
+		
+		// record fill in journal
+		if(journal != null && amountSent > 0) {
+			try {
+				journal.record(highestBid.getId(), lowestAsk.getId(), tradePrice, amountSent, highestBid.getLocation().getId(), lowestAsk.getLocation().getId());
+			}
+			catch(IOException ex) {
+				// a journal with missing fills is no good for settlement, so stop
+				throw new UncheckedIOException(ex);
+			}
+		}
+		
+		// update both orders
+		fillOrder(bids, highestBid, amountSent);
+		fillOrder(asks, lowestAsk, amountSent);
+	}
+	
+	// updates an order after it has been filled by a given amount
+	// the order may be resting in the book or may be a new order that is still being matched
+	private void fillOrder(OrderBook book, ElectricityOrder order, double amount) {
+		// if order was only partially completed, update order quantity
+		if(amount < order.getQuantity() - Math.ulp(order.getQuantity())) {
+			// nothing moved (e.g., routing was blocked), so order is untouched and stays open
+			if(amount <= Math.ulp(order.getQuantity()))
+				return;
+			if(book.contains(order))
+				book.reduceQuantity(order, amount, OrderStore.PARTIALLY_FILLED);
+			else {
+				order.updateQuantity(-1*amount);
+				order.status = OrderStore.PARTIALLY_FILLED;
+			}
+		}
+		// else order was completed, so take it out of the book (if it is there); there is nothing left of it
+		else {
+			book.remove(order);
+			order.updateQuantity(-1*order.getQuantity());
+		}
+	}
+	
+	// sends electricity from one region to another across transmission lines
+	// returns the amount of electricity that was successfully sent
+	private double transferElectricity(Region origin, Region destination, double quantity) {
+		if(powerFlow != null && metrics != null) {
+			// a power flow does not search, so only its outcome and time are counted
+			// as with TransferEngine, a transfer is counted against origin's surplus (the most it could send), and
+			// not at all if there is nothing it could send
+			double limit = Math.min(quantity, origin.getElectricity() - origin.getDemand());
+			long started = System.nanoTime();
+			double sent = powerFlow.transfer(origin, destination, quantity);
+			if(origin != destination && limit > 0)
+				metrics.recordTransfer(limit, sent, 0, 0, 0, 0, 0, System.nanoTime() - started);
+			return sent;
+		}
+		if(powerFlow != null)
+			return powerFlow.transfer(origin, destination, quantity);
+		return transferEngine.transfer(origin, destination, quantity);
 	}
 }
@@ -0,0 +1,519 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Routes the trades of one round of batch matching in parallel, one island of
+ * the transmission network at a time
+ *
+ * Two regions in different islands share no lines, so no trade between them
+ * can move any electricity, and trades within one island cannot change the
+ * lines, regions or orders of another. The router takes a snapshot of both
+ * sides of the book, splits the orders by the island of their region, and
+ * runs the matching loop of AuctionMarket.executeTrades() on each island's
+ * orders separately, on a fork-join pool. Islands are shared out among tasks
+ * by number of orders, and each task has a TransferEngine of its own.
+ *
+ * While routing, the tasks move electricity and change line currents (each
+ * only in its own islands) but leave the orders and the book alone: they
+ * keep working copies of order quantities, and record each trade that moved
+ * electricity as a fill. A fill is tagged with the ask that the serial loop
+ * would have been working through when it happened. In the serial loop, the
+ * asks of other islands that get retried in between can never move anything,
+ * since nothing in their island has changed since they last failed, so
+ * sorting the fills by that tag (keeping each island's fills in order) gives
+ * exactly the fills of a serial run, in the same order. The market then
+ * settles them one at a time, so expenses, the book and the trade journal
+ * end up exactly as after a serial run.
+ *
+ * A router must only be used by one thread at a time.
+ *
+ */
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ComponentRouter {
+	// pool on which islands are routed
+	private final ForkJoinPool pool;
+
+	// transfer engine for each task
+	private TransferEngine[] engines = new TransferEngine[0];
+
+	// counters and timers for routing, if any
+	private RoutingMetrics metrics;
+
+	// snapshot of both sides of the book, in order of priority
+	private ElectricityOrder[] askOrders = new ElectricityOrder[0];
+	private ElectricityOrder[] bidOrders = new ElectricityOrder[0];
+	private int askCount;
+	private int bidCount;
+
+	// working quantity of each order; an order that has been filled has quantity 0
+	private double[] askQuantities = new double[0];
+	private double[] bidQuantities = new double[0];
+
+	// island partition of each order
+	private int[] askPartitions = new int[0];
+	private int[] bidPartitions = new int[0];
+
+	// bids still resting in each partition, as a linked list in order of priority
+	private int[] nextBid = new int[0];
+	private int[] previousBid = new int[0];
+	private int[] firstBid = new int[0];
+
+	// orders of each partition: partitionAsks[askStart[p]] to partitionAsks[askStart[p + 1] - 1]
+	private int[] askStart = new int[0];
+	private int[] partitionAsks = new int[0];
+
+	// partition of each island, by the region that labels it, or -1
+	private int[] islandPartitions = new int[0];
+	private int partitionCount;
+
+	// tasks of the last round, in order
+	private List<RoutingTask> tasks = new ArrayList<RoutingTask>();
+
+	// fills made while the serial loop would be working through each ask:
+	// fills stepStart[k] to stepEnd[k] - 1 of task stepTask[k], or none if stepTask[k] is -1
+	private int[] stepTask = new int[0];
+	private int[] stepStart = new int[0];
+	private int[] stepEnd = new int[0];
+
+	// fill being read: its step, task and index within the task
+	private int fillStep;
+	private RoutingTask fillTask;
+	private int fillIndex;
+
+	// constructor
+	public ComponentRouter(ForkJoinPool p) {
+		super();
+		pool = p;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public RoutingMetrics getMetrics() {
+		return metrics;
+	}
+
+	// has the tasks add to a set of metrics from now on (null to stop counting)
+	public void setMetrics(RoutingMetrics m) {
+		metrics = m;
+		for(TransferEngine engine : engines)
+			engine.setMetrics(m);
+	}
+
+	/*
+	 * routes every trade between crossing bids and asks, one island at a time
+	 *
+	 * Returns false, having done nothing, if routing by island would not pay
+	 * off or could give a different result from a serial run: if fewer than
+	 * two islands have both bids and asks, if an order's region is not part
+	 * of the network the first one's is, or if an order has so little left
+	 * that the serial loop would drop it after a trade that moved nothing.
+	 * Otherwise the fills can be read back with nextFill() and getFillBid()
+	 * and friends.
+	 */
+	public boolean route(OrderBook bids, OrderBook asks) {
+		tasks.clear();
+		if(bids.isEmpty() || asks.isEmpty())
+			return false;
+
+		// every order's region must belong to one network
+		TransmissionNetwork network = asks.first().getLocation().getNetwork();
+		if(network == null)
+			return false;
+
+		// take snapshot of book
+		askCount = asks.size();
+		bidCount = bids.size();
+		growOrders(askCount, bidCount, network.getRegionCount());
+		if(!readSide(asks, askOrders, askQuantities, network) || !readSide(bids, bidOrders, bidQuantities, network))
+			return false;
+
+		// number islands that have both bids and asks
+		Arrays.fill(islandPartitions, 0, network.getRegionCount(), -1);
+		for(int i = 0; i < bidCount; ++i)
+			islandPartitions[network.island[bidOrders[i].getLocation().getId()]] = -2;
+		partitionCount = 0;
+		int island;
+		for(int i = 0; i < askCount; ++i) {
+			island = network.island[askOrders[i].getLocation().getId()];
+			if(islandPartitions[island] == -2)
+				islandPartitions[island] = partitionCount++;
+		}
+		if(partitionCount < 2)
+			return false;
+
+		// put each order in its island's partition (-1 if no order on the other side is in its island)
+		for(int i = 0; i < askCount; ++i)
+			askPartitions[i] = Math.max(-1, islandPartitions[network.island[askOrders[i].getLocation().getId()]]);
+		for(int i = 0; i < bidCount; ++i)
+			bidPartitions[i] = Math.max(-1, islandPartitions[network.island[bidOrders[i].getLocation().getId()]]);
+
+		// group asks by partition, keeping them in order of priority
+		if(askStart.length < partitionCount + 1)
+			askStart = new int[partitionCount + 1];
+		Arrays.fill(askStart, 0, partitionCount + 1, 0);
+		for(int i = 0; i < askCount; ++i) {
+			if(askPartitions[i] >= 0)
+				++askStart[askPartitions[i] + 1];
+		}
+		for(int p = 0; p < partitionCount; ++p)
+			askStart[p + 1] += askStart[p];
+		int[] next = Arrays.copyOf(askStart, partitionCount);
+		for(int i = 0; i < askCount; ++i) {
+			if(askPartitions[i] >= 0)
+				partitionAsks[next[askPartitions[i]]++] = i;
+		}
+
+		// link each partition's bids, in order of priority
+		if(firstBid.length < partitionCount)
+			firstBid = new int[partitionCount];
+		Arrays.fill(firstBid, 0, partitionCount, -1);
+		int[] lastBid = new int[partitionCount];
+		Arrays.fill(lastBid, -1);
+		for(int i = 0; i < bidCount; ++i) {
+			int p = bidPartitions[i];
+			nextBid[i] = -1;
+			previousBid[i] = -1;
+			if(p < 0)
+				continue;
+			if(lastBid[p] < 0)
+				firstBid[p] = i;
+			else {
+				nextBid[lastBid[p]] = i;
+				previousBid[i] = lastBid[p];
+			}
+			lastBid[p] = i;
+		}
+
+		// share partitions out among tasks, each to the task with the fewest orders so far
+		int taskCount = Math.min(partitionCount, pool.getParallelism());
+		if(engines.length < taskCount) {
+			engines = Arrays.copyOf(engines, taskCount);
+			for(int t = 0; t < taskCount; ++t) {
+				if(engines[t] == null) {
+					engines[t] = new TransferEngine();
+					engines[t].setMetrics(metrics);
+				}
+			}
+		}
+		long[] load = new long[taskCount];
+		for(int t = 0; t < taskCount; ++t)
+			tasks.add(new RoutingTask(engines[t]));
+		int lightest;
+		for(int p = 0; p < partitionCount; ++p) {
+			lightest = 0;
+			for(int t = 1; t < taskCount; ++t) {
+				if(load[t] < load[lightest])
+					lightest = t;
+			}
+			tasks.get(lightest).addPartition(p);
+			load[lightest] += askStart[p + 1] - askStart[p];
+		}
+
+		// route islands
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		// index fills by step: a step's fills all come from one partition, one after the other
+		Arrays.fill(stepTask, 0, askCount, -1);
+		RoutingTask tempTask;
+		int step;
+		for(int t = 0; t < taskCount; ++t) {
+			tempTask = tasks.get(t);
+			for(int i = 0; i < tempTask.fillCount; ++i) {
+				step = tempTask.fillSteps[i];
+				if(stepTask[step] < 0) {
+					stepTask[step] = t;
+					stepStart[step] = i;
+				}
+				stepEnd[step] = i + 1;
+			}
+		}
+
+		// get ready to read fills
+		fillStep = -1;
+		fillTask = null;
+		return true;
+	}
+
+	// moves on to the next fill of the last round, in the order of a serial run
+	// returns false if there are no more
+	public boolean nextFill() {
+		if(fillTask != null && ++fillIndex < stepEnd[fillStep])
+			return true;
+
+		// go to next step with fills
+		do {
+			if(++fillStep >= askCount) {
+				fillTask = null;
+				return false;
+			}
+		}
+		while(stepTask[fillStep] < 0);
+		fillTask = tasks.get(stepTask[fillStep]);
+		fillIndex = stepStart[fillStep];
+		return true;
+	}
+
+	// accessor methods for the fill moved on to by nextFill()
+	public ElectricityOrder getFillBid() {
+		return bidOrders[fillTask.fillBids[fillIndex]];
+	}
+
+	public ElectricityOrder getFillAsk() {
+		return askOrders[fillTask.fillAsks[fillIndex]];
+	}
+
+	public double getFillPrice() {
+		return fillTask.fillPrices[fillIndex];
+	}
+
+	public double getFillAmount() {
+		return fillTask.fillAmounts[fillIndex];
+	}
+
+	// releases references to orders of the last round
+	public void clear() {
+		Arrays.fill(askOrders, 0, askCount, null);
+		Arrays.fill(bidOrders, 0, bidCount, null);
+		tasks.clear();
+		fillTask = null;
+	}
+
+	// makes sure the snapshot can hold a given number of orders, for a network with a given number of regions
+	private void growOrders(int asks, int bids, int regions) {
+		if(askOrders.length < asks) {
+			int length = Math.max(asks, askOrders.length + askOrders.length / 2);
+			askOrders = new ElectricityOrder[length];
+			askQuantities = new double[length];
+			askPartitions = new int[length];
+			partitionAsks = new int[length];
+			stepTask = new int[length];
+			stepStart = new int[length];
+			stepEnd = new int[length];
+		}
+		if(bidOrders.length < bids) {
+			int length = Math.max(bids, bidOrders.length + bidOrders.length / 2);
+			bidOrders = new ElectricityOrder[length];
+			bidQuantities = new double[length];
+			bidPartitions = new int[length];
+			nextBid = new int[length];
+			previousBid = new int[length];
+		}
+		if(islandPartitions.length < regions)
+			islandPartitions = new int[regions];
+	}
+
+	// copies one side of the book into the snapshot
+	// returns false if an order's region is not part of the network, or the order has next to nothing left
+	private boolean readSide(OrderBook book, ElectricityOrder[] orders, double[] quantities, TransmissionNetwork network) {
+		int index = 0;
+		for(ElectricityOrder tempOrder = book.first(); tempOrder != null; tempOrder = book.next(tempOrder)) {
+			if(tempOrder.getLocation().getNetwork() != network || tempOrder.getQuantity() - Math.ulp(tempOrder.getQuantity()) <= 0)
+				return false;
+			orders[index] = tempOrder;
+			quantities[index] = tempOrder.getQuantity();
+			++index;
+		}
+		return true;
+	}
+
+	/*
+	 * routes the trades of some partitions, one after the other
+	 *
+	 * Each partition is matched as AuctionMarket.executeTrades() matches the
+	 * whole book: asks from lowest price to highest, each against the bids
+	 * that cross it, with blocked asks swept again while electricity keeps
+	 * moving. The retry queue is kept as two lists, the one being swept and
+	 * the one for the next sweep.
+	 */
+	private class RoutingTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		// engine that routes this task's trades
+		private final TransferEngine engine;
+
+		// partitions routed by this task
+		private int[] partitions = new int[4];
+		private int partitionTotal = 0;
+
+		// fills: ask being worked through by the serial loop, orders, price and amount
+		private int[] fillSteps = new int[16];
+		private int[] fillBids = new int[16];
+		private int[] fillAsks = new int[16];
+		private double[] fillPrices = new double[16];
+		private double[] fillAmounts = new double[16];
+		private int fillCount = 0;
+
+		// blocked asks: the sweep in progress, and the next one
+		private int[] retrying = new int[0];
+		private int[] retryLater = new int[0];
+
+		// constructor
+		public RoutingTask(TransferEngine e) {
+			super();
+			engine = e;
+		}
+
+		// adds a partition to this task
+		public void addPartition(int p) {
+			if(partitionTotal == partitions.length)
+				partitions = Arrays.copyOf(partitions, 2 * partitions.length);
+			partitions[partitionTotal++] = p;
+		}
+
+		protected void compute() {
+			for(int i = 0; i < partitionTotal; ++i)
+				routePartition(partitions[i]);
+		}
+
+		// matches the orders of one partition
+		private void routePartition(int p) {
+			// temporary storage
+			int size = askStart[p + 1] - askStart[p];
+			int retryCount = 0;
+			int laterCount;
+			int ask;
+			int[] swap;
+			boolean moved;
+
+			if(retrying.length < size) {
+				retrying = new int[size];
+				retryLater = new int[size];
+			}
+
+			// iterate through asks, from lowest price to highest
+			for(int k = askStart[p]; k < askStart[p + 1]; ++k) {
+				ask = partitionAsks[k];
+
+				// try to fill ask; if it is still crossing, it's blocked
+				moved = matchAsk(p, ask, ask);
+				if(isBlocked(p, ask))
+					retrying[retryCount++] = ask;
+
+				// while electricity keeps moving, give blocked asks another try
+				while(moved && retryCount > 0) {
+					moved = false;
+					laterCount = 0;
+					if(metrics != null)
+						metrics.recordRetrySweep(retryCount);
+					for(int i = 0; i < retryCount; ++i) {
+						// an earlier retry may have filled this ask by now
+						if(askQuantities[retrying[i]] <= 0)
+							continue;
+
+						if(matchAsk(p, retrying[i], ask))
+							moved = true;
+						if(isBlocked(p, retrying[i]))
+							retryLater[laterCount++] = retrying[i];
+					}
+					swap = retrying;
+					retrying = retryLater;
+					retryLater = swap;
+					retryCount = laterCount;
+				}
+			}
+		}
+
+		// whether an ask is still resting and crosses the best bid left in its partition
+		private boolean isBlocked(int p, int ask) {
+			return askQuantities[ask] > 0 && firstBid[p] >= 0 && bidOrders[firstBid[p]].getPrice() >= askOrders[ask].getPrice();
+		}
+
+		// matches an ask against the bids of its partition that cross it, highest price first, until ask is filled
+		// step is the ask being worked through by the serial loop
+		// returns true if any electricity was sent
+		private boolean matchAsk(int p, int ask, int step) {
+			// temporary storage
+			int bid = firstBid[p];
+			int next;
+			double askPrice = askOrders[ask].getPrice();
+			double tradeQuantity;
+			double tradePrice;
+			double amountSent;
+			boolean moved = false;
+
+			// stop at the first bid that no longer crosses ask
+			while(bid >= 0 && bidOrders[bid].getPrice() >= askPrice) {
+				// get the next bid now, since bid may be filled
+				next = nextBid[bid];
+
+				// execute trade at the midpoint of the prices, for the smaller quantity
+				tradeQuantity = bidQuantities[bid] >= askQuantities[ask] ? askQuantities[ask] : bidQuantities[bid];
+				tradePrice = (bidOrders[bid].getPrice() + askPrice) / 2;
+				amountSent = engine.transfer(askOrders[ask].getLocation(), bidOrders[bid].getLocation(), tradeQuantity);
+				if(amountSent > 0) {
+					moved = true;
+					addFill(step, bid, ask, tradePrice, amountSent);
+				}
+				fillBid(p, bid, amountSent);
+				fillAsk(ask, amountSent);
+
+				// if that fills ask, we're done
+				if(askQuantities[ask] <= 0)
+					break;
+
+				bid = next;
+			}
+
+			return moved;
+		}
+
+		// updates a bid's working quantity as AuctionMarket.fillOrder() would, unlinking it once filled
+		private void fillBid(int p, int bid, double amount) {
+			if(amount < bidQuantities[bid] - Math.ulp(bidQuantities[bid])) {
+				if(amount > Math.ulp(bidQuantities[bid]))
+					bidQuantities[bid] -= amount;
+				return;
+			}
+
+			bidQuantities[bid] = 0;
+			if(previousBid[bid] >= 0)
+				nextBid[previousBid[bid]] = nextBid[bid];
+			else
+				firstBid[p] = nextBid[bid];
+			if(nextBid[bid] >= 0)
+				previousBid[nextBid[bid]] = previousBid[bid];
+		}
+
+		// updates an ask's working quantity as AuctionMarket.fillOrder() would
+		private void fillAsk(int ask, double amount) {
+			if(amount < askQuantities[ask] - Math.ulp(askQuantities[ask])) {
+				if(amount > Math.ulp(askQuantities[ask]))
+					askQuantities[ask] -= amount;
+			}
+			else
+				askQuantities[ask] = 0;
+		}
+
+		// records a fill
+		private void addFill(int step, int bid, int ask, double price, double amount) {
+			if(fillCount == fillSteps.length) {
+				int length = 2 * fillCount;
+				fillSteps = Arrays.copyOf(fillSteps, length);
+				fillBids = Arrays.copyOf(fillBids, length);
+				fillAsks = Arrays.copyOf(fillAsks, length);
+				fillPrices = Arrays.copyOf(fillPrices, length);
+				fillAmounts = Arrays.copyOf(fillAmounts, length);
+			}
+			fillSteps[fillCount] = step;
+			fillBids[fillCount] = bid;
+			fillAsks[fillCount] = ask;
+			fillPrices[fillCount] = price;
+			fillAmounts[fillCount] = amount;
+			++fillCount;
+		}
+	}
+}
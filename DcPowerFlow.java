@@ -0,0 +1,557 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Sends electricity between regions the way it flows on a real grid, using
+ * the DC power-flow approximation
+ *
+ * Electricity does not take the path it is sent along; it spreads over every
+ * path between two regions in inverse proportion to the lines' reactances.
+ * Under the DC approximation, sending one unit from region s to region t
+ * changes the current on line l by a fixed factor, its power transfer
+ * distribution factor (PTDF), PTDF[l][s] - PTDF[l][t]. Column s of the PTDF
+ * matrix is found by solving B theta = e_s, where B is the bus susceptance
+ * matrix (1 / reactance for each line), and reading each line's current
+ * (theta[source] - theta[sink]) / reactance.
+ *
+ * B is factored once, as L D L^T over the envelope of its rows, with the
+ * regions put in reverse Cuthill-McKee order to keep the envelope narrow.
+ * One region in each island is the slack region, whose angle is fixed at 0.
+ * That order keeps each island's regions together, so a column is solved for
+ * over its region's island only, and only the island's lines are read. PTDF
+ * columns are solved for when first needed, with factors too small to matter
+ * dropped, so on most networks they are sparse, and every region's column is
+ * kept for as long as the columns fit in MAX_KEPT_FACTORS factors; past that,
+ * the least recently used columns are dropped. A transfer then needs no search: the largest amount that keeps
+ * every line within its capacity is read off the combined column, and only
+ * the lines in it have their currents changed. When a transfer is blocked by
+ * a full line, the line is remembered for that pair of regions, and later
+ * transfers between them are turned down in O(1) for as long as it stays
+ * full. A pair is forgotten once its line is no longer full, and every pair
+ * is forgotten by clearBlockedPairs(), which is called when currents are
+ * reset, so the pairs remembered are only ever those blocked now.
+ *
+ * Lines without capacity are treated as out of service. A power flow must
+ * only be used by one thread at a time.
+ *
+ */
+
+import java.util.*;
+
+public class DcPowerFlow {
+	// factors smaller than this are treated as 0
+	private static final double PTDF_EPSILON = 1e-9;
+
+	// lines with less than this fraction of their capacity free are treated as full, and
+	// transfers of less than this fraction of the amount asked for are not made;
+	// otherwise rounding error left on full lines lets trades creep along forever
+	private static final double FULL_TOLERANCE = 1e-9;
+
+	// most PTDF factors kept at once: a quarter of the heap, at 12 bytes a factor
+	private static final long MAX_KEPT_FACTORS = Runtime.getRuntime().maxMemory() / 48;
+
+	// column of a slack region, which affects no line
+	private static final Column EMPTY_COLUMN = new Column(new int[0], new double[0]);
+
+	// network, and the regions at the ends of each line
+	private final TransmissionNetwork network;
+	private final int[] lineFrom;
+	private final int[] lineTo;
+
+	// reactance of each line
+	private final double[] reactance;
+
+	// order of regions in factorization, and position of each region in that order
+	private final int[] order;
+	private final int[] position;
+
+	// whether each region is its island's slack region
+	private final boolean[] slack;
+
+	// positions of each island's regions, from islandStart to islandEnd - 1, by the slack region that labels it
+	private final int[] islandStart;
+	private final int[] islandEnd;
+
+	// in-service lines of each island, from islandLines[lineStart[island]] to islandLines[lineStart[island + 1] - 1]
+	private final int[] lineStart;
+	private final int[] islandLines;
+
+	// factorization, by position: row i of L runs from column first[i] to i - 1,
+	// and is stored in lower from index start[i]; D is stored in diagonal
+	private final int[] first;
+	private final int[] start;
+	private final double[] lower;
+	private final double[] diagonal;
+
+	// solution of the last solve, by position
+	private final double[] angles;
+
+	// PTDF columns kept, by region, and the number of factors in them
+	private final Column[] columns;
+	private long keptFactors = 0;
+
+	// regions whose columns are kept, as a list from least to most recently used
+	private final int[] newer;
+	private final int[] older;
+	private int oldest = -1;
+	private int newest = -1;
+
+	// lines and factors of the column being solved for
+	private final int[] solvedLines;
+	private final double[] solvedFactors;
+
+	// line that blocked each pair of regions (keyed by origin * region count + destination + 1),
+	// times 2, plus 1 if it was full from sink to source
+	private final OrderIdIndex blockedPairs = new OrderIdIndex();
+
+	// combined factors for the transfer being made, by line, and the lines that have one
+	private final double[] factors;
+	private final int[] mark;
+	private int markStamp = 0;
+	private final int[] affected;
+	private int affectedCount = 0;
+
+	// PTDF column for one region: factors for the lines it affects
+	private static class Column {
+		final int[] lines;
+		final double[] factors;
+
+		Column(int[] l, double[] f) {
+			lines = l;
+			factors = f;
+		}
+	}
+
+	// constructor
+	// factors the network's susceptance matrix, using each line's reactance
+	public DcPowerFlow(TransmissionNetwork n) {
+		super();
+		network = n;
+		int regionCount = n.getRegionCount();
+		int lineCount = n.getLineCount();
+
+		lineFrom = new int[lineCount];
+		lineTo = new int[lineCount];
+		reactance = new double[lineCount];
+		for(int l = 0; l < lineCount; ++l) {
+			lineFrom[l] = n.getLine(l).getSource().getId();
+			lineTo[l] = n.getLine(l).getSink().getId();
+			reactance[l] = n.getLine(l).getReactance();
+		}
+
+		// each island's slack region is the one that labels it
+		slack = new boolean[regionCount];
+		for(int r = 0; r < regionCount; ++r)
+			slack[r] = n.island[r] == r;
+
+		order = orderRegions();
+		position = new int[regionCount];
+		for(int i = 0; i < regionCount; ++i)
+			position[order[i]] = i;
+
+		// each island's regions are together in order
+		islandStart = new int[regionCount];
+		islandEnd = new int[regionCount];
+		for(int i = regionCount - 1; i >= 0; --i)
+			islandStart[n.island[order[i]]] = i;
+		for(int i = 0; i < regionCount; ++i)
+			islandEnd[n.island[order[i]]] = i + 1;
+
+		// group in-service lines by island: count them, then place them
+		lineStart = new int[regionCount + 1];
+		for(int l = 0; l < lineCount; ++l) {
+			if(n.capacity[l] > 0)
+				++lineStart[n.island[lineFrom[l]] + 1];
+		}
+		for(int r = 0; r < regionCount; ++r)
+			lineStart[r + 1] += lineStart[r];
+		islandLines = new int[lineStart[regionCount]];
+		int[] next = Arrays.copyOf(lineStart, regionCount);
+		for(int l = 0; l < lineCount; ++l) {
+			if(n.capacity[l] > 0)
+				islandLines[next[n.island[lineFrom[l]]]++] = l;
+		}
+
+		// find envelope of each row
+		first = new int[regionCount];
+		start = new int[regionCount + 1];
+		int r;
+		for(int i = 0; i < regionCount; ++i) {
+			r = order[i];
+			first[i] = i;
+			if(!slack[r]) {
+				for(int a = n.offsets[r]; a < n.offsets[r + 1]; ++a) {
+					if(inService(a) && !slack[n.heads[a]])
+						first[i] = Math.min(first[i], position[n.heads[a]]);
+				}
+			}
+			start[i + 1] = start[i] + (i - first[i]);
+		}
+
+		lower = new double[start[regionCount]];
+		diagonal = new double[regionCount];
+		angles = new double[regionCount];
+		factor();
+
+		factors = new double[lineCount];
+		mark = new int[lineCount];
+		affected = new int[lineCount];
+
+		columns = new Column[regionCount];
+		newer = new int[regionCount];
+		older = new int[regionCount];
+		solvedLines = new int[lineCount];
+		solvedFactors = new double[lineCount];
+	}
+
+	// forgets which lines blocked which pairs of regions, e.g., when every line has been emptied
+	public void clearBlockedPairs() {
+		blockedPairs.clear();
+	}
+
+	// sends as much as possible of a given quantity of electricity from origin to destination
+	// origin can send no more than its surplus (electricity minus demand), as with TransferEngine, and no line may
+	// be pushed past its capacity
+	// returns the amount of electricity sent
+	public double transfer(Region origin, Region destination, double quantity) {
+		// a region does not need to send electricity to itself
+		if(origin == destination)
+			return 0;
+
+		// amount to send
+		double limit = Math.min(quantity, origin.getElectricity() - origin.getDemand());
+		if(limit <= 0)
+			return 0;
+
+		// smallest amount worth sending
+		double tolerance = FULL_TOLERANCE * limit;
+
+		if(origin.network != network || destination.network != network)
+			throw new IllegalStateException("Error: regions are not part of this power flow's network");
+
+		// regions in different islands cannot trade
+		int s = origin.getId();
+		int t = destination.getId();
+		if(network.island[s] != network.island[t])
+			return 0;
+
+		// if line that blocked these regions last time is still full, they are still blocked, else forget it
+		long pair = (long)s * network.getRegionCount() + t + 1;
+		int blocking = blockedPairs.get(pair);
+		if(blocking >= 0) {
+			if(isFull(blocking >>> 1, (blocking & 1) == 0))
+				return 0;
+			blockedPairs.remove(pair);
+		}
+
+		// combine origin's and destination's columns
+		Column fromColumn = getColumn(s);
+		Column toColumn = getColumn(t);
+		if(markStamp == Integer.MAX_VALUE) {
+			// on overflow, start stamps over
+			Arrays.fill(mark, 0);
+			markStamp = 0;
+		}
+		++markStamp;
+		combine(fromColumn, 1);
+		combine(toColumn, -1);
+
+		// temporary storage
+		int l;
+		boolean forward;
+		double free;
+		blocking = -1;
+
+		// find largest amount every affected line can take
+		// where the two columns cancel out, what is left is rounding error, so it is dropped
+		for(int i = 0; i < affectedCount; ++i) {
+			l = affected[i];
+			if(Math.abs(factors[l]) <= PTDF_EPSILON)
+				continue;
+
+			// if a line is already full in the direction the transfer would push it, nothing can be sent
+			forward = factors[l] > 0;
+			if(isFull(l, forward)) {
+				limit = 0;
+				blocking = 2 * l + (forward ? 0 : 1);
+				break;
+			}
+
+			free = forward ? network.capacity[l] - network.current[l] : network.capacity[l] + network.current[l];
+			limit = Math.min(limit, free / Math.abs(factors[l]));
+		}
+		if(blocking >= 0)
+			blockedPairs.put(pair, blocking);
+
+		// update currents of affected lines
+		if(limit > tolerance) {
+			for(int i = 0; i < affectedCount; ++i) {
+				l = affected[i];
+				if(Math.abs(factors[l]) > PTDF_EPSILON)
+					network.setCurrent(l, network.current[l] + limit * factors[l]);
+			}
+		}
+
+		// clear combined factors
+		for(int i = 0; i < affectedCount; ++i)
+			factors[affected[i]] = 0;
+		affectedCount = 0;
+
+		if(limit <= tolerance)
+			return 0;
+
+		// move electricity from origin to destination
+		origin.changeElectricity(-1*limit);
+		destination.changeElectricity(limit);
+		return limit;
+	}
+
+	// PTDF of a line for a region, i.e., change in the line's current from source to sink
+	// when a unit of electricity is sent from the region to its island's slack region
+	public double getDistributionFactor(int line, int region) {
+		Column column = getColumn(region);
+		for(int i = 0; i < column.lines.length; ++i) {
+			if(column.lines[i] == line)
+				return column.factors[i];
+		}
+		return 0;
+	}
+
+	// whether a line is full from source to sink (forward) or from sink to source
+	private boolean isFull(int l, boolean forward) {
+		double free = forward ? network.capacity[l] - network.current[l] : network.capacity[l] + network.current[l];
+		return free <= FULL_TOLERANCE * network.capacity[l];
+	}
+
+	// adds a column, times a sign, to the combined factors
+	// lines are marked with markStamp the first time they are affected
+	private void combine(Column column, int sign) {
+		int l;
+		for(int i = 0; i < column.lines.length; ++i) {
+			l = column.lines[i];
+			if(mark[l] != markStamp) {
+				mark[l] = markStamp;
+				affected[affectedCount++] = l;
+			}
+			factors[l] += sign * column.factors[i];
+		}
+	}
+
+	// gets a region's PTDF column, solving for it if it is not kept, and makes it the most recently used
+	private Column getColumn(int region) {
+		Column column = columns[region];
+		if(column == null) {
+			column = solveColumn(region);
+
+			// make room by dropping least recently used columns
+			while(oldest >= 0 && keptFactors + column.lines.length > MAX_KEPT_FACTORS) {
+				keptFactors -= columns[oldest].lines.length;
+				columns[oldest] = null;
+				unlink(oldest);
+			}
+			columns[region] = column;
+			keptFactors += column.lines.length;
+		} else if(region == newest) {
+			return column;
+		} else {
+			unlink(region);
+		}
+
+		// put region at most recently used end of list
+		older[region] = newest;
+		newer[region] = -1;
+		if(newest >= 0)
+			newer[newest] = region;
+		else
+			oldest = region;
+		newest = region;
+		return column;
+	}
+
+	// takes a region out of the list of regions whose columns are kept
+	private void unlink(int region) {
+		if(older[region] >= 0)
+			newer[older[region]] = newer[region];
+		else
+			oldest = newer[region];
+		if(newer[region] >= 0)
+			older[newer[region]] = older[region];
+		else
+			newest = older[region];
+	}
+
+	// solves for a region's PTDF column
+	// only the region's island is solved over, since the other islands' angles stay 0
+	private Column solveColumn(int region) {
+		// slack region's angle is fixed, so sending to slack region from itself changes nothing
+		if(slack[region])
+			return EMPTY_COLUMN;
+
+		// solve B theta = e_region; everything before region's position stays 0 in forward pass
+		int island = network.island[region];
+		int low = islandStart[island];
+		int high = islandEnd[island];
+		int p = position[region];
+		Arrays.fill(angles, low, high, 0);
+		angles[p] = 1;
+
+		// forward: L y = b
+		double sum;
+		for(int i = p + 1; i < high; ++i) {
+			sum = 0;
+			for(int k = Math.max(first[i], p); k < i; ++k)
+				sum += lower[start[i] + k - first[i]] * angles[k];
+			angles[i] = -sum;
+		}
+
+		// diagonal: D z = y
+		for(int i = p; i < high; ++i)
+			angles[i] /= diagonal[i];
+
+		// backward: L^T x = z
+		for(int i = high - 1; i > low; --i) {
+			if(angles[i] == 0)
+				continue;
+			for(int k = first[i]; k < i; ++k)
+				angles[k] -= lower[start[i] + k - first[i]] * angles[i];
+		}
+
+		// read factors of island's lines off angles, keeping those that matter
+		int count = 0;
+		int l;
+		double f;
+		for(int i = lineStart[island]; i < lineStart[island + 1]; ++i) {
+			l = islandLines[i];
+			f = (angles[position[lineFrom[l]]] - angles[position[lineTo[l]]]) / reactance[l];
+			if(Math.abs(f) > PTDF_EPSILON) {
+				solvedLines[count] = l;
+				solvedFactors[count++] = f;
+			}
+		}
+		return new Column(Arrays.copyOf(solvedLines, count), Arrays.copyOf(solvedFactors, count));
+	}
+
+	// factors B into L D L^T
+	// slack regions' rows and columns are replaced by those of the identity, which fixes their angles at 0
+	private void factor() {
+		// temporary storage
+		int n = order.length;
+		int r;
+		int k;
+		double sum;
+		double value;
+
+		// fill in B: off-diagonal entries in lower, diagonal entries in diagonal
+		for(int i = 0; i < n; ++i) {
+			r = order[i];
+			if(slack[r]) {
+				diagonal[i] = 1;
+				continue;
+			}
+			for(int a = network.offsets[r]; a < network.offsets[r + 1]; ++a) {
+				if(!inService(a) || network.heads[a] == r)
+					continue;
+				value = 1 / reactance[network.arcs[a] >>> 1];
+				diagonal[i] += value;
+				k = position[network.heads[a]];
+				if(k < i && !slack[network.heads[a]])
+					lower[start[i] + k - first[i]] -= value;
+			}
+		}
+
+		// factor row by row
+		for(int i = 0; i < n; ++i) {
+			for(int j = first[i]; j < i; ++j) {
+				// L[i][j] D[j] = B[i][j] - sum over k < j of L[i][k] D[k] L[j][k]
+				sum = lower[start[i] + j - first[i]];
+				for(k = Math.max(first[i], first[j]); k < j; ++k)
+					sum -= lower[start[i] + k - first[i]] * diagonal[k] * lower[start[j] + k - first[j]];
+				lower[start[i] + j - first[i]] = sum / diagonal[j];
+			}
+
+			// D[i] = B[i][i] - sum over k < i of L[i][k]^2 D[k]
+			sum = diagonal[i];
+			for(k = first[i]; k < i; ++k) {
+				value = lower[start[i] + k - first[i]];
+				sum -= value * value * diagonal[k];
+			}
+			diagonal[i] = sum;
+		}
+	}
+
+	// puts regions in reverse Cuthill-McKee order: breadth first from a region of least degree
+	// in each island, visiting neighbors in order of degree, and then reversed
+	private int[] orderRegions() {
+		int n = network.getRegionCount();
+		int[] result = new int[n];
+		int[] degree = new int[n];
+		boolean[] visited = new boolean[n];
+		int count = 0;
+
+		for(int r = 0; r < n; ++r) {
+			for(int a = network.offsets[r]; a < network.offsets[r + 1]; ++a) {
+				if(inService(a))
+					++degree[r];
+			}
+		}
+
+		// start each island at its region of least degree
+		int[] starts = new int[n];
+		for(int r = 0; r < n; ++r)
+			starts[r] = -1;
+		int island;
+		for(int r = 0; r < n; ++r) {
+			island = network.island[r];
+			if(starts[island] < 0 || degree[r] < degree[starts[island]])
+				starts[island] = r;
+		}
+
+		// temporary storage
+		int head;
+		int tail;
+		int r;
+		int v;
+		int j;
+		for(int i = 0; i < n; ++i) {
+			if(starts[i] < 0 || visited[starts[i]])
+				continue;
+
+			head = count;
+			result[count++] = starts[i];
+			visited[starts[i]] = true;
+			while(head < count) {
+				r = result[head++];
+				tail = count;
+				for(int a = network.offsets[r]; a < network.offsets[r + 1]; ++a) {
+					if(inService(a) && !visited[network.heads[a]]) {
+						visited[network.heads[a]] = true;
+						result[count++] = network.heads[a];
+					}
+				}
+
+				// sort new neighbors by degree
+				for(int x = tail + 1; x < count; ++x) {
+					v = result[x];
+					for(j = x - 1; j >= tail && degree[result[j]] > degree[v]; --j)
+						result[j + 1] = result[j];
+					result[j + 1] = v;
+				}
+			}
+		}
+
+		// reverse
+		for(int i = 0; i < n / 2; ++i) {
+			v = result[i];
+			result[i] = result[n - 1 - i];
+			result[n - 1 - i] = v;
+		}
+		return result;
+	}
+
+	// whether an arc's line is in service
+	private boolean inService(int arc) {
+		return network.capacity[network.arcs[arc] >>> 1] > 0;
+	}
+}
@@ -0,0 +1,110 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Reads the demand of every region for a series of intervals, one interval
+ * at a time
+ *
+ * A demand profile is a text file with one line per interval (e.g., 8,760
+ * lines for a year of hours), each giving the demand of every region for
+ * that interval: one number per region, separated by whitespace, in the
+ * order in which the regions are declared in the input file (company 1's
+ * regions first, then company 2's, and so on). Blank lines and lines that
+ * start with # are skipped.
+ *
+ * The file is streamed, so only the interval being read is ever in memory,
+ * however many intervals there are.
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+public class DemandProfile implements Closeable {
+	// file being read, and reader for it
+	private final Path file;
+	private final BufferedReader reader;
+
+	// number of regions each interval gives a demand for
+	private final int regionCount;
+
+	// number of lines and intervals read so far
+	private int lineCounter = 0;
+	private int intervals = 0;
+
+	// constructor
+	public DemandProfile(Path f, int regions) throws IOException {
+		super();
+		file = f;
+		regionCount = regions;
+		try {
+			reader = Files.newBufferedReader(f, StandardCharsets.UTF_8);
+		}
+		catch(NoSuchFileException ex) {
+			throw new IOException("Error: the demand profile " + f + " could not be found", ex);
+		}
+	}
+
+	// number of intervals read so far
+	public int getIntervals() {
+		return intervals;
+	}
+
+	// reads the demands for the next interval into an array, by region number
+	// returns false if there are no more intervals
+	public boolean next(double[] demands) throws IOException {
+		if(demands.length < regionCount)
+			throw new IllegalArgumentException("Error: array is too small for the demands of " + regionCount + " regions");
+
+		// find next line that gives an interval
+		String line;
+		do {
+			line = reader.readLine();
+			if(line == null)
+				return false;
+			++lineCounter;
+			line = line.trim();
+		}
+		while(line.isEmpty() || line.startsWith("#"));
+
+		// read one demand per region
+		int start;
+		int end = 0;
+		int r = 0;
+		while(true) {
+			// skip whitespace to the next number
+			start = end;
+			while(start < line.length() && Character.isWhitespace(line.charAt(start)))
+				++start;
+			if(start == line.length())
+				break;
+			end = start;
+			while(end < line.length() && !Character.isWhitespace(line.charAt(end)))
+				++end;
+
+			if(r == regionCount)
+				throw new IOException("Error: more than " + regionCount + " demands on line " + lineCounter + " of " + file);
+			try {
+				demands[r] = Double.parseDouble(line.substring(start, end));
+			}
+			catch(NumberFormatException ex) {
+				throw new IOException("Error: invalid demand on line " + lineCounter + " of " + file);
+			}
+			if(demands[r] < 0 || Double.isNaN(demands[r]) || Double.isInfinite(demands[r]))
+				throw new IOException("Error: invalid demand on line " + lineCounter + " of " + file);
+			++r;
+		}
+		if(r < regionCount)
+			throw new IOException("Error: " + r + " demands on line " + lineCounter + " of " + file + ", but there are " + regionCount + " regions");
+
+		++intervals;
+		return true;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+}
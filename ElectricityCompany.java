@@ -34,6 +34,9 @@ package com.goodeast.economics;
 import java.util.*;
 
 public class ElectricityCompany {
+	// number identifying company in the simulation, or -1 if it has not been given one
+	protected int id = -1;
+	
 	// max price that company will pay for electricity
 	protected double maxPrice;
 	
@@ -43,10 +46,17 @@ public class ElectricityCompany {
 	// the regions to which the company provides power
 	List<Region> regions = new ArrayList<Region>();
 	
-	// list of buy orders
-	List<ElectricityOrder> buyOrders = new ArrayList<ElectricityOrder>();
-	// list of sell orders
-	List<ElectricityOrder> sellOrders = new ArrayList<ElectricityOrder>();
+	// buy orders, in the order in which they were placed
+	// a linked hash set, so an order can be erased in O(1) when it is cancelled
+	Set<ElectricityOrder> buyOrders = new LinkedHashSet<ElectricityOrder>();
+	// sell orders, in the order in which they were placed
+	Set<ElectricityOrder> sellOrders = new LinkedHashSet<ElectricityOrder>();
+	
+	// sorts power plants by cost, and its buffers
+	private final RadixSort plantSorter = new RadixSort();
+	private long[] plantKeys = new long[0];
+	private int[] plantIndices = new int[0];
+	private PowerPlant[] plantBuffer = new PowerPlant[0];
 	
 	// constructor
 	public ElectricityCompany(double price) {
@@ -55,6 +65,14 @@ public class ElectricityCompany {
 	}
 	
 	// accessor and mutator methods
+	public int getId() {
+		return id;
+	}
+	
+	public void setId(int number) {
+		id = number;
+	}
+	
 	public double getMaxPrice() {
 		return maxPrice;
 	}
@@ -67,6 +85,13 @@ public class ElectricityCompany {
 		expenses += change;
 	}
 	
+	// erases the company's records of its orders, e.g., before the next interval of a simulation
+	// orders still in a market must be cancelled first (see AuctionMarket.cancelAllOrders())
+	public void clearOrders() {
+		buyOrders.clear();
+		sellOrders.clear();
+	}
+	
 	/*
 	 * submits trades to the auction market, choosing trades that minimize the
 	 * company's expenses
@@ -78,13 +103,15 @@ public class ElectricityCompany {
 	 * the market (see the AuctinMarket class).
 	 */
 	public void orderTrades(AuctionMarket market) {
-		// comparator for power plants
-		PlantMargCostComparator margCostOrder = new PlantMargCostComparator();
 		// temporary storage
 		Region tempRegion;
 		PowerPlant tempPlant;
 		double surplus;
 		
+		// ladders of sell and buy orders for a region, submitted to the market in one call per side
+		double[] sellPrices, sellQuantities, buyPrices, buyQuantities;
+		int sellCount, buyCount;
+		
 		// iterator for lists of power plants
 		ListIterator<PowerPlant> plantItr;
 		
@@ -94,7 +121,15 @@ public class ElectricityCompany {
 			tempRegion = regionItr.next();
 			
 			// sort the region's list of power plants by cost
-			Collections.sort(tempRegion.powerPlants, margCostOrder); 
+			sortPlants(tempRegion.powerPlants);
+			
+			// each plant adds at most one order to a ladder, and the region's deficit adds one more
+			sellPrices = new double[tempRegion.powerPlants.size()];
+			sellQuantities = new double[tempRegion.powerPlants.size()];
+			buyPrices = new double[tempRegion.powerPlants.size() + 1];
+			buyQuantities = new double[tempRegion.powerPlants.size() + 1];
+			sellCount = 0;
+			buyCount = 0;
 			
 			// calculate region's surplus electricity
 			surplus = tempRegion.getElectricity() - tempRegion.getDemand();
@@ -111,14 +146,16 @@ public class ElectricityCompany {
 					if(tempPlant.getClass() == BasePlant.class) {
 						// place a sell order for surplus 
 						// price is 0 because that is point when region is indifferent about selling it
-						market.placeSellOrder(0, surplus, this, tempRegion);
+						sellPrices[sellCount] = 0;
+						sellQuantities[sellCount++] = surplus;
 						// there is no more surplus, so break
 						break;
 					}
 					// else plant is not base-load, so if surplus is less than or equal to output...
 					else if(surplus <= tempPlant.getMaxOutputRate()) {
 						// ... place a sell order for surplus, trying to sell it for at least what it costs to produce output 
-						market.placeSellOrder(tempPlant.getMargCost(), surplus, this, tempRegion);
+						sellPrices[sellCount] = tempPlant.getMargCost();
+						sellQuantities[sellCount++] = surplus;
 						// there is no more surplus, so...
 						// if surplus was equal to output, break
 						if(surplus == tempPlant.getMaxOutputRate())
@@ -133,7 +170,8 @@ public class ElectricityCompany {
 					// else surplus must be greater than output, and plant is not base-load
 					else {
 						// place a sell order for plant's output, trying to sell it for at least what it costs to produce output
-						market.placeSellOrder(tempPlant.getMargCost(), tempPlant.getMaxOutputRate(), this, tempRegion);
+						sellPrices[sellCount] = tempPlant.getMargCost();
+						sellQuantities[sellCount++] = tempPlant.getMaxOutputRate();
 						// reduce surplus by amount sold
 						surplus -= tempPlant.getMaxOutputRate();
 					}
@@ -143,7 +181,8 @@ public class ElectricityCompany {
 			else if(surplus < 0) {
 				// TODO: first try to cover deficit with surplus from company's other regions
 				// so try to buy electricity to cover deficit
-				market.placeBuyOrder(maxPrice, -1 * surplus, this, tempRegion);
+				buyPrices[buyCount] = maxPrice;
+				buyQuantities[buyCount++] = -1 * surplus;
 			}
 			
 			// if region is meeting demand with non-base-load plants, 
@@ -157,13 +196,56 @@ public class ElectricityCompany {
 				if(tempPlant.getClass() == BasePlant.class)
 					break;
 				// else try to buy electricity for cheaper than plant's output cost
-				else 
-					market.placeBuyOrder(tempPlant.getMargCost(), tempPlant.getOutputRate(), this, tempRegion);
+				else {
+					buyPrices[buyCount] = tempPlant.getMargCost();
+					buyQuantities[buyCount++] = tempPlant.getOutputRate();
+				}
 			}
+			
+			// submit region's ladders to the market, sell orders first
+			market.placeSellOrders(sellPrices, sellQuantities, sellCount, this, tempRegion);
+			market.placeBuyOrders(buyPrices, buyQuantities, buyCount, this, tempRegion);
 		}
 	}
 	
 	
+	/*
+	 * sorts a list of power plants in the same order as PlantMargCostComparator:
+	 * base-load plants first, then by marginal cost, keeping the list's order 
+	 * for plants that are equal
+	 * 
+	 * Sorts on primitive keys (see the RadixSort class) instead of calling a 
+	 * comparator, and reuses the company's buffers. Plants are sorted by cost,
+	 * and then base-load plants are taken out first, in that order.
+	 */
+	void sortPlants(List<PowerPlant> plants) {
+		int count = plants.size();
+		if(plantKeys.length < count) {
+			plantKeys = new long[count];
+			plantIndices = new int[count];
+			plantBuffer = new PowerPlant[count];
+		}
+		
+		for(int i = 0; i < count; ++i) {
+			plantBuffer[i] = plants.get(i);
+			plantKeys[i] = RadixSort.plantKey(plantBuffer[i]);
+			plantIndices[i] = i;
+		}
+		plantSorter.sort(plantKeys, plantIndices, count);
+		
+		// put plants back into list in sorted order, base-load plants first
+		int next = 0;
+		for(int i = 0; i < count; ++i) {
+			if(plantBuffer[plantIndices[i]].getClass() == BasePlant.class)
+				plants.set(next++, plantBuffer[plantIndices[i]]);
+		}
+		for(int i = 0; i < count; ++i) {
+			if(plantBuffer[plantIndices[i]].getClass() != BasePlant.class)
+				plants.set(next++, plantBuffer[plantIndices[i]]);
+		}
+		Arrays.fill(plantBuffer, 0, count, null);
+	}
+	
 	/*
 	 * stops unnecessary output from company's power plants in a way that
 	 * minimizes expected expenses
@@ -20,6 +20,22 @@ public class ElectricityOrder extends MarketOrder {
 	// region placing order
 	protected Region location;
 	
+	// number identifying order in its market, or -1 if it has not been placed in a market
+	protected long id = -1;
+	
+	// price level of the order book in which the order is resting
+	// null if order is not resting in a book
+	PriceLevel level = null;
+	
+	// neighboring orders in the same price level, in order of time priority
+	ElectricityOrder prev = null, next = null;
+	
+	// slot holding the order in its book's store, or -1 if order is not resting in a book
+	int slot = -1;
+	
+	// whether any of the order has been filled (see the OrderStore class)
+	byte status = OrderStore.OPEN;
+	
 	// constructor
 	public ElectricityOrder(double dollars, double amount, ElectricityCompany co, Region place) {
 		super(dollars, amount);
@@ -28,6 +44,10 @@ public class ElectricityOrder extends MarketOrder {
 	}
 	
 	// accessor methods
+	public long getId() {
+		return id;
+	}
+	
 	public ElectricityCompany getCompany() {
 		return company;
 	}
@@ -8,448 +8,277 @@ package com.goodeast.economics;
  */
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class ElectricitySimulation {
 
 	public static void main(String[] args) throws FileNotFoundException, NumberFormatException, IndexOutOfBoundsException {
 		// check usage
-		if(args.length != 1) { 
+		if(args.length < 1) { 
 			// if user did not provide input file, print error and stop
-			System.out.println("Usage: ElectricitySimulation fileName");
+			System.out.println("Usage: ElectricitySimulation fileName [-continuous | -call] [-dc | -lmp [-zones n]] [-threads n] [-journal journalFile] [-metrics] [-profile profileFile | -runs n] [-seed s] [-save modelFile]");
 			return;
 		}
 		
-		// storage for inputs
-		String line;
-		boolean strategic;
-		List<ElectricityCompany> companies = new ArrayList<ElectricityCompany>();
-		List<ElectricityCompany> shuffledCompanies = new ArrayList<ElectricityCompany>();
-		Region tempRegion1 = null;
-		Region tempRegion2 = null;
-		TransmissionLine tempLine;
-		ElectricityCompany tempCompany;
-		int companiesCounter = 1, regionsCounter = 1, plantsCounter = 1, transmissionCounter = 1;
-		String[] input;
-		int i1 = 0;
-		double d1 = 0;
-		double d2 = 0;
-		double d3 = 0;
-		
-		// iterators
-		Iterator<ElectricityCompany> companyItr;
-		Iterator<Region> regionItr;
-		
-		// keep track of line of input file that scanner is on
-		int lineCounter = 0;
-		
-		// get inputs:
-		// create a scanner
-		Scanner s = null;
-		try {
-			s = new Scanner(new BufferedReader(new FileReader(args[0])));
-		}
-		catch(FileNotFoundException ex) {
-			System.err.println("Error: the file path you entered could not be found");
-		}
-		
-		// see whether companies are thinking competitively or strategically
-		if(s.hasNextLine()) {
-			line = s.nextLine().trim();
-			// update line count
-			++lineCounter;
-			
-			// get input of first line
-			if(line.equalsIgnoreCase("Companies think competitively or strategically: competitively"))
-				strategic = false;
-			else if(line.equalsIgnoreCase("Companies think competitively or strategically: strategically"))
-				strategic = true;
-			// else input is invalid
-			else {
-				System.out.println("Error: invalid input on line " + lineCounter);
-				s.close();
-				return;
-			}
-		}
-		
-		// read input file line by line
-		while(s.hasNextLine()) {
-			line = s.nextLine().trim();
-			// update line count
-			++lineCounter;
-			
-			// if this line has only whitespace 
-			if(line.equals("")) {
-				// skip it
-				continue;
-			}
-			// if this line declares a power plant correctly
-			else if(line.equalsIgnoreCase("Power plant " + plantsCounter)) {
-				// get inputs for plant:
-				// type
-				if(s.hasNextLine()) {
-					line = s.nextLine().trim();
-					++lineCounter;
-					if(line.equalsIgnoreCase("Type is base load, load following, or peaker: base load"))
-						i1 = 1;
-					else if(line.equalsIgnoreCase("Type is base load, load following, or peaker: load following"))
-						i1 = 2;
-					else if(line.equalsIgnoreCase("Type is base load, load following, or peaker: peaker"))
-						i1 = 3;
-					else {
-						System.out.println("Error: invalid input on line " + lineCounter);
-						s.close();
-						return;
-					}
-				}
-				else {
-					System.out.println("Error: invalid input on line " + lineCounter);
-					s.close();
-					return;
-				}
-				
-				// output rate
-				if(s.hasNextLine()) {
-					line = s.nextLine();
-					++lineCounter;
-					input = line.split("\\s+");
-					if(line.startsWith("If type is base load, output rate is:")) {
-						if(i1 == 1 && input.length == 9) {
-							try {
-								d1 = Double.parseDouble(input[8]);
-							}
-							catch(NumberFormatException ex) {
-								System.err.println("Error: invalid input on line " + lineCounter);
-								s.close();
-							}
-						}
-						else if(i1 != 1 && input.length == 8)
-							d2 = 0;
-						else {
-							System.out.println("Error: invalid input on line " + lineCounter);
-							s.close();
-							return;
-						}
-					}
-					else {
-						System.out.println("Error: invalid input on line " + lineCounter);
-						s.close();
-						return;
-					}
-				}
-				else {
-					System.out.println("Error: invalid input on line " + lineCounter);
-					s.close();
-					return;
+		// get options
+		MatchingMode mode = MatchingMode.BATCH;
+		// number of threads on which companies order trades, and islands of the network are routed
+		int threads = 1;
+		// file in which to record trades, if any
+		String journalFile = null;
+		// whether electricity flows by DC power flow instead of being routed along paths
+		boolean dcPowerFlow = false;
+		// whether the whole market is cleared at once at locational marginal prices, instead of by trading
+		boolean nodalPricing = false;
+		// number of zones solved in parallel when clearing at locational marginal prices
+		int zoneCount = 1;
+		// number of independent runs whose statistics are printed, if more than 0, and seed for their random streams
+		int runs = 0;
+		long seed = System.nanoTime();
+		// file of demands for a series of intervals, if any
+		String profileFile = null;
+		// whether to count and time routing, and print what was counted
+		boolean showMetrics = false;
+		// model file to save the input to, instead of simulating, if any
+		String saveFile = null;
+		for(int i = 1; i < args.length; ++i) {
+			// match orders as they are placed instead of in batches
+			if(args[i].equalsIgnoreCase("-continuous"))
+				mode = MatchingMode.CONTINUOUS;
+			// clear the market at a single price
+			else if(args[i].equalsIgnoreCase("-call"))
+				mode = MatchingMode.CALL_AUCTION;
+			// spread electricity over lines by DC power flow
+			else if(args[i].equalsIgnoreCase("-dc"))
+				dcPowerFlow = true;
+			// clear the market at locational marginal prices
+			else if(args[i].equalsIgnoreCase("-lmp"))
+				nodalPricing = true;
+			// split the network into zones, solved in parallel
+			else if(args[i].equalsIgnoreCase("-zones") && i + 1 < args.length) {
+				try {
+					zoneCount = Integer.parseInt(args[++i]);
 				}
-				
-				// Maximum output rate
-				if(s.hasNextLine()) {
-					line = s.nextLine();
-					++lineCounter;
-					input = line.split("\\s+");
-					if(line.startsWith("Maximum output rate:") && input.length == 4) {
-						try {
-							d2 = Double.parseDouble(input[3]);
-						}
-						catch(NumberFormatException ex) {
-							System.err.println("Error: invalid input on line " + lineCounter);
-							s.close();
-						}
-					}
-					else {
-						System.out.println("Error: invalid input on line " + lineCounter);
-						s.close();
-						return;
-					}
+				catch(NumberFormatException ex) {
+					zoneCount = 0;
 				}
-				else {
-					System.out.println("Error: invalid input on line " + lineCounter);
-					s.close();
+				if(zoneCount < 1) {
+					System.out.println("Error: number of zones must be a positive integer");
 					return;
 				}
-				
-				// marginal cost
-				if(s.hasNextLine()) {
-					line = s.nextLine();
-					++lineCounter;
-					input = line.split("\\s+");
-					if(line.startsWith("Marginal cost:") && input.length == 3) {
-						try {
-							d3 = Double.parseDouble(input[2]);
-						}
-						catch(NumberFormatException ex) {
-							System.err.println("Error: invalid input on line " + lineCounter);
-							s.close();
-						}
-					}
-					else {
-						System.out.println("Error: invalid input on line " + lineCounter);
-						s.close();
-						return;
-					}
+			}
+			// count and time routing
+			else if(args[i].equalsIgnoreCase("-metrics"))
+				showMetrics = true;
+			// run one interval for each line of a demand profile
+			else if(args[i].equalsIgnoreCase("-profile") && i + 1 < args.length)
+				profileFile = args[++i];
+			// record every trade in a journal
+			else if(args[i].equalsIgnoreCase("-journal") && i + 1 < args.length)
+				journalFile = args[++i];
+			// have companies order trades in parallel
+			else if(args[i].equalsIgnoreCase("-threads") && i + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++i]);
 				}
-				else {
-					System.out.println("Error: invalid input on line " + lineCounter);
-					s.close();
-					return;
-				}	
-				
-				// create new power plant
-				if(companiesCounter > 1 && regionsCounter > 1) {
-					switch (i1) {
-						case 1: companies.get(companiesCounter - 2).
-								regions.get(regionsCounter - 2).
-								powerPlants.add(new BasePlant(d1, d2, d3));
-								break;
-						
-						case 2: companies.get(companiesCounter - 2).
-								regions.get(regionsCounter - 2).
-								powerPlants.add(new MidPlant(d1, d2, d3));
-								break;
-							
-						case 3: companies.get(companiesCounter - 2).
-								regions.get(regionsCounter - 2).
-								powerPlants.add(new PeakerPlant(d1, d2, d3));
-								break;
-					}
-				
-					++plantsCounter;
+				catch(NumberFormatException ex) {
+					threads = 0;
 				}
-				else {
-					System.out.println("Error: power plant declared without a company or region");
-					s.close();
+				if(threads < 1) {
+					System.out.println("Error: number of threads must be a positive integer");
 					return;
 				}
 			}
-			// else if this line declares a region correctly
-			else if(line.equalsIgnoreCase("Region " + regionsCounter)) {
-				// get input for region
-				if(s.hasNextLine()) {
-					line = s.nextLine();
-					++lineCounter;
-					input = line.split("\\s+");
-					if(line.startsWith("Demand for electricity for this hour:") && input.length == 7) {
-						try {
-							d1 = Double.parseDouble(input[6]);
-						}
-						catch(NumberFormatException ex) {
-							System.err.println("Error: invalid input on line " + lineCounter);
-							s.close();
-						}
-					}
-					else {
-						System.out.println("Error: invalid input on line " + lineCounter);
-						s.close();
-						return;
-					}
-				}
-				else {
-					System.out.println("Error: invalid input on line " + lineCounter);
-					s.close();
-					return;
-				}
-				// initialize last region if there is one and create new region
-				if(companiesCounter == 2 && regionsCounter == 1) {
-					tempRegion1 = new Region(companies.get(0), d1);
-					companies.get(0).regions.add(tempRegion1);	
-					++regionsCounter;
-					plantsCounter = 1;
+			// run many independent simulations in parallel, and print statistics of their results
+			else if(args[i].equalsIgnoreCase("-runs") && i + 1 < args.length) {
+				try {
+					runs = Integer.parseInt(args[++i]);
 				}
-				else if(companiesCounter > 1) {
-					tempRegion1.setAvailableElectricity();
-					tempRegion1 = new Region(companies.get(companiesCounter - 2), d1);
-					companies.get(companiesCounter - 2).regions.add(tempRegion1);	
-					++regionsCounter;
-					plantsCounter = 1;
+				catch(NumberFormatException ex) {
+					runs = 0;
 				}
-				else {
-					System.out.println("Error: region declared without a company");
-					s.close();
+				if(runs < 1) {
+					System.out.println("Error: number of runs must be a positive integer");
 					return;
 				}
 			}
-			// else if this line declares a company correctly
-			else if(line.equalsIgnoreCase("Company " + companiesCounter)) {
-				// get input for region
-				if(s.hasNextLine()) {
-					line = s.nextLine();
-					++lineCounter;
-					input = line.split("\\s+");
-					if(line.startsWith("The maximum price the company will pay when buying electricity:") && input.length == 11) {
-						try {
-							d1 = Double.parseDouble(input[10]);
-						}
-						catch(NumberFormatException ex) {
-							System.err.println("Error: invalid input on line " + lineCounter);
-							s.close();
-						}
-					}
-					else {
-						System.out.println("Error: invalid input on line " + lineCounter);
-						s.close();
-						return;
-					}
+			// save the input as a model file, which loads faster
+			else if(args[i].equalsIgnoreCase("-save") && i + 1 < args.length)
+				saveFile = args[++i];
+			// seed random streams, to repeat a run
+			else if(args[i].equalsIgnoreCase("-seed") && i + 1 < args.length) {
+				try {
+					seed = Long.parseLong(args[++i]);
 				}
-				else {
-					System.out.println("Error: invalid input on line " + lineCounter);
-					s.close();
+				catch(NumberFormatException ex) {
+					System.out.println("Error: seed must be an integer");
 					return;
 				}
-				// create new company
-				companies.add(new ElectricityCompany(d1));
-				++companiesCounter;
-				regionsCounter = 1;
 			}
-			// else if this line declares the start of transmission line data
-			else if(line.equalsIgnoreCase("Transmission lines")) {
-				// initialize last region
-				tempRegion1.setAvailableElectricity();
-				
-				// read input file for transmission lines
-				while(s.hasNextLine()) {
-					line = s.nextLine().trim();
-					// update line count
-					++lineCounter;
-					
-					// if this line has only whitespace 
-					if(line.equals("")) {
-						// skip it
-						continue;
-					}
-					// if this line correctly declares a transmission line
-					else if(line.equalsIgnoreCase("Line " + transmissionCounter)) {
-						// get inputs for line:
-						// capacity
-						if(s.hasNextLine()) {
-							line = s.nextLine();
-							++lineCounter;
-							input = line.split("\\s+");
-							if(line.startsWith("Capacity:") && input.length == 2) {
-								try {
-									d1 = Double.parseDouble(input[1]);
-								}
-								catch(NumberFormatException ex) {
-									System.err.println("Error: invalid input on line " + lineCounter);
-									s.close();
-								}
-							}
-							else {
-								System.out.println("Error: invalid input on line " + lineCounter);
-								s.close();
-								return;
-							}
-						}
-						else {
-							System.out.println("Error: invalid input on line " + lineCounter);
-							s.close();
-							return;
-						}
-						
-						// source
-						if(s.hasNextLine()) {
-							line = s.nextLine();
-							++lineCounter;
-							input = line.split("\\s+");
-							if(line.startsWith("Source: Company") && input.length == 5 && input[3].equalsIgnoreCase("Region")) {
-								try {
-									tempRegion1 = companies.get(Integer.parseInt(input[2]) - 1).regions.get(Integer.parseInt(input[4]) - 1);
-								}
-								catch(IndexOutOfBoundsException ex1) {
-									System.err.println("Error: invalid source or sink for transmission line on line " + lineCounter);
-									s.close();
-								}
-								catch(NumberFormatException ex2) {
-									System.err.println("Error: invalid input on line " + lineCounter);
-									s.close();
-								}
-							}
-							else {
-								System.out.println("Error: invalid input on line " + lineCounter);
-								s.close();
-								return;
-							}
-						}
-						else {
-							System.out.println("Error: invalid input on line " + lineCounter);
-							s.close();
-							return;
-						}
-						
-						// sink
-						if(s.hasNextLine()) {
-							line = s.nextLine();
-							++lineCounter;
-							input = line.split("\\s+");
-							if(line.startsWith("Sink: Company") && input.length == 5 && input[3].equalsIgnoreCase("Region")) {
-								try {
-									tempRegion2 = companies.get(Integer.parseInt(input[2]) - 1).regions.get(Integer.parseInt(input[4]) - 1);
-								}
-								catch(IndexOutOfBoundsException ex1) {
-									System.err.println("Error: invalid source or sink for transmission line on line " + lineCounter);
-									s.close();
-								}
-								catch(NumberFormatException ex2) {
-									System.err.println("Error: invalid input on line " + lineCounter);
-									s.close();
-								}
-							}
-							else {
-								System.out.println("Error: invalid input on line " + lineCounter);
-								s.close();
-								return;
-							}
-						}
-						else {
-							System.out.println("Error: invalid input on line " + lineCounter);
-							s.close();
-							return;
-						}
-						
-						// create new line
-						tempLine = new TransmissionLine(d1, tempRegion1, tempRegion2);
-						tempRegion1.transmissionLines.add(tempLine);
-						tempRegion2.transmissionLines.add(tempLine);
-						++transmissionCounter;
-					}
-				}
+			// else option is invalid
+			else {
+				System.out.println("Error: unknown option " + args[i]);
+				return;
+			}
+		}
+		// nodal pricing routes electricity itself, as pipes
+		if(dcPowerFlow && nodalPricing) {
+			System.out.println("Error: -dc and -lmp cannot be used together");
+			return;
+		}
+		// only nodal pricing is solved by zones
+		if(zoneCount > 1 && !nodalPricing) {
+			System.out.println("Error: -zones can only be used with -lmp");
+			return;
+		}
+		// independent runs only report statistics
+		if(runs > 0 && (profileFile != null || journalFile != null || showMetrics)) {
+			System.out.println("Error: -runs cannot be used with -profile, -journal or -metrics");
+			return;
+		}
+		
+		// read input file, or load it if it is a model file
+		boolean strategic;
+		List<ElectricityCompany> companies;
+		List<TransmissionLine> transmissionLines;
+		ModelReader reader = null;
+		try {
+			if(ModelFile.isModelFile(Paths.get(args[0]))) {
+				ModelFile modelFile = new ModelFile(Paths.get(args[0]));
+				modelFile.load();
+				strategic = modelFile.isStrategic();
+				companies = modelFile.getCompanies();
+				transmissionLines = modelFile.getTransmissionLines();
 			}
-			// else input is invalid
 			else {
-				System.out.println("Error: invalid input on line " + lineCounter);
-				s.close();
+				reader = new ModelReader(Paths.get(args[0]));
+				reader.read();
+				strategic = reader.isStrategic();
+				companies = reader.getCompanies();
+				transmissionLines = reader.getTransmissionLines();
+			}
+		}
+		catch(IOException ex) {
+			System.out.println(ex.getMessage());
+			return;
+		}
+		finally {
+			try {
+				if(reader != null)
+					reader.close();
+			}
+			catch(IOException ex) {
+				System.err.println("Error: the input file could not be closed: " + ex.getMessage());
+			}
+		}
+		
+		// if saving a model file, save it and stop
+		if(saveFile != null) {
+			try {
+				ModelFile.save(Paths.get(saveFile), strategic, companies, transmissionLines);
+			}
+			catch(IOException ex) {
+				System.err.println("Error: the model file could not be written: " + ex.getMessage());
+				return;
+			}
+			System.out.println("Saved model to " + saveFile);
+			return;
+		}
+		
+		// input is complete, so build the network of regions and lines that routing runs on
+		TransmissionNetwork network = TransmissionNetwork.build(companies, transmissionLines);
+		
+		// if making many runs, fork them from a frozen copy of the model and print statistics of their results
+		if(runs > 0) {
+			ScenarioRunner runner = new ScenarioRunner(new ModelBaseline(companies, network), mode, threads, seed);
+			runner.setPowerFlow(dcPowerFlow);
+			if(nodalPricing)
+				runner.setNodalPricing(zoneCount);
+			try {
+				runner.run(runs);
+			}
+			catch(IllegalStateException ex) {
+				System.err.println(ex.getMessage());
 				return;
 			}
+			printStatistics(runner, companies, runs, seed);
+			return;
 		}
-		s.close();
 		
 		// start simulation:
 		// create new auction market for electricity
-		AuctionMarket market = new AuctionMarket();
+		final AuctionMarket market = new AuctionMarket(mode);
+		if(dcPowerFlow)
+			market.setPowerFlow(new DcPowerFlow(network));
+		if(showMetrics)
+			market.setMetrics(new RoutingMetrics(network));
 		
-		// shuffle companies
-		shuffledCompanies.addAll(companies);
-		long seed = System.nanoTime();
-		Collections.shuffle(shuffledCompanies, new Random(seed));
-		// iterate through companies to make trades
-		companyItr = shuffledCompanies.iterator();
-		while(companyItr.hasNext()) {
-			tempCompany = companyItr.next();
-			
-			// have companies order trades
-			tempCompany.orderTrades(market);
-			// market tries to execute trades
-			market.makeTrades();
+		// open trade journal
+		TradeJournal journal = null;
+		if(journalFile != null) {
+			try {
+				journal = new TradeJournal(Paths.get(journalFile));
+				market.setJournal(journal);
+			}
+			catch(IOException ex) {
+				System.err.println("Error: the trade journal could not be opened: " + ex.getMessage());
+				return;
+			}
 		}
 		
-		// iterate through companies again to make final adjustments
-		companyItr = companies.iterator();
-		while(companyItr.hasNext()) {
-			tempCompany = companyItr.next();
-			
-			// have companies order trades
-			tempCompany.stopExtraOutput();;
+		// run the market, for each interval of the demand profile if there is one, else for the one interval in the input file
+		TimeSeriesEngine engine = new TimeSeriesEngine(companies, network, market, threads, seed);
+		DemandProfile profile = null;
+		try {
+			if(nodalPricing)
+				engine.setNodalPricing(zoneCount);
+			if(profileFile != null) {
+				profile = new DemandProfile(Paths.get(profileFile), network.getRegionCount());
+				engine.run(profile, System.out);
+			}
+			else
+				engine.runInterval();
+		}
+		catch(IOException | IllegalStateException ex) {
+			System.err.println(ex.getMessage());
+			return;
 		}
+		// a fill could not be written to the trade journal
+		catch(UncheckedIOException ex) {
+			System.err.println("Error: the trade journal could not be written: " + ex.getCause().getMessage());
+			return;
+		}
+		finally {
+			engine.shutdown();
+			// close trade journal, even if the run stopped early, so it is cut down to the fills recorded
+			if(journal != null) {
+				try {
+					journal.close();
+				}
+				catch(IOException ex) {
+					System.err.println("Error: the trade journal could not be written: " + ex.getMessage());
+				}
+			}
+			if(profile != null) {
+				try {
+					profile.close();
+				}
+				catch(IOException ex) {
+					System.err.println("Error: the demand profile could not be closed: " + ex.getMessage());
+				}
+			}
+		}
+		
+		// price in each region, by region number, if clearing at locational marginal prices
+		double[] prices = engine.getPrices();
+		
+		// temporary storage
+		ElectricityCompany tempCompany;
+		Region tempRegion1;
+		int companiesCounter, regionsCounter;
+		Iterator<ElectricityCompany> companyItr;
+		Iterator<Region> regionItr;
 		
 		// print results:
 		// keep track of which company we're on
@@ -462,8 +291,11 @@ public class ElectricitySimulation {
 			regionsCounter = 0; // keep track of which region we're on
 			System.out.println("Company " + companiesCounter + ":");
 			
-			// print company's expenses
-			System.out.println("Expenses: " + tempCompany.getExpenses());
+			// print company's expenses (over every interval, if there was a series of them)
+			if(profileFile != null)
+				System.out.println("Total expenses: " + engine.getTotalExpenses(tempCompany));
+			else
+				System.out.println("Expenses: " + tempCompany.getExpenses());
 			
 			// iterate through company's regions
 			regionItr = tempCompany.regions.iterator();
@@ -472,11 +304,86 @@ public class ElectricitySimulation {
 				++regionsCounter;
 				System.out.println("Region " + regionsCounter + " -");
 				
+				// over a series of intervals, print demand that went unmet
+				if(profileFile != null) {
+					System.out.println("Total shortfall: " + engine.getTotalShortfall(tempRegion1));
+					continue;
+				}
+				
 				// print region's electricity and demand
 				System.out.println("Electricity: " + tempRegion1.getElectricity());
 				System.out.println("Demand: " + tempRegion1.getDemand());
+				if(prices != null)
+					System.out.println("Price: " + prices[tempRegion1.getId()]);
+			}
+		}
+		
+		// warn if the results are not those of the best dispatch (prices are still those of the dispatch found)
+		if(engine.getUnconvergedIntervals() > 0)
+			System.out.println("Warning: the zonal dispatch did not converge in " + engine.getUnconvergedIntervals() + " of " + engine.getIntervals() + " intervals, so its dispatch may be worse than a nodal dispatch's");
+		
+		// print routing metrics
+		if(market.getMetrics() != null)
+			printMetrics(market.getMetrics());
+	}
+	
+	// prints statistics of the results of many runs
+	private static void printStatistics(ScenarioRunner runner, List<ElectricityCompany> companies, int runs, long seed) {
+		System.out.println("Runs: " + runs);
+		System.out.println("Seed: " + seed);
+		int region = 0;
+		for(int c = 0; c < companies.size(); ++c) {
+			System.out.println("Company " + (c + 1) + ":");
+			System.out.println("Expenses: " + describe(runner.getExpenses(c)));
+			for(int r = 0; r < companies.get(c).regions.size(); ++r, ++region) {
+				System.out.println("Region " + (r + 1) + " -");
+				System.out.println("Shortfall: " + describe(runner.getShortfall(region)));
 			}
 		}
+		
+		// warn if some runs' results are not those of the best dispatch
+		if(runner.getUnconvergedRuns() > 0)
+			System.out.println("Warning: the zonal dispatch did not converge in " + runner.getUnconvergedRuns() + " of " + runs + " runs, so their dispatch may be worse than a nodal dispatch's");
+	}
+	
+	// describes statistics in one line: mean, standard deviation, extremes and quantiles
+	private static String describe(StreamingStatistics statistics) {
+		StringBuilder description = new StringBuilder();
+		description.append("mean ").append(statistics.getMean());
+		description.append(", standard deviation ").append(statistics.getStandardDeviation());
+		description.append(", min ").append(statistics.getMin());
+		for(double q : ScenarioRunner.QUANTILES)
+			description.append(", ").append(Math.round(100 * q)).append("% ").append(statistics.getQuantile(q));
+		description.append(", max ").append(statistics.getMax());
+		return description.toString();
+	}
+	
+	// prints what was counted while routing, and the lines that were congested most often
+	private static void printMetrics(RoutingMetrics metrics) {
+		// number of lines to list, and of buckets of the utilization histogram
+		final int congestedLines = 10;
+		final int buckets = 10;
+		
+		System.out.println("Routing -");
+		System.out.println("Transfers: " + metrics.getTransfers() + " (" + metrics.getFilled() + " filled, " + metrics.getPartlyFilled() + " partly filled, " + metrics.getFailed() + " failed, " + metrics.getTurnedDown() + " turned down)");
+		System.out.println("Electricity sent: " + metrics.getSent() + " of " + metrics.getRequested());
+		System.out.println("Searches: " + metrics.getSearches() + " (" + metrics.getRegionsVisited() + " regions visited, " + metrics.getBlockedArcs() + " full lines found)");
+		System.out.println("Paths: " + metrics.getPaths() + " (" + metrics.getPathSteps() + " steps)");
+		System.out.println("Transfer time (ms): " + metrics.getTransferNanos() / 1e6 + " (longest " + metrics.getLongestTransferNanos() / 1e6 + ")");
+		System.out.println("Rounds of matching: " + metrics.getRounds() + " (" + metrics.getRetrySweeps() + " retry sweeps, " + metrics.getRetries() + " asks retried)");
+		
+		// how full lines are, in buckets of 10%
+		long[] histogram = metrics.getUtilizationHistogram(buckets);
+		System.out.println("Line utilization:");
+		for(int b = 0; b < buckets; ++b)
+			System.out.println((100 * b / buckets) + "-" + (100 * (b + 1) / buckets) + "%: " + histogram[b]);
+		
+		// lines that were bottlenecks most often, numbered as in the input
+		int[] lines = metrics.getCongestedLines(congestedLines);
+		if(lines.length > 0)
+			System.out.println("Most congested lines:");
+		for(int l : lines)
+			System.out.println("Line " + (l + 1) + ": bottleneck " + metrics.getLineBottlenecks(l) + " times, on " + metrics.getLineUses(l) + " paths");
 	}
 
 }
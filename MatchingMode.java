@@ -0,0 +1,27 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Ways in which an auction market can match bids and asks
+ *
+ * BATCH: orders rest in the book until makeTrades() is called, and then
+ * every ask is matched against the bids
+ *
+ * CONTINUOUS: each new order is matched against the other side of the book
+ * as soon as it is placed, and only whatever cannot be filled rests in the
+ * book; makeTrades() gives resting orders that still cross (because their
+ * electricity could not be sent) another try, as BATCH does
+ *
+ * CALL_AUCTION: orders rest in the book until makeTrades() is called, and
+ * then the whole book clears at a single price where aggregate supply meets
+ * aggregate demand
+ *
+ */
+
+public enum MatchingMode {
+	BATCH,
+	CONTINUOUS,
+	CALL_AUCTION
+}
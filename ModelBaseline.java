@@ -0,0 +1,168 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Frozen copy of a parsed model (companies, regions, plants and lines), in
+ * flat arrays, that many runs can start from
+ *
+ * Everything a run does not change is kept here once, and shared by every
+ * run: the companies' maximum prices, which regions belong to which company
+ * and which plants to which region, the plants' types, maximum outputs and
+ * marginal costs, and the lines' ends, capacities and reactances, along with
+ * the arcs and islands of the network they make. What a run does change (the
+ * demand and electricity of regions, the output of plants, the current of
+ * lines and the expenses of companies) is kept in a ModelOverlay, in arrays
+ * of primitives, so forking a run from the baseline only copies a few
+ * arrays.
+ *
+ * Companies are numbered in the order of the list given, regions in the
+ * order of the network (see the TransmissionNetwork class), and plants and
+ * lines in the order of their regions and of the network. Each region's lines
+ * are rebuilt in the order of the network's lines, which is the order in
+ * which the input file declares them.
+ *
+ * Nothing in a baseline changes once it is made, so runs on several threads
+ * may fork from it at once.
+ *
+ */
+
+import java.util.*;
+
+public final class ModelBaseline {
+	// plant types
+	static final byte BASE_PLANT = 0;
+	static final byte MID_PLANT = 1;
+	static final byte PEAKER_PLANT = 2;
+
+	// companies, by number: id, maximum price, expenses, and first region (regions of company c are
+	// regionStarts[c] to regionStarts[c + 1] - 1)
+	final int[] companyIds;
+	final double[] maxPrices;
+	final double[] expenses;
+	final int[] regionStarts;
+
+	// regions, by number: demand, electricity, and first plant (plants of region r are plantStarts[r] to
+	// plantStarts[r + 1] - 1)
+	final double[] demands;
+	final double[] electricity;
+	final int[] plantStarts;
+
+	// plants, by number: type, output rate, maximum output rate and marginal cost
+	final byte[] plantTypes;
+	final double[] outputRates;
+	final double[] maxOutputRates;
+	final double[] margCosts;
+
+	// lines, by number: reactance and current
+	// (ends and capacities are kept by the network)
+	final double[] reactances;
+	final double[] currents;
+
+	// network whose arcs and islands every run shares
+	final TransmissionNetwork topology;
+
+	// constructor
+	// copies a model as it is now; the network must have been built for the companies' regions, in order
+	public ModelBaseline(List<ElectricityCompany> companies, TransmissionNetwork network) {
+		super();
+		int companyCount = companies.size();
+		int regionCount = network.getRegionCount();
+		int lineCount = network.getLineCount();
+
+		companyIds = new int[companyCount];
+		maxPrices = new double[companyCount];
+		expenses = new double[companyCount];
+		regionStarts = new int[companyCount + 1];
+		demands = new double[regionCount];
+		electricity = new double[regionCount];
+		plantStarts = new int[regionCount + 1];
+
+		// temporary storage
+		ElectricityCompany tempCompany;
+		Region tempRegion;
+		int r = 0;
+
+		// companies and regions
+		for(int c = 0; c < companyCount; ++c) {
+			tempCompany = companies.get(c);
+			companyIds[c] = tempCompany.getId();
+			maxPrices[c] = tempCompany.getMaxPrice();
+			expenses[c] = tempCompany.getExpenses();
+			regionStarts[c] = r;
+			for(Region region : tempCompany.regions) {
+				if(r == regionCount || network.getRegion(r) != region)
+					throw new IllegalArgumentException("Error: network was not built for the regions of the companies, in order");
+				demands[r] = region.getDemand();
+				electricity[r] = region.getElectricity();
+				plantStarts[r + 1] = plantStarts[r] + region.powerPlants.size();
+				++r;
+			}
+		}
+		regionStarts[companyCount] = r;
+		if(r != regionCount)
+			throw new IllegalArgumentException("Error: network was not built for the regions of the companies, in order");
+
+		// plants
+		int plantCount = plantStarts[regionCount];
+		plantTypes = new byte[plantCount];
+		outputRates = new double[plantCount];
+		maxOutputRates = new double[plantCount];
+		margCosts = new double[plantCount];
+		int p = 0;
+		for(r = 0; r < regionCount; ++r) {
+			tempRegion = network.getRegion(r);
+			for(PowerPlant plant : tempRegion.powerPlants) {
+				plantTypes[p] = typeOf(plant);
+				outputRates[p] = plant.getOutputRate();
+				maxOutputRates[p] = plant.getMaxOutputRate();
+				margCosts[p] = plant.getMargCost();
+				++p;
+			}
+		}
+
+		// lines
+		reactances = new double[lineCount];
+		currents = new double[lineCount];
+		for(int l = 0; l < lineCount; ++l) {
+			reactances[l] = network.getLine(l).getReactance();
+			currents[l] = network.current[l];
+		}
+		topology = network;
+	}
+
+	// type of a plant
+	private static byte typeOf(PowerPlant plant) {
+		if(plant.getClass() == BasePlant.class)
+			return BASE_PLANT;
+		else if(plant.getClass() == MidPlant.class)
+			return MID_PLANT;
+		else if(plant.getClass() == PeakerPlant.class)
+			return PEAKER_PLANT;
+		else
+			throw new IllegalArgumentException("Error: unknown type of power plant " + plant.getClass().getName());
+	}
+
+	// accessor methods
+	public int getCompanyCount() {
+		return maxPrices.length;
+	}
+
+	public int getRegionCount() {
+		return demands.length;
+	}
+
+	public int getPlantCount() {
+		return plantTypes.length;
+	}
+
+	public int getLineCount() {
+		return reactances.length;
+	}
+
+	// starts a run from the model as it was copied
+	public ModelOverlay fork() {
+		return new ModelOverlay(this, demands, electricity, outputRates, currents, expenses);
+	}
+}
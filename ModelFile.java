@@ -0,0 +1,356 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Saves a model (companies, regions, plants and lines, as read from an
+ * input file) in a compact binary form, and loads it again
+ *
+ * A model file holds the same things as an input file, one column at a
+ * time: a header, then the companies' maximum prices and numbers of
+ * regions, the regions' demands and numbers of plants, the plants' types,
+ * output rates, maximum output rates and marginal costs, and the lines'
+ * capacities, reactances, sources and sinks (as region numbers, counting
+ * across companies in order). Every value is stored little-endian, and each
+ * column starts on a multiple of 8 bytes. Loading maps the file into memory
+ * and copies each column into an array in one go, so there is nothing to
+ * parse; the model is then built as reading the input file builds it, and
+ * runs exactly as the input file would.
+ *
+ * The header is:
+ *   bytes 0-7    "GEMODEL" and a 0 byte
+ *   bytes 8-11   version of the format (this class reads and writes version 1)
+ *   bytes 12-15  flags (1 if companies think strategically)
+ *   bytes 16-31  numbers of companies, regions, plants and lines
+ *   bytes 32-35  CRC-32C checksum of everything after the header
+ *   bytes 36-39  0
+ *
+ * A file is checked against its checksum and its length, and every number
+ * and region in it is checked as it is loaded, so a damaged file is turned
+ * down with an IOException instead of giving a wrong model.
+ *
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+public class ModelFile {
+	// first bytes of every model file
+	private static final byte[] MAGIC = "GEMODEL\0".getBytes(StandardCharsets.US_ASCII);
+
+	// version of format written, and the only one read
+	public static final int VERSION = 1;
+
+	// size of header
+	private static final int HEADER_SIZE = 40;
+
+	// flag for companies thinking strategically
+	private static final int STRATEGIC = 1;
+
+	// file being loaded
+	private final Path file;
+
+	// model loaded
+	private boolean strategic;
+	private final List<ElectricityCompany> companies = new ArrayList<ElectricityCompany>();
+	private final List<TransmissionLine> transmissionLines = new ArrayList<TransmissionLine>();
+
+	// constructor
+	public ModelFile(Path f) {
+		super();
+		file = f;
+	}
+
+	// accessor methods
+	public boolean isStrategic() {
+		return strategic;
+	}
+
+	public List<ElectricityCompany> getCompanies() {
+		return companies;
+	}
+
+	public List<TransmissionLine> getTransmissionLines() {
+		return transmissionLines;
+	}
+
+	// whether a file is a model file, by its first bytes
+	public static boolean isModelFile(Path f) throws IOException {
+		byte[] start = new byte[MAGIC.length];
+		try(InputStream in = Files.newInputStream(f)) {
+			return in.readNBytes(start, 0, start.length) == start.length && Arrays.equals(start, MAGIC);
+		}
+		catch(NoSuchFileException ex) {
+			return false;
+		}
+	}
+
+	// size of the file for given numbers of companies, regions, plants and lines
+	private static long fileSize(long c, long r, long p, long l) {
+		return HEADER_SIZE + pad(12 * c) + pad(12 * r) + pad(p) + 24 * p + pad(24 * l);
+	}
+
+	// rounds a size up to a multiple of 8
+	private static long pad(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	/*
+	 * saving
+	 */
+
+	// saves a model: whether companies think strategically, the companies (with their regions and plants)
+	// and the lines, which must join regions of those companies
+	public static void save(Path f, boolean strategic, List<ElectricityCompany> companyList, List<TransmissionLine> lineList) throws IOException {
+		// number regions in the order of the companies
+		Map<Region, Integer> regionNumbers = new IdentityHashMap<Region, Integer>();
+		List<Region> regions = new ArrayList<Region>();
+		List<PowerPlant> plants = new ArrayList<PowerPlant>();
+		for(ElectricityCompany company : companyList) {
+			for(Region region : company.regions) {
+				regionNumbers.put(region, regions.size());
+				regions.add(region);
+				plants.addAll(region.powerPlants);
+			}
+		}
+
+		long size = fileSize(companyList.size(), regions.size(), plants.size(), lineList.size());
+		if(size > Integer.MAX_VALUE)
+			throw new IOException("Error: model is too large for a model file");
+		ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+		// temporary storage
+		Integer source;
+		Integer sink;
+
+		// header (checksum is filled in last)
+		buffer.put(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(strategic ? STRATEGIC : 0);
+		buffer.putInt(companyList.size());
+		buffer.putInt(regions.size());
+		buffer.putInt(plants.size());
+		buffer.putInt(lineList.size());
+		buffer.putInt(0);
+		buffer.putInt(0);
+
+		// companies
+		for(ElectricityCompany company : companyList)
+			buffer.putDouble(company.getMaxPrice());
+		for(ElectricityCompany company : companyList)
+			buffer.putInt(company.regions.size());
+		align(buffer);
+
+		// regions
+		for(Region region : regions)
+			buffer.putDouble(region.getDemand());
+		for(Region region : regions)
+			buffer.putInt(region.powerPlants.size());
+		align(buffer);
+
+		// plants
+		for(PowerPlant plant : plants)
+			buffer.put(typeOf(plant));
+		align(buffer);
+		for(PowerPlant plant : plants)
+			buffer.putDouble(plant.getOutputRate());
+		for(PowerPlant plant : plants)
+			buffer.putDouble(plant.getMaxOutputRate());
+		for(PowerPlant plant : plants)
+			buffer.putDouble(plant.getMargCost());
+
+		// lines
+		for(TransmissionLine line : lineList)
+			buffer.putDouble(line.getCapacity());
+		for(TransmissionLine line : lineList)
+			buffer.putDouble(line.getReactance());
+		for(int i = 0; i < lineList.size(); ++i) {
+			source = regionNumbers.get(lineList.get(i).getSource());
+			if(source == null)
+				throw new IllegalArgumentException("Error: source of transmission line " + (i + 1) + " is not a region of the companies");
+			buffer.putInt(source);
+		}
+		for(int i = 0; i < lineList.size(); ++i) {
+			sink = regionNumbers.get(lineList.get(i).getSink());
+			if(sink == null)
+				throw new IllegalArgumentException("Error: sink of transmission line " + (i + 1) + " is not a region of the companies");
+			buffer.putInt(sink);
+		}
+		align(buffer);
+
+		// checksum
+		buffer.putInt(32, checksum(buffer));
+
+		// write file
+		buffer.flip();
+		try(FileChannel channel = FileChannel.open(f, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	// pads a buffer with zeros to a multiple of 8 bytes
+	private static void align(ByteBuffer buffer) {
+		while((buffer.position() & 7) != 0)
+			buffer.put((byte) 0);
+	}
+
+	// type of a plant, numbered as in ModelBaseline
+	private static byte typeOf(PowerPlant plant) {
+		if(plant.getClass() == BasePlant.class)
+			return ModelBaseline.BASE_PLANT;
+		else if(plant.getClass() == MidPlant.class)
+			return ModelBaseline.MID_PLANT;
+		else if(plant.getClass() == PeakerPlant.class)
+			return ModelBaseline.PEAKER_PLANT;
+		else
+			throw new IllegalArgumentException("Error: unknown type of power plant " + plant.getClass().getName());
+	}
+
+	// CRC-32C of everything in a buffer after the header
+	private static int checksum(ByteBuffer buffer) {
+		CRC32C crc = new CRC32C();
+		ByteBuffer body = buffer.duplicate();
+		body.position(HEADER_SIZE);
+		body.limit(buffer.capacity());
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+
+	/*
+	 * loading
+	 */
+
+	// loads the model
+	public void load() throws IOException {
+		ByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+				throw invalid("its size is wrong");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		catch(NoSuchFileException ex) {
+			throw new IOException("Error: the file path you entered could not be found", ex);
+		}
+
+		// header
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if(!Arrays.equals(magic, MAGIC))
+			throw invalid("it is not a model file");
+		int version = buffer.getInt();
+		if(version != VERSION)
+			throw new IOException("Error: " + file + " is a model file of version " + version + ", but only version " + VERSION + " can be read");
+		strategic = (buffer.getInt() & STRATEGIC) != 0;
+		int companyCount = buffer.getInt();
+		int regionCount = buffer.getInt();
+		int plantCount = buffer.getInt();
+		int lineCount = buffer.getInt();
+		if(companyCount < 0 || regionCount < 0 || plantCount < 0 || lineCount < 0
+				|| fileSize(companyCount, regionCount, plantCount, lineCount) != buffer.capacity())
+			throw invalid("its size does not match its header");
+		if(buffer.getInt(32) != checksum(buffer))
+			throw invalid("its checksum does not match");
+		buffer.position(HEADER_SIZE);
+
+		// read columns
+		double[] maxPrices = readDoubles(buffer, companyCount);
+		int[] regionCounts = readInts(buffer, companyCount);
+		align(buffer, 12 * companyCount);
+		double[] demands = readDoubles(buffer, regionCount);
+		int[] plantCounts = readInts(buffer, regionCount);
+		align(buffer, 12 * regionCount);
+		byte[] types = new byte[plantCount];
+		buffer.get(types);
+		align(buffer, plantCount);
+		double[] outputRates = readDoubles(buffer, plantCount);
+		double[] maxOutputRates = readDoubles(buffer, plantCount);
+		double[] margCosts = readDoubles(buffer, plantCount);
+		double[] capacities = readDoubles(buffer, lineCount);
+		double[] reactances = readDoubles(buffer, lineCount);
+		int[] sources = readInts(buffer, lineCount);
+		int[] sinks = readInts(buffer, lineCount);
+
+		// build companies, regions and plants, giving each region its electricity as the input file does
+		Region[] regions = new Region[regionCount];
+		ElectricityCompany tempCompany;
+		Region tempRegion;
+		int r = 0;
+		int p = 0;
+		for(int c = 0; c < companyCount; ++c) {
+			tempCompany = new ElectricityCompany(maxPrices[c]);
+			tempCompany.setId(c);
+			if(regionCounts[c] < 0 || regionCounts[c] > regionCount - r)
+				throw invalid("company " + (c + 1) + " has a wrong number of regions");
+			for(int i = 0; i < regionCounts[c]; ++i) {
+				tempRegion = new Region(tempCompany, demands[r]);
+				tempRegion.setId(r);
+				if(plantCounts[r] < 0 || plantCounts[r] > plantCount - p)
+					throw invalid("region " + (r + 1) + " has a wrong number of plants");
+				for(int j = 0; j < plantCounts[r]; ++j) {
+					switch(types[p]) {
+						case ModelBaseline.BASE_PLANT: tempRegion.powerPlants.add(new BasePlant(outputRates[p], maxOutputRates[p], margCosts[p]));
+								break;
+						case ModelBaseline.MID_PLANT: tempRegion.powerPlants.add(new MidPlant(outputRates[p], maxOutputRates[p], margCosts[p]));
+								break;
+						case ModelBaseline.PEAKER_PLANT: tempRegion.powerPlants.add(new PeakerPlant(outputRates[p], maxOutputRates[p], margCosts[p]));
+								break;
+						default: throw invalid("plant " + (p + 1) + " has an unknown type");
+					}
+					++p;
+				}
+				tempRegion.setAvailableElectricity();
+				tempCompany.regions.add(tempRegion);
+				regions[r++] = tempRegion;
+			}
+			companies.add(tempCompany);
+		}
+		if(r != regionCount || p != plantCount)
+			throw invalid("its numbers of regions and plants do not add up");
+
+		// build lines
+		TransmissionLine tempLine;
+		for(int l = 0; l < lineCount; ++l) {
+			if(sources[l] < 0 || sources[l] >= regionCount || sinks[l] < 0 || sinks[l] >= regionCount)
+				throw invalid("transmission line " + (l + 1) + " joins a region that does not exist");
+			if(!(reactances[l] > 0))
+				throw invalid("transmission line " + (l + 1) + " does not have a positive reactance");
+			tempLine = new TransmissionLine(capacities[l], regions[sources[l]], regions[sinks[l]]);
+			tempLine.setReactance(reactances[l]);
+			regions[sources[l]].transmissionLines.add(tempLine);
+			regions[sinks[l]].transmissionLines.add(tempLine);
+			transmissionLines.add(tempLine);
+		}
+	}
+
+	// reads a column of doubles
+	private static double[] readDoubles(ByteBuffer buffer, int count) {
+		double[] column = new double[count];
+		buffer.asDoubleBuffer().get(column);
+		buffer.position(buffer.position() + 8 * count);
+		return column;
+	}
+
+	// reads a column of ints
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] column = new int[count];
+		buffer.asIntBuffer().get(column);
+		buffer.position(buffer.position() + 4 * count);
+		return column;
+	}
+
+	// skips the padding after a section of a given size
+	private static void align(ByteBuffer buffer, long size) {
+		buffer.position(buffer.position() + (int) (pad(size) - size));
+	}
+
+	private IOException invalid(String reason) {
+		return new IOException("Error: " + file + " is not a valid model file: " + reason);
+	}
+}
@@ -0,0 +1,203 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * The state of one run of a model forked from a ModelBaseline: the demand
+ * and electricity of each region, the output rate of each plant, the current
+ * of each line and the expenses of each company, in arrays of primitives
+ * numbered as in the baseline
+ *
+ * Forking copies these arrays and nothing else, so a run, or a sensitivity
+ * case that changes a few demands or outputs, costs a few array copies
+ * until it is run. To run it, build() makes the companies, regions, plants
+ * and lines the market works on, set to the overlay's state, in one pass
+ * over the arrays, and a network for them that shares the baseline's arcs
+ * and islands. Once the run is done, capture() copies the state back into
+ * the arrays and lets go of the objects, so only the arrays are kept.
+ *
+ * An overlay must only be used by one thread at a time; overlays forked from
+ * the same baseline share nothing they change.
+ *
+ */
+
+import java.util.*;
+
+public class ModelOverlay {
+	// baseline overlay was forked from
+	private final ModelBaseline baseline;
+
+	// state of run, numbered as in baseline
+	private final double[] demands;
+	private final double[] electricity;
+	private final double[] outputRates;
+	private final double[] currents;
+	private final double[] expenses;
+
+	// objects built for run, in order, or null if not built
+	private List<ElectricityCompany> companies;
+	private TransmissionNetwork network;
+	private PowerPlant[] plants;
+
+	// constructor
+	// copies the state it is given
+	ModelOverlay(ModelBaseline b, double[] regionDemands, double[] regionElectricity, double[] plantOutputRates, double[] lineCurrents, double[] companyExpenses) {
+		super();
+		baseline = b;
+		demands = regionDemands.clone();
+		electricity = regionElectricity.clone();
+		outputRates = plantOutputRates.clone();
+		currents = lineCurrents.clone();
+		expenses = companyExpenses.clone();
+	}
+
+	// starts another run from the state of this one (as last captured, if it has been built)
+	public ModelOverlay fork() {
+		return new ModelOverlay(baseline, demands, electricity, outputRates, currents, expenses);
+	}
+
+	// accessor and mutator methods
+	public ModelBaseline getBaseline() {
+		return baseline;
+	}
+
+	public double getDemand(int region) {
+		return demands[region];
+	}
+
+	public void setDemand(int region, double amount) {
+		checkNotBuilt();
+		demands[region] = amount;
+	}
+
+	public double getElectricity(int region) {
+		return electricity[region];
+	}
+
+	// demand in a region that its electricity does not cover
+	public double getShortfall(int region) {
+		return Math.max(0, demands[region] - electricity[region]);
+	}
+
+	public double getOutputRate(int plant) {
+		return outputRates[plant];
+	}
+
+	public double getCurrent(int line) {
+		return currents[line];
+	}
+
+	public double getExpenses(int company) {
+		return expenses[company];
+	}
+
+	// companies and network built for the run, or null if it has not been built
+	public List<ElectricityCompany> getCompanies() {
+		return companies;
+	}
+
+	public TransmissionNetwork getNetwork() {
+		return network;
+	}
+
+	// state can only be changed through the arrays while no objects hold it
+	private void checkNotBuilt() {
+		if(network != null)
+			throw new IllegalStateException("Error: overlay has been built; capture it before changing it");
+	}
+
+	/*
+	 * builds the companies, regions, plants and lines of the run, set to the
+	 * overlay's state, and a network for them sharing the baseline's arcs and
+	 * islands
+	 * returns the network
+	 */
+	public TransmissionNetwork build() {
+		checkNotBuilt();
+		int regionCount = baseline.getRegionCount();
+		int lineCount = baseline.getLineCount();
+		Region[] regions = new Region[regionCount];
+		TransmissionLine[] lines = new TransmissionLine[lineCount];
+		companies = new ArrayList<ElectricityCompany>(baseline.getCompanyCount());
+		plants = new PowerPlant[baseline.getPlantCount()];
+
+		// temporary storage
+		ElectricityCompany tempCompany;
+		Region tempRegion;
+		TransmissionLine tempLine;
+		TransmissionLine sharedLine;
+
+		// companies, regions and plants
+		for(int c = 0; c < baseline.getCompanyCount(); ++c) {
+			tempCompany = new ElectricityCompany(baseline.maxPrices[c]);
+			tempCompany.setId(baseline.companyIds[c]);
+			tempCompany.updateExpenses(expenses[c]);
+			for(int r = baseline.regionStarts[c]; r < baseline.regionStarts[c + 1]; ++r) {
+				tempRegion = new Region(tempCompany, demands[r]);
+				tempRegion.electricity = electricity[r];
+				for(int p = baseline.plantStarts[r]; p < baseline.plantStarts[r + 1]; ++p) {
+					plants[p] = newPlant(p);
+					tempRegion.powerPlants.add(plants[p]);
+				}
+				tempCompany.regions.add(tempRegion);
+				regions[r] = tempRegion;
+			}
+			companies.add(tempCompany);
+		}
+
+		// lines, added to their regions in the order of the network
+		for(int l = 0; l < lineCount; ++l) {
+			sharedLine = baseline.topology.getLine(l);
+			tempLine = new TransmissionLine(baseline.topology.capacity[l], regions[sharedLine.getSource().getId()], regions[sharedLine.getSink().getId()]);
+			tempLine.setReactance(baseline.reactances[l]);
+			tempLine.getSource().transmissionLines.add(tempLine);
+			tempLine.getSink().transmissionLines.add(tempLine);
+			lines[l] = tempLine;
+		}
+
+		// network, set to lines' currents
+		network = new TransmissionNetwork(baseline.topology, regions, lines);
+		for(int l = 0; l < lineCount; ++l) {
+			if(currents[l] != 0)
+				network.setCurrent(l, currents[l]);
+		}
+		return network;
+	}
+
+	// plant of the baseline's type, set to the overlay's output rate
+	private PowerPlant newPlant(int p) {
+		switch(baseline.plantTypes[p]) {
+		case ModelBaseline.BASE_PLANT:
+			return new BasePlant(outputRates[p], baseline.maxOutputRates[p], baseline.margCosts[p]);
+		case ModelBaseline.MID_PLANT:
+			return new MidPlant(outputRates[p], baseline.maxOutputRates[p], baseline.margCosts[p]);
+		default:
+			return new PeakerPlant(outputRates[p], baseline.maxOutputRates[p], baseline.margCosts[p]);
+		}
+	}
+
+	// copies the state of the objects built for the run back into the overlay, and lets go of them
+	public void capture() {
+		if(network == null)
+			throw new IllegalStateException("Error: overlay has not been built");
+
+		// temporary storage
+		Region tempRegion;
+
+		for(int c = 0; c < expenses.length; ++c)
+			expenses[c] = companies.get(c).getExpenses();
+		for(int r = 0; r < demands.length; ++r) {
+			tempRegion = network.getRegion(r);
+			demands[r] = tempRegion.getDemand();
+			electricity[r] = tempRegion.getElectricity();
+		}
+		for(int p = 0; p < plants.length; ++p)
+			outputRates[p] = plants[p].getOutputRate();
+		System.arraycopy(network.current, 0, currents, 0, currents.length);
+
+		companies = null;
+		network = null;
+		plants = null;
+	}
+}
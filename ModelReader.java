@@ -0,0 +1,598 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Reads the input file: whether companies think strategically, then the
+ * companies, their regions and power plants, and the transmission lines
+ *
+ * The file is read through a channel into a large byte buffer, a block at a
+ * time, and scanned a line at a time in place: lines are found by looking
+ * for line breaks, keywords are compared byte by byte (ignoring case where
+ * the file format does), and numbers are parsed straight from the bytes, so
+ * reading a line creates no Strings and no regular expressions. A number
+ * with at most 15 significant digits and a power of ten of at most 22 is
+ * computed with one exact multiplication or division, which rounds it just
+ * as Double.parseDouble() does; any other number (more digits, NaN, hex,
+ * and so on) is handed to Double.parseDouble() itself.
+ *
+ * Lines may end with \n, \r\n or \r. A line may be as long as memory
+ * allows: the buffer grows when one line fills it. Errors are reported as
+ * IOExceptions giving the line and column (counting bytes, from 1) at which
+ * the input stops making sense.
+ *
+ * As in the file format, each region is given its electricity (see
+ * Region.setAvailableElectricity()) once its plants are read: when the next
+ * region is declared, when transmission lines start, or at the end of the
+ * file.
+ *
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class ModelReader implements Closeable {
+	// size of the buffer the file is read into, which grows if a line does not fit
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	// text of the file format (case is ignored where the format ignores it)
+	private static final byte[] COMPETITIVELY = bytes("Companies think competitively or strategically: competitively");
+	private static final byte[] STRATEGICALLY = bytes("Companies think competitively or strategically: strategically");
+	private static final byte[] COMPANY = bytes("Company");
+	private static final byte[] MAX_PRICE = bytes("The maximum price the company will pay when buying electricity:");
+	private static final byte[] REGION = bytes("Region");
+	private static final byte[] DEMAND = bytes("Demand for electricity for this hour:");
+	private static final byte[] POWER_PLANT = bytes("Power plant");
+	private static final byte[] TYPE = bytes("Type is base load, load following, or peaker: ");
+	private static final byte[] BASE_LOAD = bytes("base load");
+	private static final byte[] LOAD_FOLLOWING = bytes("load following");
+	private static final byte[] PEAKER = bytes("peaker");
+	private static final byte[] OUTPUT_RATE = bytes("If type is base load, output rate is:");
+	private static final byte[] MAX_OUTPUT_RATE = bytes("Maximum output rate:");
+	private static final byte[] MARGINAL_COST = bytes("Marginal cost:");
+	private static final byte[] TRANSMISSION_LINES = bytes("Transmission lines");
+	private static final byte[] LINE = bytes("Line");
+	private static final byte[] CAPACITY = bytes("Capacity:");
+	private static final byte[] SOURCE = bytes("Source: Company");
+	private static final byte[] SINK = bytes("Sink: Company");
+	private static final byte[] REACTANCE = bytes("Reactance:");
+
+	// powers of ten that doubles hold exactly
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// file being read, and channel it is read through
+	private final Path file;
+	private final FileChannel channel;
+
+	// bytes read from file, number of them, and whether the whole file has been read
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int limit = 0;
+	private boolean endOfInput = false;
+
+	// current line: where it starts and ends (without its line break), where it starts and ends without
+	// leading and trailing whitespace, its number, and position of the next byte to scan
+	private int lineStart;
+	private int lineEnd;
+	private int trimStart;
+	private int trimEnd;
+	private int lineCounter = 0;
+	private int position;
+
+	// where the next line starts
+	private int next = 0;
+
+	// model read
+	private boolean strategic;
+	private final List<ElectricityCompany> companies = new ArrayList<ElectricityCompany>();
+	private final List<TransmissionLine> transmissionLines = new ArrayList<TransmissionLine>();
+
+	// constructor
+	public ModelReader(Path f) throws IOException {
+		super();
+		file = f;
+		try {
+			channel = FileChannel.open(f, StandardOpenOption.READ);
+		}
+		catch(NoSuchFileException ex) {
+			throw new IOException("Error: the file path you entered could not be found", ex);
+		}
+	}
+
+	// accessor methods
+	public boolean isStrategic() {
+		return strategic;
+	}
+
+	public List<ElectricityCompany> getCompanies() {
+		return companies;
+	}
+
+	public List<TransmissionLine> getTransmissionLines() {
+		return transmissionLines;
+	}
+
+	/*
+	 * reads the whole file
+	 */
+	public void read() throws IOException {
+		// temporary storage
+		ElectricityCompany tempCompany = null;
+		Region tempRegion = null;
+		TransmissionLine tempLine = null;
+		boolean regionDone = true;
+		int regionsCounter = 1, plantsCounter = 1;
+		int regionsTotal = 0;
+		double d1;
+
+		// see whether companies are thinking competitively or strategically
+		if(nextLine()) {
+			if(lineEquals(COMPETITIVELY))
+				strategic = false;
+			else if(lineEquals(STRATEGICALLY))
+				strategic = true;
+			else
+				throw invalid(trimStart);
+		}
+
+		// read companies, regions and plants
+		while(nextLine()) {
+			// skip lines with only whitespace
+			if(trimStart == trimEnd)
+				continue;
+			// if this line declares a power plant
+			else if(isHeading(POWER_PLANT, plantsCounter)) {
+				if(tempCompany == null || regionsCounter == 1)
+					throw error("power plant declared without a company or region", trimStart);
+				tempRegion.powerPlants.add(readPlant());
+				++plantsCounter;
+			}
+			// else if this line declares a region
+			else if(isHeading(REGION, regionsCounter)) {
+				if(tempCompany == null)
+					throw error("region declared without a company", trimStart);
+				d1 = readField(DEMAND);
+
+				// give last region its electricity, and create new region
+				if(!regionDone)
+					tempRegion.setAvailableElectricity();
+				tempRegion = new Region(tempCompany, d1);
+				tempRegion.setId(regionsTotal++);
+				tempCompany.regions.add(tempRegion);
+				regionDone = false;
+				++regionsCounter;
+				plantsCounter = 1;
+			}
+			// else if this line declares a company
+			else if(isHeading(COMPANY, companies.size() + 1)) {
+				tempCompany = new ElectricityCompany(readField(MAX_PRICE));
+				tempCompany.setId(companies.size());
+				companies.add(tempCompany);
+				regionsCounter = 1;
+			}
+			// else if this line starts the transmission lines, which take up the rest of the file
+			else if(lineEquals(TRANSMISSION_LINES))
+				break;
+			// else input is invalid
+			else
+				throw invalid(trimStart);
+		}
+
+		// give last region its electricity
+		if(!regionDone)
+			tempRegion.setAvailableElectricity();
+
+		// read transmission lines
+		while(nextLine()) {
+			// skip lines with only whitespace
+			if(trimStart == trimEnd)
+				continue;
+			// if this line declares a transmission line
+			else if(isHeading(LINE, transmissionLines.size() + 1)) {
+				tempLine = readTransmissionLine();
+				tempLine.getSource().transmissionLines.add(tempLine);
+				tempLine.getSink().transmissionLines.add(tempLine);
+				transmissionLines.add(tempLine);
+			}
+			// else if this line gives the reactance of the last line declared (optional; default is 1)
+			else if(tempLine != null && startsWith(trimStart, REACTANCE)) {
+				position = trimStart + REACTANCE.length;
+				d1 = readNumber();
+				expectEnd();
+				if(d1 <= 0)
+					throw error("reactance must be positive", trimStart);
+				tempLine.setReactance(d1);
+			}
+			// else input is invalid
+			else
+				throw invalid(trimStart);
+		}
+	}
+
+	// reads the lines of a power plant's declaration that follow its heading
+	private PowerPlant readPlant() throws IOException {
+		// type
+		int type;
+		nextField();
+		int p = trimStart + TYPE.length;
+		if(p > trimEnd || !regionMatches(trimStart, TYPE))
+			throw invalid(trimStart);
+		if(equalsToEnd(p, BASE_LOAD))
+			type = 1;
+		else if(equalsToEnd(p, LOAD_FOLLOWING))
+			type = 2;
+		else if(equalsToEnd(p, PEAKER))
+			type = 3;
+		else
+			throw invalid(p);
+
+		// output rate (given for base load plants only), maximum output rate, and marginal cost
+		nextField();
+		expect(OUTPUT_RATE);
+		double rate = type == 1 ? readNumber() : 0;
+		expectEnd();
+		double max = readField(MAX_OUTPUT_RATE);
+		double cost = readField(MARGINAL_COST);
+
+		switch(type) {
+			case 1: return new BasePlant(rate, max, cost);
+			case 2: return new MidPlant(rate, max, cost);
+			default: return new PeakerPlant(rate, max, cost);
+		}
+	}
+
+	// reads the lines of a transmission line's declaration that follow its heading
+	private TransmissionLine readTransmissionLine() throws IOException {
+		double capacity = readField(CAPACITY);
+		nextField();
+		expect(SOURCE);
+		Region source = readRegion();
+		nextField();
+		expect(SINK);
+		Region sink = readRegion();
+		return new TransmissionLine(capacity, source, sink);
+	}
+
+	// reads a line made of some text, in the same case, and a number
+	private double readField(byte[] text) throws IOException {
+		nextField();
+		expect(text);
+		double value = readNumber();
+		expectEnd();
+		return value;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/*
+	 * finding lines
+	 */
+
+	// moves to the next line, reading more of the file if it is not all in the buffer
+	// returns false at the end of the file
+	private boolean nextLine() throws IOException {
+		int end = next;
+		byte[] bytes;
+		byte b;
+
+		// find line break, making sure that a \r is not the first half of a \r\n still to be read
+		// (most bytes are above \r, so most take one comparison)
+		while(true) {
+			bytes = buffer;
+			while(end < limit && ((b = bytes[end]) > '\r' || (b != '\n' && b != '\r')))
+				++end;
+			if(endOfInput || (end < limit && (buffer[end] == '\n' || end + 1 < limit)))
+				break;
+			end -= next;
+			fill();
+			end += next;
+		}
+		if(next == limit)
+			return false;
+
+		// set line's bounds, and where the next line starts
+		lineStart = next;
+		lineEnd = end;
+		position = lineStart;
+		++lineCounter;
+		next = end;
+		if(next < limit) {
+			b = buffer[next++];
+			if(b == '\r' && next < limit && buffer[next] == '\n')
+				++next;
+		}
+
+		// trim whitespace
+		trimStart = lineStart;
+		while(trimStart < lineEnd && isWhitespace(buffer[trimStart]))
+			++trimStart;
+		trimEnd = lineEnd;
+		while(trimEnd > trimStart && isWhitespace(buffer[trimEnd - 1]))
+			--trimEnd;
+		return true;
+	}
+
+	// moves to the next line of a declaration, which must be there
+	private void nextField() throws IOException {
+		if(!nextLine())
+			throw new IOException("Error: input ends in the middle of a declaration, after line " + lineCounter + " of " + file);
+	}
+
+	// moves what has not been scanned to the front of the buffer, and reads as much more as fits,
+	// growing the buffer if it is full
+	private void fill() throws IOException {
+		if(next == 0 && limit == buffer.length) {
+			if(buffer.length > Integer.MAX_VALUE / 2)
+				throw new IOException("Error: line " + (lineCounter + 1) + " of " + file + " is too long");
+			buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+		}
+		else {
+			System.arraycopy(buffer, next, buffer, 0, limit - next);
+			limit -= next;
+			next = 0;
+		}
+
+		ByteBuffer target = ByteBuffer.wrap(buffer, limit, buffer.length - limit);
+		int count = channel.read(target);
+		if(count < 0)
+			endOfInput = true;
+		else
+			limit += count;
+	}
+
+	/*
+	 * matching text
+	 */
+
+	// whether the line, without leading and trailing whitespace, is some text, ignoring case
+	private boolean lineEquals(byte[] text) {
+		return equalsToEnd(trimStart, text);
+	}
+
+	// whether the line, from a position to its trailing whitespace, is some text, ignoring case
+	private boolean equalsToEnd(int start, byte[] text) {
+		return trimEnd - start == text.length && regionMatches(start, text);
+	}
+
+	// whether the line, without leading and trailing whitespace, is a keyword, a space and a number, ignoring case
+	// the number must be written as Integer.toString() writes it
+	private boolean isHeading(byte[] keyword, int number) {
+		int p = trimStart + keyword.length;
+		if(p + 1 >= trimEnd || !regionMatches(trimStart, keyword) || buffer[p] != ' ')
+			return false;
+		++p;
+		if(buffer[p] == '0' && p + 1 < trimEnd)
+			return false;
+
+		long value = 0;
+		for(; p < trimEnd; ++p) {
+			if(buffer[p] < '0' || buffer[p] > '9' || value > Integer.MAX_VALUE)
+				return false;
+			value = 10 * value + (buffer[p] - '0');
+		}
+		return value == number;
+	}
+
+	// whether bytes from a position on are some text, ignoring case
+	private boolean regionMatches(int start, byte[] text) {
+		byte b;
+		for(int i = 0; i < text.length; ++i) {
+			b = buffer[start + i];
+			if(b != text[i] && toLowerCase(b) != toLowerCase(text[i]))
+				return false;
+		}
+		return true;
+	}
+
+	// whether bytes from a position on are some text, in the same case
+	private boolean startsWith(int start, byte[] text) {
+		if(lineEnd - start < text.length)
+			return false;
+		for(int i = 0; i < text.length; ++i) {
+			if(buffer[start + i] != text[i])
+				return false;
+		}
+		return true;
+	}
+
+	// checks that the line starts with some text, in the same case, and moves past it
+	private void expect(byte[] text) throws IOException {
+		if(!startsWith(lineStart, text))
+			throw error("expected \"" + new String(text, StandardCharsets.US_ASCII) + "\"", lineStart);
+		position = lineStart + text.length;
+	}
+
+	// checks that the rest of the line is whitespace
+	private void expectEnd() throws IOException {
+		skipWhitespace();
+		if(position < lineEnd)
+			throw invalid(position);
+	}
+
+	private void skipWhitespace() {
+		while(position < lineEnd && isWhitespace(buffer[position]))
+			++position;
+	}
+
+	// end of the token starting at the current position
+	private int tokenEnd() {
+		int end = position;
+		while(end < lineEnd && !isWhitespace(buffer[end]))
+			++end;
+		return end;
+	}
+
+	/*
+	 * reading numbers
+	 */
+
+	// reads a number after whitespace
+	private double readNumber() throws IOException {
+		skipWhitespace();
+		int start = position;
+		if(start == lineEnd)
+			throw error("number expected", start);
+
+		double value = parseNumber(start);
+		if(Double.isNaN(value)) {
+			// not a simple decimal number (or NaN itself), so parse it the slow way
+			int end = tokenEnd();
+			try {
+				value = Double.parseDouble(new String(buffer, start, end - start, StandardCharsets.ISO_8859_1));
+			}
+			catch(NumberFormatException ex) {
+				throw error("invalid number", start);
+			}
+			position = end;
+		}
+		return value;
+	}
+
+	// parses a decimal number with at most 15 significant digits and a power of ten of at most 22,
+	// ending at whitespace or the end of the line, and moves past it
+	// returns NaN, without moving, if the number is not one
+	private double parseNumber(int start) {
+		int end = lineEnd;
+		int p = start;
+		boolean negative = false;
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		int d;
+
+		// sign
+		if(buffer[p] == '+' || buffer[p] == '-') {
+			negative = buffer[p] == '-';
+			++p;
+		}
+
+		// whole part
+		for(; p < end && (d = buffer[p] - '0') >= 0 && d <= 9; ++p) {
+			anyDigits = true;
+			if(mantissa != 0 || d != 0)
+				++digits;
+			mantissa = 10 * mantissa + d;
+		}
+
+		// fraction
+		if(p < end && buffer[p] == '.') {
+			for(++p; p < end && (d = buffer[p] - '0') >= 0 && d <= 9; ++p) {
+				anyDigits = true;
+				if(mantissa != 0 || d != 0)
+					++digits;
+				mantissa = 10 * mantissa + d;
+				--exponent;
+			}
+		}
+		if(!anyDigits || digits > 15)
+			return Double.NaN;
+
+		// exponent
+		if(p < end && (buffer[p] == 'e' || buffer[p] == 'E')) {
+			++p;
+			boolean negativeExponent = false;
+			int power = 0;
+			if(p < end && (buffer[p] == '+' || buffer[p] == '-')) {
+				negativeExponent = buffer[p] == '-';
+				++p;
+			}
+			boolean anyExponentDigits = false;
+			for(; p < end && (d = buffer[p] - '0') >= 0 && d <= 9; ++p) {
+				anyExponentDigits = true;
+				if(power > 1000)
+					return Double.NaN;
+				power = 10 * power + d;
+			}
+			// an exponent needs digits (e.g., "1e" or "1e+" is not a number)
+			if(!anyExponentDigits)
+				return Double.NaN;
+			exponent += negativeExponent ? -power : power;
+		}
+		if(p < end && !isWhitespace(buffer[p]))
+			return Double.NaN;
+
+		// a mantissa of less than 2^53 and a power of ten of at most 22 are exact, so one operation
+		// rounds correctly
+		double value;
+		if(mantissa == 0)
+			value = 0;
+		else if(exponent >= 0 && exponent < POWERS_OF_TEN.length)
+			value = mantissa * POWERS_OF_TEN[exponent];
+		else if(exponent < 0 && -exponent < POWERS_OF_TEN.length)
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		else
+			return Double.NaN;
+		position = p;
+		return negative ? -value : value;
+	}
+
+	// reads a region given as "n Region m" (the nth company's mth region)
+	private Region readRegion() throws IOException {
+		int start = position;
+		int company = readIndex();
+		skipWhitespace();
+		if(lineEnd - position < REGION.length || !regionMatches(position, REGION))
+			throw invalid(position);
+		position += REGION.length;
+		if(position == lineEnd || !isWhitespace(buffer[position]))
+			throw invalid(position);
+		int region = readIndex();
+		expectEnd();
+
+		if(company < 1 || company > companies.size() || region < 1 || region > companies.get(company - 1).regions.size())
+			throw error("invalid source or sink for transmission line", start);
+		return companies.get(company - 1).regions.get(region - 1);
+	}
+
+	// reads a whole number of at most 9 digits after whitespace
+	private int readIndex() throws IOException {
+		skipWhitespace();
+		int start = position;
+		int end = tokenEnd();
+		if(start == end || end - start > 9)
+			throw invalid(start);
+		int value = 0;
+		for(int p = start; p < end; ++p) {
+			if(buffer[p] < '0' || buffer[p] > '9')
+				throw invalid(start);
+			value = 10 * value + (buffer[p] - '0');
+		}
+		position = end;
+		return value;
+	}
+
+	/*
+	 * helpers
+	 */
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+	}
+
+	private static byte toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	// error at a position of the current line
+	private IOException error(String message, int at) {
+		return new IOException("Error: " + message + " on line " + lineCounter + ", column " + (at - lineStart + 1) + " of " + file);
+	}
+
+	private IOException invalid(int at) {
+		return error("invalid input", at);
+	}
+}
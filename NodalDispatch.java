@@ -0,0 +1,870 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Clears the whole market at once: finds the dispatch of every power plant,
+ * the current on every line and the locational marginal price (LMP) of
+ * electricity in every region that together maximize the value of
+ * electricity consumed minus the cost of producing it
+ *
+ * Instead of a sequence of pairwise trades, whose outcome depends on the
+ * order companies take their turns in, the market is solved as one linear
+ * program. With lines treated as pipes (see the TransferEngine class), that
+ * program is a minimum-cost flow on this network:
+ *
+ *   source -> region, for each power plant in the region: up to its output,
+ *     at its marginal cost (base-load plants cannot change their output, so
+ *     their electricity costs nothing more to use)
+ *   region -> region, for each line, in both directions: up to its capacity,
+ *     at no cost
+ *   region -> sink: up to the region's demand, at minus the most the
+ *     region's company will pay (the value of serving the load)
+ *
+ * The flow is found by the primal-dual method: Dijkstra's algorithm, on costs
+ * reduced by node potentials, finds the cheapest way to serve one more unit
+ * of load, and a blocking flow (as in the TransferEngine class) sends as much
+ * as possible along every path that cheap; this repeats until serving more
+ * load would cost more than it is worth. Each round raises the potentials,
+ * and the rounds needed are at most the number of distinct path costs, not
+ * the number of trades. The final potentials are the duals of the program:
+ * the LMP of a region is the cost of getting one more unit of electricity
+ * there, either from a plant or by serving less load somewhere else.
+ *
+ * A dispatch can also clear just part of the network, a zone (see the
+ * ZonalDispatch class). Lines to regions outside the zone are then tie lines,
+ * whose flows are fixed from outside: flow into the zone is free supply at
+ * the region the line enters, and flow out of it is load that must be served
+ * before any other, worth more than any plant costs.
+ *
+ * The flow network is built once; solve() can be called again after demands,
+ * plant outputs or tie-line flows change, and only resets the flows. A
+ * solved zone can also be changed in place, one unit of electricity moved at a
+ * time: got in a region from its cheapest local option, sent along lines and
+ * tie lines, and used in another region's best local use (see the move
+ * methods), without being solved again. A dispatch must only be used by one
+ * thread at a time.
+ *
+ */
+
+import java.util.*;
+
+public class NodalDispatch {
+	// network being dispatched
+	private final TransmissionNetwork network;
+
+	// regions dispatched, and node of each region of the network (-1 if not dispatched)
+	private final Region[] regions;
+	private final int[] nodes;
+
+	// number of nodes: regions, then source and sink
+	private final int nodeCount;
+	private final int source;
+	private final int sink;
+
+	// arcs come in pairs, arc a and its reverse a ^ 1
+	// head of each arc, its cost, its capacity, and its residual capacity
+	private final int[] head;
+	private final double[] cost;
+	private final double[] capacity;
+	private final double[] residual;
+
+	// arcs leaving each node: arcList[offsets[v]] to arcList[offsets[v + 1] - 1]
+	private final int[] offsets;
+	private final int[] arcList;
+
+	// power plants, with the first arc of plant p being arc 2 * p
+	private final PowerPlant[] plants;
+
+	// first arc of region r's demand, and of line l's arcs from source to sink and from sink to source
+	private final int demandArcs;
+	private final int[] lineArcs;
+
+	// tie lines, and first arc of tie t's flow into the zone (its flow out of the zone is the next pair)
+	private final int[] ties;
+	private final int tieArcs;
+
+	// flow on each tie line, from the line's source to its sink, and the value of serving flow out of the zone
+	private final double[] tieFlows;
+	private final double exportValue;
+
+	// node potentials, and distances found by the last run of Dijkstra's algorithm
+	private final double[] potential;
+	private final double[] distance;
+
+	// indexed binary heap for Dijkstra's algorithm
+	private final int[] heap;
+	private final int[] heapPosition;
+	private int heapSize;
+
+	// levels, cursors and path stacks for blocking flows
+	private final int[] level;
+	private final int[] cursor;
+	private final int[] queue;
+	private final int[] pathArcs;
+
+	// locational marginal price of each region, found by the last solve, and marginal value of electricity there
+	private final double[] prices;
+	private final double[] values;
+
+	// amounts of capacity and cost smaller than these are treated as 0
+	private double capacityTolerance;
+	private double costTolerance;
+
+	// value of electricity consumed minus cost of producing it, for the last solve
+	private double welfare;
+
+	// constructor
+	// builds the flow network for the regions, plants and lines of a network
+	public NodalDispatch(TransmissionNetwork n) {
+		this(n, allRegions(n), new int[0], 0);
+	}
+
+	// constructor
+	// builds the flow network for a zone: some regions of a network, given by number, their plants and the
+	// lines between them, and tie lines, given by number, that join them to the rest of the network
+	// flow out of the zone is worth exportValue a unit, which should be more than any plant costs
+	NodalDispatch(TransmissionNetwork n, int[] regionNumbers, int[] tieLines, double exportValue) {
+		super();
+		network = n;
+		int regionCount = regionNumbers.length;
+		nodeCount = regionCount + 2;
+		source = regionCount;
+		sink = regionCount + 1;
+
+		// number regions
+		regions = new Region[regionCount];
+		nodes = new int[n.getRegionCount()];
+		Arrays.fill(nodes, -1);
+		for(int r = 0; r < regionCount; ++r) {
+			regions[r] = n.getRegion(regionNumbers[r]);
+			nodes[regionNumbers[r]] = r;
+		}
+
+		// collect power plants, in order of region
+		List<PowerPlant> plantList = new ArrayList<PowerPlant>();
+		for(int r = 0; r < regionCount; ++r)
+			plantList.addAll(regions[r].powerPlants);
+		plants = plantList.toArray(new PowerPlant[plantList.size()]);
+
+		// count lines that can carry electricity
+		int lineCount = 0;
+		for(int l = 0; l < n.getLineCount(); ++l) {
+			if(carries(l))
+				++lineCount;
+		}
+
+		int arcCount = 2 * (plants.length + regionCount + 2 * lineCount + 2 * tieLines.length);
+		head = new int[arcCount];
+		cost = new double[arcCount];
+		capacity = new double[arcCount];
+		residual = new double[arcCount];
+		int[] tail = new int[arcCount];
+
+		// add arcs: plants, then demands, then lines
+		int a = 0;
+		int p = 0;
+		for(int r = 0; r < regionCount; ++r) {
+			for(int i = 0; i < regions[r].powerPlants.size(); ++i, ++p)
+				a = addArc(tail, a, source, r, plantCost(plants[p]));
+		}
+		demandArcs = a;
+		for(int r = 0; r < regionCount; ++r)
+			a = addArc(tail, a, r, sink, -1 * regions[r].getCompany().getMaxPrice());
+		lineArcs = new int[n.getLineCount()];
+		for(int l = 0; l < n.getLineCount(); ++l) {
+			if(carries(l)) {
+				lineArcs[l] = a;
+				a = addArc(tail, a, nodes[n.getLine(l).getSource().getId()], nodes[n.getLine(l).getSink().getId()], 0);
+				a = addArc(tail, a, nodes[n.getLine(l).getSink().getId()], nodes[n.getLine(l).getSource().getId()], 0);
+			}
+			else
+				lineArcs[l] = -1;
+		}
+		tieArcs = a;
+		ties = tieLines.clone();
+		tieFlows = new double[ties.length];
+		this.exportValue = exportValue;
+		for(int t = 0; t < ties.length; ++t) {
+			a = addArc(tail, a, source, insideNode(t), 0);
+			a = addArc(tail, a, insideNode(t), sink, -1 * exportValue);
+		}
+
+		// group arcs by tail
+		offsets = new int[nodeCount + 1];
+		arcList = new int[arcCount];
+		for(int i = 0; i < arcCount; ++i)
+			++offsets[tail[i] + 1];
+		for(int v = 0; v < nodeCount; ++v)
+			offsets[v + 1] += offsets[v];
+		int[] next = Arrays.copyOf(offsets, nodeCount);
+		for(int i = 0; i < arcCount; ++i)
+			arcList[next[tail[i]]++] = i;
+
+		potential = new double[nodeCount];
+		distance = new double[nodeCount];
+		heap = new int[nodeCount];
+		heapPosition = new int[nodeCount];
+		level = new int[nodeCount];
+		cursor = new int[nodeCount];
+		queue = new int[nodeCount];
+		pathArcs = new int[nodeCount];
+		prices = new double[regionCount];
+		values = new double[regionCount];
+	}
+
+	// lists every region of a network by number
+	private static int[] allRegions(TransmissionNetwork n) {
+		int[] numbers = new int[n.getRegionCount()];
+		for(int r = 0; r < numbers.length; ++r)
+			numbers[r] = r;
+		return numbers;
+	}
+
+	// finds the dispatch, line currents and prices that maximize welfare
+	// reads demands, plants' output limits and line capacities as they are now
+	public void solve() {
+		int regionCount = regions.length;
+
+		// reset capacities and flows
+		double largestCapacity = 0;
+		double largestCost = 0;
+		for(int p = 0; p < plants.length; ++p)
+			setCapacity(2 * p, plantCapacity(plants[p]));
+		for(int r = 0; r < regionCount; ++r)
+			setCapacity(demandArcs + 2 * r, regions[r].getDemand());
+		for(int l = 0; l < lineArcs.length; ++l) {
+			if(lineArcs[l] >= 0) {
+				setCapacity(lineArcs[l], network.capacity[l]);
+				setCapacity(lineArcs[l] + 2, network.capacity[l]);
+			}
+		}
+		for(int t = 0; t < ties.length; ++t) {
+			setCapacity(tieArcs + 4 * t, Math.max(0, inflow(t)));
+			setCapacity(tieArcs + 4 * t + 2, Math.max(0, -1 * inflow(t)));
+		}
+		for(int a = 0; a < capacity.length; a += 2) {
+			largestCapacity = Math.max(largestCapacity, capacity[a]);
+			largestCost = Math.max(largestCost, Math.abs(cost[a]));
+		}
+		capacityTolerance = 1e-12 * largestCapacity;
+		costTolerance = 1e-9 * (1 + largestCost);
+
+		// start with potentials that make every reduced cost non-negative:
+		// source's arcs may have negative costs, and sink's arcs always do
+		Arrays.fill(potential, 0);
+		for(int a = 0; a < demandArcs; a += 2)
+			potential[source] = Math.max(potential[source], -1 * cost[a]);
+		for(int a = demandArcs; a < demandArcs + 2 * regionCount; a += 2)
+			potential[sink] = Math.min(potential[sink], cost[a]);
+		for(int t = 0; t < ties.length; ++t)
+			potential[sink] = Math.min(potential[sink], cost[tieArcs + 4 * t + 2]);
+
+		// while serving more load is worth more than it costs, send flow along cheapest paths
+		while(findDistances()) {
+			// cost of cheapest path from source to sink
+			if(distance[sink] + potential[sink] - potential[source] >= -1 * costTolerance)
+				break;
+
+			// raise potentials, so cheapest paths have reduced cost 0
+			for(int v = 0; v < nodeCount; ++v)
+				potential[v] += Math.min(distance[v], distance[sink]);
+
+			blockingFlow();
+		}
+
+		findPrices();
+		priceShortages();
+		findValues();
+
+		// welfare: value of load served minus cost of output used
+		welfare = 0;
+		for(int a = 0; a < demandArcs + 2 * regionCount; a += 2)
+			welfare -= cost[a] * (capacity[a] - residual[a]);
+	}
+
+	// accessor methods for results of the last solve
+	public double getWelfare() {
+		return welfare;
+	}
+
+	public double getPrice(Region region) {
+		return prices[nodes[region.getId()]];
+	}
+
+	// how much one more unit of electricity put into a region would save: by serving more load, or by turning
+	// a plant down (0 if it would not be used)
+	// where the price jumps, this is less than the price, which is what one more unit taken out would cost
+	public double getMarginalValue(Region region) {
+		return values[nodes[region.getId()]];
+	}
+
+	// sets the price of a region, at which apply() settles, e.g., to a price found across zones (see ZonalDispatch)
+	void setPrice(Region region, double price) {
+		prices[nodes[region.getId()]] = price;
+	}
+
+	// cheapest way the last solve leaves to get more electricity in a region, without lines: running one of its
+	// plants harder, or serving less of its load, ignoring ways that give no more than a given amount
+	// its cost (infinite if there is none), and how much can be had at that cost
+	double getLocalCost(Region region, double least) {
+		return localOption(nodes[region.getId()], false, true, least);
+	}
+
+	double getLocalSupply(Region region, double least) {
+		return localOption(nodes[region.getId()], false, false, least);
+	}
+
+	// best use the last solve leaves for more electricity in a region, without lines: serving more of its load,
+	// or turning one of its plants down, ignoring uses for no more than a given amount
+	// its value (minus infinity if there is none), and how much can be used at that value
+	double getLocalValue(Region region, double least) {
+		return localOption(nodes[region.getId()], true, true, least);
+	}
+
+	double getLocalDemand(Region region, double least) {
+		return localOption(nodes[region.getId()], true, false, least);
+	}
+
+	// amount of a region's demand that is served
+	public double getServed(Region region) {
+		int a = demandArcs + 2 * nodes[region.getId()];
+		return capacity[a] - residual[a];
+	}
+
+	public int getPlantCount() {
+		return plants.length;
+	}
+
+	public PowerPlant getPlant(int p) {
+		return plants[p];
+	}
+
+	// output of a plant, i.e., for base-load plants, the part of their output that is used
+	public double getOutput(int p) {
+		return capacity[2 * p] - residual[2 * p];
+	}
+
+	// current on a line, from source to sink
+	public double getCurrent(int l) {
+		if(lineArcs[l] < 0)
+			return 0;
+		return (capacity[lineArcs[l]] - residual[lineArcs[l]]) - (capacity[lineArcs[l] + 2] - residual[lineArcs[l] + 2]);
+	}
+
+	// accessor methods for tie lines, by their place in the list given to the constructor
+	public int getTieCount() {
+		return ties.length;
+	}
+
+	public int getTie(int t) {
+		return ties[t];
+	}
+
+	public double getTieFlow(int t) {
+		return tieFlows[t];
+	}
+
+	// sets the flow on a tie line, from the line's source to its sink, for the next solve
+	public void setTieFlow(int t, double flow) {
+		tieFlows[t] = flow;
+	}
+
+	// gets an amount of electricity in a region from its cheapest local options (see getLocalCost()), or, if use
+	// is true, uses it in its best local uses (see getLocalValue()), ignoring options for no more than least
+	// the amount must be no more than getLocalSupply() (or getLocalDemand()) gives, and must be sent on
+	// (or have come) along lines and tie lines by moveCurrent() and moveTieFlow(), so flow stays balanced
+	void moveLocal(Region region, boolean use, double amount, double least) {
+		// temporary storage
+		int r = nodes[region.getId()];
+		int a;
+		double optionCost;
+		double moved;
+
+		// same options as localOption(), in cost order's terms: a use is the cheapest way backwards
+		double best = localOption(r, use, true, least);
+		if(use)
+			best *= -1;
+		for(int j = offsets[r]; j <= offsets[r + 1] && amount > 0; ++j) {
+			// the node's plants (arcs back to source, other than tie lines' flows in), then its load, and the arc
+			// that gets more electricity to the node along it, or takes it away if use is true
+			if(j < offsets[r + 1]) {
+				a = arcList[j];
+				if(head[a] != source || a >= demandArcs)
+					continue;
+			}
+			else
+				a = demandArcs + 2 * r;
+			optionCost = use ? -1 * cost[a ^ 1] : cost[a ^ 1];
+			if(!use)
+				a ^= 1;
+			if(residual[a] <= Math.max(capacityTolerance, least) || optionCost > best + costTolerance)
+				continue;
+
+			moved = Math.min(amount, residual[a]);
+			residual[a] -= moved;
+			residual[a ^ 1] += moved;
+			welfare -= cost[a] * moved;
+			amount -= moved;
+		}
+	}
+
+	// sends an amount of electricity along a line between regions in the zone, from its source to its sink, or
+	// back if the amount is negative; the line must have room for it
+	void moveCurrent(int l, double amount) {
+		// arcs along and against the way electricity is sent
+		int along = amount >= 0 ? lineArcs[l] : lineArcs[l] + 2;
+		int against = amount >= 0 ? lineArcs[l] + 2 : lineArcs[l];
+		amount = Math.abs(amount);
+
+		// take back flow the other way first
+		double cancelled = Math.min(amount, residual[against + 1]);
+		residual[against + 1] -= cancelled;
+		residual[against] += cancelled;
+		residual[along] -= amount - cancelled;
+		residual[along + 1] += amount - cancelled;
+	}
+
+	// sets the flow on a tie line, from the line's source to its sink, and has the zone use all of it, as free
+	// supply or as load served where it enters
+	void moveTieFlow(int t, double flow) {
+		tieFlows[t] = flow;
+		setFlow(tieArcs + 4 * t, Math.max(0, inflow(t)));
+		setFlow(tieArcs + 4 * t + 2, Math.max(0, -1 * inflow(t)));
+	}
+
+	// region a tie line enters the zone at
+	public Region getTieRegion(int t) {
+		return regions[insideNode(t)];
+	}
+
+	// part of a tie line's flow that the last solve used, from the line's source to its sink
+	// flow into the zone that no load needed, or flow out of it that the zone could not supply, is not used
+	public double getTieFlowUsed(int t) {
+		double used = (capacity[tieArcs + 4 * t] - residual[tieArcs + 4 * t]) - (capacity[tieArcs + 4 * t + 2] - residual[tieArcs + 4 * t + 2]);
+		if(nodes[network.getLine(ties[t]).getSink().getId()] >= 0)
+			return used;
+		return -1 * used;
+	}
+
+	// puts the results of the last solve into the regions, plants, lines and companies
+	// (the currents of tie lines are left to whoever set their flows)
+	// plants other than base-load plants are set to their dispatch, and companies' expenses change by the cost
+	// of the change in output; each region then pays its price for the electricity it takes from the network,
+	// and is paid its price for the electricity it puts in
+	// base-load output that is not used stays in its region
+	public void apply() {
+		// temporary storage
+		PowerPlant tempPlant;
+		Region tempRegion;
+		double output;
+		double injected;
+		double kept;
+		int p = 0;
+
+		for(int r = 0; r < regions.length; ++r) {
+			tempRegion = regions[r];
+			injected = 0;
+			kept = getServed(tempRegion);
+
+			// set output of each plant
+			for(int i = 0; i < tempRegion.powerPlants.size(); ++i, ++p) {
+				tempPlant = plants[p];
+				output = getOutput(p);
+				injected += output;
+				if(tempPlant.getClass() != BasePlant.class) {
+					tempRegion.getCompany().updateExpenses((output - tempPlant.getOutputRate()) * tempPlant.getMargCost());
+					tempPlant.setOutputRate(output);
+				}
+				else
+					kept += tempPlant.getOutputRate() - output;
+			}
+
+			// move electricity between regions: region keeps what it serves, and its unused base-load output
+			// (in one change, so that rounding cannot take the region below 0 on the way)
+			tempRegion.changeElectricity(kept - tempRegion.getElectricity());
+
+			// settle at region's price
+			tempRegion.getCompany().updateExpenses(prices[r] * (getServed(tempRegion) - injected));
+		}
+
+		// set currents of lines within the regions dispatched
+		for(int l = 0; l < lineArcs.length; ++l) {
+			if(nodes[network.getLine(l).getSource().getId()] >= 0 && nodes[network.getLine(l).getSink().getId()] >= 0)
+				network.setCurrent(l, getCurrent(l));
+		}
+	}
+
+	/*
+	 * finds the price of electricity in each region, i.e., the cost of one
+	 * more unit there, from the cheapest way to get it from source (running a
+	 * plant harder) or from sink (serving less load somewhere)
+	 *
+	 * The total flow from source to sink is free to change, so source and
+	 * sink are in effect one node, and the cheapest ways from both count.
+	 * Dijkstra's algorithm runs from both at once, on costs reduced by the
+	 * potentials: a node's key is its reduced distance less the potential of
+	 * where the way starts, so its price is its key plus its potential.
+	 */
+	private void findPrices() {
+		startSearch();
+		startFrom(source, -1 * potential[source]);
+		startFrom(sink, -1 * potential[sink]);
+		search(false);
+
+		for(int r = 0; r < regions.length; ++r)
+			prices[r] = distance[r] + potential[r];
+	}
+
+	// finds the marginal value of electricity in each region, from the cheapest way to get one more unit from the
+	// region to source (turning a plant down) or sink (serving more load)
+	// runs Dijkstra's algorithm backwards from both at once (see findPrices()): here a node's key is its reduced
+	// distance plus the potential of where the way ends
+	private void findValues() {
+		startSearch();
+		startFrom(source, potential[source]);
+		startFrom(sink, potential[sink]);
+		search(true);
+
+		// a unit that cannot get anywhere is simply not used
+		for(int r = 0; r < regions.length; ++r)
+			values[r] = Math.max(0, potential[r] - distance[r]);
+	}
+
+	// prices regions that cannot get any more electricity
+	// such regions joined by lines share a price, the most any of their companies would pay
+	private void priceShortages() {
+		// temporary storage
+		int queueEnd;
+		int v;
+		int a;
+		double price;
+
+		Arrays.fill(level, -1);
+		for(int r = 0; r < regions.length; ++r) {
+			if(distance[r] != Double.POSITIVE_INFINITY || level[r] >= 0)
+				continue;
+
+			// collect regions joined to this one
+			queueEnd = 0;
+			level[r] = 0;
+			queue[queueEnd++] = r;
+			price = 0;
+			for(int i = 0; i < queueEnd; ++i) {
+				v = queue[i];
+				price = Math.max(price, regions[v].getCompany().getMaxPrice());
+				for(int j = offsets[v]; j < offsets[v + 1]; ++j) {
+					a = arcList[j];
+					if(head[a] < source && distance[head[a]] == Double.POSITIVE_INFINITY && level[head[a]] < 0) {
+						level[head[a]] = 0;
+						queue[queueEnd++] = head[a];
+					}
+				}
+			}
+
+			for(int i = 0; i < queueEnd; ++i)
+				prices[queue[i]] = price;
+		}
+	}
+
+	// finds the cheapest way to get more electricity at a node from its own plants and load, or the best use for
+	// it if use is true, among those for more than least
+	// returns its cost (or value) if price is true, else the amount that can be had (or used) at it
+	private double localOption(int r, boolean use, boolean price, double least) {
+		// temporary storage
+		int a;
+		double optionCost;
+		double amount;
+
+		double best = Double.POSITIVE_INFINITY;
+		double bestAmount = 0;
+		for(int j = offsets[r]; j <= offsets[r + 1]; ++j) {
+			// the node's plants (arcs back to source, other than tie lines' flows in), then its load
+			if(j < offsets[r + 1]) {
+				a = arcList[j];
+				if(head[a] != source || a >= demandArcs)
+					continue;
+				optionCost = cost[a ^ 1];
+				amount = use ? residual[a] : residual[a ^ 1];
+			}
+			else {
+				optionCost = regions[r].getCompany().getMaxPrice();
+				amount = use ? residual[demandArcs + 2 * r] : residual[demandArcs + 2 * r + 1];
+			}
+			if(amount <= Math.max(capacityTolerance, least))
+				continue;
+
+			// a use is the cheapest way backwards: its value is minus its cost
+			if(use)
+				optionCost *= -1;
+			if(optionCost < best - costTolerance) {
+				best = optionCost;
+				bestAmount = amount;
+			}
+			else if(optionCost <= best + costTolerance)
+				bestAmount += amount;
+		}
+		if(!price)
+			return bestAmount;
+		return use ? -1 * best : best;
+	}
+
+	// adds an arc and its reverse
+	// returns index of next arc
+	private int addArc(int[] tail, int a, int from, int to, double arcCost) {
+		tail[a] = from;
+		head[a] = to;
+		cost[a] = arcCost;
+		tail[a + 1] = to;
+		head[a + 1] = from;
+		cost[a + 1] = -1 * arcCost;
+		return a + 2;
+	}
+
+	// sets capacity of an arc, with no flow on it
+	private void setCapacity(int a, double c) {
+		capacity[a] = c;
+		residual[a] = c;
+		capacity[a + 1] = 0;
+		residual[a + 1] = 0;
+	}
+
+	// sets capacity of an arc, with all of it used
+	private void setFlow(int a, double c) {
+		capacity[a] = c;
+		residual[a] = 0;
+		capacity[a + 1] = 0;
+		residual[a + 1] = c;
+	}
+
+	// whether a line can carry electricity between two different regions that are both dispatched
+	private boolean carries(int l) {
+		TransmissionLine tempLine = network.getLine(l);
+		return network.capacity[l] > 0 && tempLine.getSource() != tempLine.getSink() && nodes[tempLine.getSource().getId()] >= 0 && nodes[tempLine.getSink().getId()] >= 0;
+	}
+
+	// node at which a tie line enters the zone
+	private int insideNode(int t) {
+		int inside = nodes[network.getLine(ties[t]).getSource().getId()];
+		if(inside >= 0)
+			return inside;
+		return nodes[network.getLine(ties[t]).getSink().getId()];
+	}
+
+	// flow on a tie line into the zone
+	private double inflow(int t) {
+		if(nodes[network.getLine(ties[t]).getSink().getId()] >= 0)
+			return tieFlows[t];
+		return -1 * tieFlows[t];
+	}
+
+	// cost of using a plant's output: base-load output costs nothing more to use, since it cannot be turned down
+	private static double plantCost(PowerPlant plant) {
+		if(plant.getClass() == BasePlant.class)
+			return 0;
+		return plant.getMargCost();
+	}
+
+	// most output a plant can give: base-load plants give their fixed output rate, other plants up to their maximum
+	private static double plantCapacity(PowerPlant plant) {
+		if(plant.getClass() == BasePlant.class)
+			return plant.getOutputRate();
+		return plant.getMaxOutputRate();
+	}
+
+	// reduced cost of an arc
+	private double reducedCost(int a) {
+		return cost[a] + potential[head[a ^ 1]] - potential[head[a]];
+	}
+
+	// runs Dijkstra's algorithm from source on reduced costs, over arcs with residual capacity
+	// returns whether sink was reached
+	private boolean findDistances() {
+		startSearch();
+		startFrom(source, 0);
+		search(false);
+		return distance[sink] < Double.POSITIVE_INFINITY;
+	}
+
+	// gets ready for a run of Dijkstra's algorithm
+	private void startSearch() {
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		Arrays.fill(heapPosition, -1);
+		heapSize = 0;
+	}
+
+	// has the next run of Dijkstra's algorithm start from a node, with a given key
+	private void startFrom(int v, double key) {
+		distance[v] = key;
+		heapPush(v);
+	}
+
+	// runs Dijkstra's algorithm on reduced costs, over arcs with residual capacity, leaving keys in distance
+	// runs along arcs, or backwards along them if backward is true
+	private void search(boolean backward) {
+		// temporary storage
+		int v;
+		int a;
+		int w;
+		double d;
+
+		while(heapSize > 0) {
+			v = heapPop();
+			for(int i = offsets[v]; i < offsets[v + 1]; ++i) {
+				// arcs into v are the reverses of arcs out of it
+				a = backward ? arcList[i] ^ 1 : arcList[i];
+				if(residual[a] <= capacityTolerance)
+					continue;
+				w = head[arcList[i]];
+				// reduced costs are never negative, except for rounding error
+				d = distance[v] + Math.max(0, reducedCost(a));
+				// (nodes already taken off the heap are marked -2, and cannot get any closer)
+				if(d < distance[w] && heapPosition[w] != -2) {
+					distance[w] = d;
+					if(heapPosition[w] < 0)
+						heapPush(w);
+					else
+						heapUp(heapPosition[w]);
+				}
+			}
+		}
+	}
+
+	// sends as much flow as possible from source to sink along arcs with reduced cost 0
+	private void blockingFlow() {
+		while(labelLevels()) {
+			while(push() > capacityTolerance)
+				;
+		}
+	}
+
+	// whether an arc can carry flow in the current round
+	private boolean admissible(int a) {
+		return residual[a] > capacityTolerance && reducedCost(a) <= costTolerance;
+	}
+
+	// labels nodes reachable from source along admissible arcs by their distance from source
+	// returns whether sink was reached
+	private boolean labelLevels() {
+		Arrays.fill(level, -1);
+		int queueEnd = 0;
+		int v;
+		int a;
+
+		level[source] = 0;
+		cursor[source] = offsets[source];
+		queue[queueEnd++] = source;
+		for(int i = 0; i < queueEnd; ++i) {
+			v = queue[i];
+			for(int j = offsets[v]; j < offsets[v + 1]; ++j) {
+				a = arcList[j];
+				if(level[head[a]] < 0 && admissible(a)) {
+					level[head[a]] = level[v] + 1;
+					cursor[head[a]] = offsets[head[a]];
+					queue[queueEnd++] = head[a];
+				}
+			}
+		}
+
+		return level[sink] >= 0;
+	}
+
+	// pushes flow from source to sink along one path of admissible arcs that lead one level further
+	// follows the path with an explicit stack, as TransferEngine does
+	// returns the amount pushed
+	private double push() {
+		int v = source;
+		int depth = 0;
+		int a;
+		double amount;
+
+		while(true) {
+			// sink reached: send bottleneck amount along path
+			if(v == sink) {
+				amount = Double.POSITIVE_INFINITY;
+				for(int i = 0; i < depth; ++i)
+					amount = Math.min(amount, residual[pathArcs[i]]);
+				for(int i = 0; i < depth; ++i) {
+					residual[pathArcs[i]] -= amount;
+					residual[pathArcs[i] ^ 1] += amount;
+				}
+				return amount;
+			}
+
+			// try node's arcs, picking up where the last push left off
+			for(; cursor[v] < offsets[v + 1]; ++cursor[v]) {
+				a = arcList[cursor[v]];
+				if(level[head[a]] == level[v] + 1 && admissible(a))
+					break;
+			}
+
+			// advance along arc
+			if(cursor[v] < offsets[v + 1]) {
+				pathArcs[depth++] = arcList[cursor[v]];
+				v = head[arcList[cursor[v]]];
+			}
+			// else no path to sink from here, so go back a step and try the next arc from there
+			else {
+				if(depth == 0)
+					return 0;
+				v = head[pathArcs[--depth] ^ 1];
+				++cursor[v];
+			}
+		}
+	}
+
+	// adds a node to the heap
+	private void heapPush(int v) {
+		heap[heapSize] = v;
+		heapPosition[v] = heapSize;
+		heapUp(heapSize++);
+	}
+
+	// removes and returns the node with the smallest distance
+	private int heapPop() {
+		int top = heap[0];
+		heapPosition[top] = -2;
+		--heapSize;
+		if(heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapPosition[heap[0]] = 0;
+			heapDown(0);
+		}
+		return top;
+	}
+
+	// moves a heap entry up until its parent is no further than it
+	private void heapUp(int i) {
+		int v = heap[i];
+		int parent;
+		while(i > 0) {
+			parent = (i - 1) / 2;
+			if(distance[heap[parent]] <= distance[v])
+				break;
+			heap[i] = heap[parent];
+			heapPosition[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = v;
+		heapPosition[v] = i;
+	}
+
+	// moves a heap entry down until its children are no closer than it
+	private void heapDown(int i) {
+		int v = heap[i];
+		int child;
+		while(2 * i + 1 < heapSize) {
+			child = 2 * i + 1;
+			if(child + 1 < heapSize && distance[heap[child + 1]] < distance[heap[child]])
+				++child;
+			if(distance[v] <= distance[heap[child]])
+				break;
+			heap[i] = heap[child];
+			heapPosition[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = v;
+		heapPosition[v] = i;
+	}
+}
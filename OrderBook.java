@@ -0,0 +1,297 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * One side of the order book of an auction market
+ *
+ * Orders are grouped into price levels (see the PriceLevel class). Levels are
+ * kept in a sorted map, so a level can be found or created in O(log n), and
+ * are also chained together in order of priority, so the best level is always
+ * the head of the chain and can be read in O(1).
+ *
+ * On the bid side, higher prices have priority; on the ask side, lower prices
+ * have priority. Within a level, earlier orders have priority.
+ * 
+ * The book also indexes its orders by id, and gives their prices, quantities
+ * and other fields in columns, in order of priority, through a store (see the
+ * OrderStore class) that fills the columns from the book when they are read.
+ *
+ */
+
+import java.util.*;
+
+public class OrderBook {
+	// whether this is the bid side of the book
+	private final boolean bidSide;
+
+	// price levels, sorted in order of priority
+	private final TreeMap<Double, PriceLevel> levels;
+
+	// level with the best price, i.e., head of the chain of levels
+	private PriceLevel best = null;
+
+	// index of the orders resting in book, and columns of them
+	private final OrderStore store = new OrderStore(this);
+	
+	// number of orders resting in book
+	private int size = 0;
+	
+	// sorts batches of new orders by priority before they are merged into the book, and its buffers
+	private final RadixSort sorter = new RadixSort();
+	private long[] sortKeys = new long[0];
+	private int[] sortIndices = new int[0];
+	private ElectricityOrder[] sortOrders = new ElectricityOrder[0];
+
+	// constructor
+	// "bids" tells you whether this is the bid side or the ask side of the book
+	public OrderBook(boolean bids) {
+		super();
+		bidSide = bids;
+		if(bids)
+			levels = new TreeMap<Double, PriceLevel>(Collections.reverseOrder());
+		else
+			levels = new TreeMap<Double, PriceLevel>();
+	}
+
+	// accessor methods
+	public boolean isBidSide() {
+		return bidSide;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getLevelCount() {
+		return levels.size();
+	}
+	
+	public OrderStore getStore() {
+		return store;
+	}
+
+	// returns the level with the best price, or null if book is empty
+	public PriceLevel getBestLevel() {
+		return best;
+	}
+
+	// returns the order with the highest priority, or null if book is empty
+	public ElectricityOrder first() {
+		if(best == null)
+			return null;
+		else
+			return best.head;
+	}
+
+	// returns the order that comes after a given order in priority, or null if there is none
+	// the given order must be resting in this book
+	public ElectricityOrder next(ElectricityOrder order) {
+		if(order.next != null)
+			return order.next;
+		else if(order.level.next != null)
+			return order.level.next.head;
+		else
+			return null;
+	}
+
+	// returns the order resting in this book with a given id, or null if there is none
+	public ElectricityOrder find(long id) {
+		return store.find(id);
+	}
+	
+	// whether an order is resting in this book
+	public boolean contains(ElectricityOrder order) {
+		return order.level != null && order.level.book == this;
+	}
+
+	// adds an order to the back of the queue for its price
+	public void add(ElectricityOrder order) {
+		// find order's price level
+		PriceLevel level = levels.get(order.getPrice());
+
+		// if there is no level for this price yet, make one and link it into the chain of levels
+		if(level == null) {
+			level = new PriceLevel(this, order.getPrice());
+			levels.put(order.getPrice(), level);
+
+			// levels sort in order of priority, so the "lower" entry is the neighbor with a better price
+			Map.Entry<Double, PriceLevel> better = levels.lowerEntry(order.getPrice());
+			if(better == null)
+				linkLevel(level, null, best);
+			else
+				linkLevel(level, better.getValue(), better.getValue().next);
+		}
+
+		level.append(order);
+		store.add(order);
+		++size;
+	}
+
+	// adds a batch of orders to the book, in batch[0] to batch[count - 1]
+	// 
+	// The batch is sorted by priority (keeping the order in which orders were 
+	// given when prices are equal) and then merged into the chain of levels in
+	// one pass: only the first order needs a lookup in the map of levels, and 
+	// every later order is placed by walking forward from the level before it.
+	// The batch is left sorted.
+	public void addAll(ElectricityOrder[] batch, int count) {
+		if(count == 0)
+			return;
+		
+		sortByPriority(batch, count);
+		
+		// temporary storage
+		ElectricityOrder tempOrder;
+		PriceLevel level;
+		PriceLevel nextLevel;
+		
+		// start at the level with the same price as the first order or the best price before it, if any
+		Map.Entry<Double, PriceLevel> start = levels.floorEntry(batch[0].getPrice());
+		PriceLevel cursor = start == null ? null : start.getValue();
+		
+		for(int i = 0; i < count; ++i) {
+			tempOrder = batch[i];
+			
+			// walk forward from cursor past every level with a better price than order's
+			nextLevel = cursor == null ? best : cursor.next;
+			while(nextLevel != null && isBetter(nextLevel.price, tempOrder.getPrice())) {
+				cursor = nextLevel;
+				nextLevel = nextLevel.next;
+			}
+			
+			// use cursor if it has order's price, else the level after it, else make a new level in between
+			if(cursor != null && cursor.price == tempOrder.getPrice())
+				level = cursor;
+			else if(nextLevel != null && nextLevel.price == tempOrder.getPrice())
+				level = nextLevel;
+			else {
+				level = new PriceLevel(this, tempOrder.getPrice());
+				levels.put(tempOrder.getPrice(), level);
+				linkLevel(level, cursor, nextLevel);
+			}
+			
+			level.append(tempOrder);
+			store.add(tempOrder);
+			++size;
+			cursor = level;
+		}
+	}
+	
+	// removes an order from the book
+	// returns true on success, false if order was not resting in this book
+	public boolean remove(ElectricityOrder order) {
+		if(!contains(order))
+			return false;
+
+		PriceLevel level = order.level;
+		level.unlink(order);
+		store.remove(order);
+		--size;
+
+		// if level has no more orders, get rid of it
+		if(level.isEmpty()) {
+			levels.remove(level.price);
+			unlinkLevel(level);
+		}
+
+		return true;
+	}
+
+	// changes the quantity of an order resting in the book
+	// a smaller quantity keeps the order's place in the queue for its price, 
+	// but a larger quantity sends it to the back of the queue
+	// returns true on success, false otherwise
+	public boolean amendQuantity(ElectricityOrder order, double quantity) {
+		if(!contains(order) || quantity <= 0)
+			return false;
+		
+		// amending an order does not fill it, so it keeps its status
+		if(quantity <= order.getQuantity())
+			return reduceQuantity(order, order.getQuantity() - quantity, order.status);
+		
+		remove(order);
+		order.quantity = quantity;
+		add(order);
+		return true;
+	}
+	
+	// reduces the quantity of an order resting in the book, and gives it a status (see the OrderStore class), e.g.,
+	// PARTIALLY_FILLED when it is partially filled
+	// returns true on success, false otherwise
+	public boolean reduceQuantity(ElectricityOrder order, double amount, byte status) {
+		if(!contains(order) || !order.updateQuantity(-1*amount))
+			return false;
+
+		order.level.quantity -= amount;
+		order.status = status;
+		store.update();
+		return true;
+	}
+
+	// whether one price has priority over another on this side of the book
+	private boolean isBetter(double price, double other) {
+		if(bidSide)
+			return price > other;
+		else
+			return price < other;
+	}
+	
+	// sorts a batch of orders by priority, keeping the order in which they were given when prices are equal
+	// sorts on primitive price keys (see the RadixSort class)
+	void sortByPriority(ElectricityOrder[] batch, int count) {
+		if(sortKeys.length < count) {
+			sortKeys = new long[count];
+			sortIndices = new int[count];
+			sortOrders = new ElectricityOrder[count];
+		}
+		
+		// on the bid side, flipping the key's bits puts higher prices first
+		for(int i = 0; i < count; ++i) {
+			sortKeys[i] = RadixSort.sortableKey(batch[i].getPrice());
+			if(bidSide)
+				sortKeys[i] = ~sortKeys[i];
+			sortIndices[i] = i;
+		}
+		sorter.sort(sortKeys, sortIndices, count);
+		
+		// put orders in sorted order
+		for(int i = 0; i < count; ++i)
+			sortOrders[i] = batch[sortIndices[i]];
+		System.arraycopy(sortOrders, 0, batch, 0, count);
+		Arrays.fill(sortOrders, 0, count, null);
+	}
+	
+	// puts a level into the chain of levels between two neighbors
+	private void linkLevel(PriceLevel level, PriceLevel prev, PriceLevel next) {
+		level.prev = prev;
+		level.next = next;
+
+		if(prev == null)
+			best = level;
+		else
+			prev.next = level;
+
+		if(next != null)
+			next.prev = level;
+	}
+
+	// takes a level out of the chain of levels
+	private void unlinkLevel(PriceLevel level) {
+		if(level.prev == null)
+			best = level.next;
+		else
+			level.prev.next = level.next;
+
+		if(level.next != null)
+			level.next.prev = level.prev;
+
+		level.prev = null;
+		level.next = null;
+	}
+}
@@ -0,0 +1,122 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Maps order ids to slots in an OrderStore
+ *
+ * This is an open-addressing hash table over primitive arrays, so looking up,
+ * adding and removing an id take O(1) expected time without boxing. Removal
+ * shifts later entries of a run back instead of leaving tombstones, so the
+ * table does not fill up with dead entries as orders come and go.
+ *
+ * Order ids are positive; 0 marks an empty entry.
+ *
+ */
+
+public class OrderIdIndex {
+	// marks an empty entry
+	private static final long EMPTY = 0;
+
+	// number of entries in a new index (a power of 2)
+	private static final int INITIAL_CAPACITY = 128;
+
+	// ids and slots, side by side
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private int[] slots = new int[INITIAL_CAPACITY];
+
+	// number of ids in index
+	private int size = 0;
+
+	// constructor
+	public OrderIdIndex() {
+		super();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// returns the slot for an id, or -1 if id is not in index
+	public int get(long id) {
+		int mask = ids.length - 1;
+		for(int i = hash(id) & mask; ids[i] != EMPTY; i = (i + 1) & mask) {
+			if(ids[i] == id)
+				return slots[i];
+		}
+		return -1;
+	}
+
+	// adds an id or changes its slot
+	public void put(long id, int slot) {
+		// keep table at most half full
+		if(2 * (size + 1) > ids.length)
+			resize(2 * ids.length);
+
+		int mask = ids.length - 1;
+		int i = hash(id) & mask;
+		while(ids[i] != EMPTY && ids[i] != id)
+			i = (i + 1) & mask;
+
+		if(ids[i] == EMPTY)
+			++size;
+		ids[i] = id;
+		slots[i] = slot;
+	}
+
+	// removes an id
+	// returns true on success, false if id was not in index
+	public boolean remove(long id) {
+		int mask = ids.length - 1;
+		int i = hash(id) & mask;
+		while(ids[i] != id) {
+			if(ids[i] == EMPTY)
+				return false;
+			i = (i + 1) & mask;
+		}
+
+		// shift later entries of the run back into the hole, so lookups never stop early
+		int hole = i;
+		int home;
+		for(i = (i + 1) & mask; ids[i] != EMPTY; i = (i + 1) & mask) {
+			home = hash(ids[i]) & mask;
+			// move entry if its home is not between the hole and its current position
+			if(((i - home) & mask) >= ((i - hole) & mask)) {
+				ids[hole] = ids[i];
+				slots[hole] = slots[i];
+				hole = i;
+			}
+		}
+		ids[hole] = EMPTY;
+		--size;
+		return true;
+	}
+
+	// removes every id, giving back the memory of a table that has grown
+	public void clear() {
+		ids = new long[INITIAL_CAPACITY];
+		slots = new int[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	// spreads the bits of an id, since ids are handed out in sequence
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	// moves every entry into a table of a given capacity
+	private void resize(int capacity) {
+		long[] oldIds = ids;
+		int[] oldSlots = slots;
+		ids = new long[capacity];
+		slots = new int[capacity];
+		size = 0;
+
+		for(int i = 0; i < oldIds.length; ++i) {
+			if(oldIds[i] != EMPTY)
+				put(oldIds[i], oldSlots[i]);
+		}
+	}
+}
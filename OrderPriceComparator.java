@@ -13,6 +13,6 @@ import java.util.Comparator;
 public class OrderPriceComparator implements Comparator<MarketOrder> {
 	@Override
 	public int compare(MarketOrder o1, MarketOrder o2) {
-		return (int)(o1.getPrice() - o2.getPrice());
+		return Double.compare(o1.getPrice(), o2.getPrice());
 	}
 }
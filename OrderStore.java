@@ -0,0 +1,204 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Index and columnar snapshot of the orders resting on one side of an order
+ * book
+ *
+ * The book itself holds its orders (see the OrderBook class). The store
+ * indexes them by id (see the OrderIdIndex class), so an order can be found
+ * from its id in O(1): each order has a slot, the orders in the store always
+ * fill slots 0 to size - 1, and when an order leaves, the order in the last
+ * slot moves into its place.
+ *
+ * The store also gives the price, quantity, company id, region id and status
+ * of every order in parallel primitive arrays, by rank in order of priority
+ * (rank 0 is the best order). These columns are a snapshot, rebuilt by
+ * walking the book the first time they are read after the book changes, so
+ * changing the book only marks them out of date. Prices and quantities can be
+ * read through read-only DoubleBuffer views of the columns, without copying
+ * anything. The views are shared, and stay valid until the book changes.
+ *
+ */
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+public class OrderStore {
+	// order statuses
+	public static final byte OPEN = 0;
+	public static final byte PARTIALLY_FILLED = 1;
+
+	// number of slots and ranks in a new store
+	private static final int INITIAL_CAPACITY = 64;
+
+	// book whose orders are in store
+	private final OrderBook book;
+
+	// orders, by slot
+	private ElectricityOrder[] orders = new ElectricityOrder[INITIAL_CAPACITY];
+
+	// number of orders in store
+	private int size = 0;
+
+	// slots of orders, by id
+	private final OrderIdIndex index = new OrderIdIndex();
+
+	// columns of the snapshot, by rank, and whether book has changed since they were filled
+	private ElectricityOrder[] rankedOrders = new ElectricityOrder[INITIAL_CAPACITY];
+	private double[] prices = new double[INITIAL_CAPACITY];
+	private double[] quantities = new double[INITIAL_CAPACITY];
+	private int[] companyIds = new int[INITIAL_CAPACITY];
+	private int[] regionIds = new int[INITIAL_CAPACITY];
+	private byte[] statuses = new byte[INITIAL_CAPACITY];
+	private boolean stale = false;
+
+	// read-only views of prices and quantities
+	// rebuilt only when the columns grow
+	private DoubleBuffer priceView = DoubleBuffer.wrap(prices).asReadOnlyBuffer();
+	private DoubleBuffer quantityView = DoubleBuffer.wrap(quantities).asReadOnlyBuffer();
+
+	// constructor
+	public OrderStore(OrderBook owner) {
+		super();
+		book = owner;
+	}
+
+	// accessor methods
+	public int size() {
+		return size;
+	}
+
+	// returns the order with a given id, or null if there is none in store
+	public ElectricityOrder find(long id) {
+		int slot = index.get(id);
+		if(slot < 0)
+			return null;
+		else
+			return orders[slot];
+	}
+
+	// accessor methods for the order with a given rank in order of priority
+	public ElectricityOrder getOrder(int rank) {
+		refresh();
+		return rankedOrders[rank];
+	}
+
+	public double getPrice(int rank) {
+		refresh();
+		return prices[rank];
+	}
+
+	public double getQuantity(int rank) {
+		refresh();
+		return quantities[rank];
+	}
+
+	public int getCompanyId(int rank) {
+		refresh();
+		return companyIds[rank];
+	}
+
+	public int getRegionId(int rank) {
+		refresh();
+		return regionIds[rank];
+	}
+
+	public byte getStatus(int rank) {
+		refresh();
+		return statuses[rank];
+	}
+
+	// read-only view of the prices of the orders, in order of priority
+	public DoubleBuffer prices() {
+		refresh();
+		priceView.limit(size).position(0);
+		return priceView;
+	}
+
+	// read-only view of the quantities of the orders, in order of priority
+	public DoubleBuffer quantities() {
+		refresh();
+		quantityView.limit(size).position(0);
+		return quantityView;
+	}
+
+	// puts an order into the next free slot
+	void add(ElectricityOrder order) {
+		if(size == orders.length)
+			orders = Arrays.copyOf(orders, 2 * orders.length);
+
+		orders[size] = order;
+		order.slot = size;
+		if(order.getId() > 0)
+			index.put(order.getId(), size);
+		++size;
+		stale = true;
+	}
+
+	// takes an order out of its slot and moves the order in the last slot into it
+	void remove(ElectricityOrder order) {
+		int slot = order.slot;
+		int last = size - 1;
+
+		// move last order into freed slot
+		if(slot != last) {
+			orders[slot] = orders[last];
+			orders[slot].slot = slot;
+			if(orders[slot].getId() > 0)
+				index.put(orders[slot].getId(), slot);
+		}
+
+		if(order.getId() > 0)
+			index.remove(order.getId());
+		orders[last] = null;
+		order.slot = -1;
+		--size;
+		stale = true;
+	}
+
+	// records that the quantity or status of an order in store has changed
+	void update() {
+		stale = true;
+	}
+
+	// fills the columns again from the book, if it has changed since they were last filled
+	private void refresh() {
+		if(!stale)
+			return;
+
+		if(rankedOrders.length < size)
+			grow();
+
+		int rank = 0;
+		for(ElectricityOrder tempOrder = book.first(); tempOrder != null; tempOrder = book.next(tempOrder)) {
+			rankedOrders[rank] = tempOrder;
+			prices[rank] = tempOrder.getPrice();
+			quantities[rank] = tempOrder.getQuantity();
+			companyIds[rank] = tempOrder.getCompany().getId();
+			regionIds[rank] = tempOrder.getLocation().getId();
+			statuses[rank] = tempOrder.status;
+			++rank;
+		}
+		Arrays.fill(rankedOrders, rank, rankedOrders.length, null);
+		stale = false;
+	}
+
+	// makes the columns big enough for every order in store
+	private void grow() {
+		int length = rankedOrders.length;
+		while(length < size)
+			length *= 2;
+		rankedOrders = Arrays.copyOf(rankedOrders, length);
+		prices = Arrays.copyOf(prices, length);
+		quantities = Arrays.copyOf(quantities, length);
+		companyIds = Arrays.copyOf(companyIds, length);
+		regionIds = Arrays.copyOf(regionIds, length);
+		statuses = Arrays.copyOf(statuses, length);
+
+		priceView = DoubleBuffer.wrap(prices).asReadOnlyBuffer();
+		quantityView = DoubleBuffer.wrap(quantities).asReadOnlyBuffer();
+	}
+}
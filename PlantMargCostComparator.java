@@ -25,6 +25,6 @@ public class PlantMargCostComparator implements Comparator<PowerPlant> {
 			return -1;
 		if(o1.getClass() != BasePlant.class && o2.getClass() == BasePlant.class)
 			return 1;
-		return (int)(o1.getMargCost() - o2.getMargCost());
+		return Double.compare(o1.getMargCost(), o2.getMargCost());
 	}
 }
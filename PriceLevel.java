@@ -0,0 +1,102 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * One price level of an order book
+ *
+ * A price level holds every resting order at a single price in a
+ * first-in-first-out queue, so orders at the same price are filled in the
+ * order in which they arrived. The queue is a doubly-linked list threaded
+ * through the orders themselves, so an order can be unlinked in O(1) once
+ * it is known.
+ *
+ * Levels are also linked to their neighbors in order of priority
+ * (see the OrderBook class).
+ *
+ */
+
+public class PriceLevel {
+	// book that the level belongs to
+	final OrderBook book;
+
+	// price of every order in the level
+	final double price;
+
+	// first and last orders in the level's queue
+	ElectricityOrder head = null, tail = null;
+
+	// number of orders in the level and their total quantity
+	int size = 0;
+	double quantity = 0;
+
+	// neighboring levels in order of priority
+	// "prev" has better prices than this level, "next" has worse prices
+	PriceLevel prev = null, next = null;
+
+	// constructor
+	public PriceLevel(OrderBook owner, double dollars) {
+		super();
+		book = owner;
+		price = dollars;
+	}
+
+	// accessor methods
+	public double getPrice() {
+		return price;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public double getQuantity() {
+		return quantity;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// adds an order to the back of the level's queue
+	void append(ElectricityOrder order) {
+		order.level = this;
+		order.prev = tail;
+		order.next = null;
+
+		if(tail == null)
+			head = order;
+		else
+			tail.next = order;
+		tail = order;
+
+		++size;
+		quantity += order.getQuantity();
+	}
+
+	// takes an order out of the level's queue
+	void unlink(ElectricityOrder order) {
+		if(order.prev == null)
+			head = order.next;
+		else
+			order.prev.next = order.next;
+
+		if(order.next == null)
+			tail = order.prev;
+		else
+			order.next.prev = order.prev;
+
+		--size;
+		// an empty level has no quantity, whatever rounding error has built up
+		if(size == 0)
+			quantity = 0;
+		else
+			quantity -= order.getQuantity();
+
+		// order is no longer resting in a book
+		order.level = null;
+		order.prev = null;
+		order.next = null;
+	}
+}
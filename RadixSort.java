@@ -0,0 +1,131 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Stable sort on primitive long keys, with no comparator calls
+ *
+ * Keys are compared as unsigned numbers. Prices and costs are turned into
+ * keys with sortableKey(), which maps doubles to longs in the same order, so
+ * sorting by key is the same as sorting by price, with no rounding. Keys
+ * take all 64 bits, so anything else to sort by (such as a plant's type, see
+ * plantKey()) is sorted on separately, relying on the sort being stable.
+ *
+ * Short arrays are sorted by insertion; longer ones by a least-significant-
+ * digit radix sort, one byte per pass, skipping bytes that are the same in
+ * every key. Buffers are kept between calls, so a sorter that is reused does
+ * not allocate once its buffers are big enough. A sorter must only be used
+ * by one thread at a time.
+ *
+ */
+
+import java.util.Arrays;
+
+public class RadixSort {
+	// below this many keys, insertion sort beats counting passes
+	private static final int INSERTION_THRESHOLD = 32;
+
+	// reusable buffers
+	private long[] keyBuffer = new long[0];
+	private int[] indexBuffer = new int[0];
+	private final int[] counts = new int[256];
+
+	// constructor
+	public RadixSort() {
+		super();
+	}
+
+	// maps a double to a long key, so that unsigned order of keys is the order of doubles
+	// -0.0 and 0.0 get the same key
+	public static long sortableKey(double d) {
+		long bits = Double.doubleToLongBits(d + 0.0);
+		// flip every bit of negative numbers, and only the sign bit of positive numbers
+		return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+	}
+
+	// key for sorting power plants by marginal cost, in the same order as Double.compare()
+	// (unlike sortableKey(), -0.0 comes before 0.0, as it does in PlantMargCostComparator)
+	// base-load plants are put first by the caller, since no bits are left for the type
+	public static long plantKey(PowerPlant plant) {
+		long bits = Double.doubleToLongBits(plant.getMargCost());
+		return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+	}
+
+	// sorts keys[0] to keys[count - 1] in unsigned order, and moves indices[x] along with keys[x]
+	// keys that are equal keep their order
+	public void sort(long[] keys, int[] indices, int count) {
+		if(count < INSERTION_THRESHOLD) {
+			insertionSort(keys, indices, count);
+			return;
+		}
+
+		if(keyBuffer.length < count) {
+			keyBuffer = new long[count];
+			indexBuffer = new int[count];
+		}
+
+		// temporary storage
+		long[] fromKeys = keys, toKeys = keyBuffer, tempKeys;
+		int[] fromIndices = indices, toIndices = indexBuffer, tempIndices;
+		int digit, sum, tempCount;
+
+		for(int shift = 0; shift < 64; shift += 8) {
+			// count keys for each value of this byte
+			Arrays.fill(counts, 0);
+			for(int i = 0; i < count; ++i)
+				++counts[(int)(fromKeys[i] >>> shift) & 0xFF];
+
+			// if every key has the same byte here, this pass would not move anything
+			if(counts[(int)(fromKeys[0] >>> shift) & 0xFF] == count)
+				continue;
+
+			// turn counts into starting positions
+			sum = 0;
+			for(int b = 0; b < 256; ++b) {
+				tempCount = counts[b];
+				counts[b] = sum;
+				sum += tempCount;
+			}
+
+			// move keys into place, in order, so the sort stays stable
+			for(int i = 0; i < count; ++i) {
+				digit = (int)(fromKeys[i] >>> shift) & 0xFF;
+				toKeys[counts[digit]] = fromKeys[i];
+				toIndices[counts[digit]] = fromIndices[i];
+				++counts[digit];
+			}
+
+			// sorted keys are the input for the next pass
+			tempKeys = fromKeys;
+			fromKeys = toKeys;
+			toKeys = tempKeys;
+			tempIndices = fromIndices;
+			fromIndices = toIndices;
+			toIndices = tempIndices;
+		}
+
+		// if the last pass left keys in the buffers, copy them back
+		if(fromKeys != keys) {
+			System.arraycopy(fromKeys, 0, keys, 0, count);
+			System.arraycopy(fromIndices, 0, indices, 0, count);
+		}
+	}
+
+	// stable insertion sort for short arrays
+	private static void insertionSort(long[] keys, int[] indices, int count) {
+		long tempKey;
+		int tempIndex;
+		int j;
+		for(int i = 1; i < count; ++i) {
+			tempKey = keys[i];
+			tempIndex = indices[i];
+			for(j = i - 1; j >= 0 && Long.compareUnsigned(keys[j], tempKey) > 0; --j) {
+				keys[j + 1] = keys[j];
+				indices[j + 1] = indices[j];
+			}
+			keys[j + 1] = tempKey;
+			indices[j + 1] = tempIndex;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Counters and timers for the routing layer of a market
+ *
+ * A market with metrics set (see AuctionMarket.setMetrics()) has its
+ * transfer engines, component router and matching loop add to them as they
+ * work: how many transfers were asked for and how each one ended, how many
+ * searches they took and how much of the network those searches reached,
+ * how long they took, and how often asks blocked by full lines were swept
+ * again. For each line of the network, the metrics count the paths that
+ * electricity took along it and the times it was the bottleneck of a path,
+ * i.e., the path filled it up; the lines with the most bottlenecks are the
+ * congested ones. getUtilizationHistogram() shows how full the lines of
+ * the network are at the moment.
+ *
+ * Counters are LongAdders, and per-line counts are atomic, so metrics may be
+ * shared by engines on several threads (as the tasks of a ComponentRouter
+ * are). Engines count their work in fields of their own while a transfer
+ * runs and add it to the metrics once, when it ends, so the searches
+ * themselves do no extra work on shared memory, apart from per-line counts.
+ * A market without metrics does no counting at all.
+ *
+ * Each transfer is also recorded as a TransferEvent, for Java Flight
+ * Recorder, whether or not metrics are set.
+ *
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+public class RoutingMetrics {
+	// network whose lines are counted
+	private final TransmissionNetwork network;
+
+	// transfers asked for, and how they ended: turned down without a search, every unit sent, some sent, none sent
+	private final LongAdder transfers = new LongAdder();
+	private final LongAdder turnedDown = new LongAdder();
+	private final LongAdder filled = new LongAdder();
+	private final LongAdder partlyFilled = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	// electricity asked for and sent
+	private final LongAdder requestedMicros = new LongAdder();
+	private final LongAdder sentMicros = new LongAdder();
+
+	// breadth-first searches, regions they reached, arcs they found full, steps taken along paths, and paths pushed
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder regionsVisited = new LongAdder();
+	private final LongAdder blockedArcs = new LongAdder();
+	private final LongAdder pathSteps = new LongAdder();
+	private final LongAdder paths = new LongAdder();
+
+	// time spent in transfers, and longest transfer, in nanoseconds
+	private final LongAdder transferNanos = new LongAdder();
+	private final LongAccumulator longestTransferNanos = new LongAccumulator(new LongBinaryOperator() {
+		public long applyAsLong(long a, long b) {
+			return Math.max(a, b);
+		}
+	}, 0);
+
+	// rounds of batch matching, sweeps of blocked asks, and asks tried again in them
+	private final LongAdder rounds = new LongAdder();
+	private final LongAdder retrySweeps = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+
+	// paths along each line, and times each line was a path's bottleneck, by line number
+	private final AtomicLongArray lineUses;
+	private final AtomicLongArray lineBottlenecks;
+
+	// constructor
+	public RoutingMetrics(TransmissionNetwork n) {
+		super();
+		network = n;
+		lineUses = new AtomicLongArray(n.getLineCount());
+		lineBottlenecks = new AtomicLongArray(n.getLineCount());
+	}
+
+	public TransmissionNetwork getNetwork() {
+		return network;
+	}
+
+	// records a transfer that was turned down without a search
+	void recordTurnedDown(double requested) {
+		transfers.increment();
+		turnedDown.increment();
+		requestedMicros.add(toMicros(requested));
+	}
+
+	// records a transfer that searched the network
+	// a transfer counts as filled if it fell short by no more than rounding, as TransferEngine stops within 16 ulps
+	void recordTransfer(double requested, double sent, int searchCount, int visited, int blocked, int steps, int pathCount, long nanos) {
+		transfers.increment();
+		if(sent >= requested - 16 * Math.ulp(requested))
+			filled.increment();
+		else if(sent > 0)
+			partlyFilled.increment();
+		else
+			failed.increment();
+		requestedMicros.add(toMicros(requested));
+		sentMicros.add(toMicros(sent));
+
+		searches.add(searchCount);
+		regionsVisited.add(visited);
+		blockedArcs.add(blocked);
+		pathSteps.add(steps);
+		paths.add(pathCount);
+
+		transferNanos.add(nanos);
+		longestTransferNanos.accumulate(nanos);
+	}
+
+	// records a path's use of a line, and whether the path filled it
+	void recordLineUse(int line, boolean bottleneck) {
+		lineUses.incrementAndGet(line);
+		if(bottleneck)
+			lineBottlenecks.incrementAndGet(line);
+	}
+
+	// records a round of batch matching
+	void recordRound() {
+		rounds.increment();
+	}
+
+	// records a sweep of blocked asks, and the number of asks tried again in it
+	void recordRetrySweep(int asks) {
+		retrySweeps.increment();
+		retries.add(asks);
+	}
+
+	// amounts of electricity are added up in millionths of a unit, so adders can stay exact
+	private static long toMicros(double amount) {
+		return Math.round(amount * 1e6);
+	}
+
+	// accessor methods
+	public long getTransfers() {
+		return transfers.sum();
+	}
+
+	public long getTurnedDown() {
+		return turnedDown.sum();
+	}
+
+	public long getFilled() {
+		return filled.sum();
+	}
+
+	public long getPartlyFilled() {
+		return partlyFilled.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public double getRequested() {
+		return requestedMicros.sum() / 1e6;
+	}
+
+	public double getSent() {
+		return sentMicros.sum() / 1e6;
+	}
+
+	public long getSearches() {
+		return searches.sum();
+	}
+
+	public long getRegionsVisited() {
+		return regionsVisited.sum();
+	}
+
+	public long getBlockedArcs() {
+		return blockedArcs.sum();
+	}
+
+	public long getPathSteps() {
+		return pathSteps.sum();
+	}
+
+	public long getPaths() {
+		return paths.sum();
+	}
+
+	public long getTransferNanos() {
+		return transferNanos.sum();
+	}
+
+	public long getLongestTransferNanos() {
+		return longestTransferNanos.get();
+	}
+
+	public long getRounds() {
+		return rounds.sum();
+	}
+
+	public long getRetrySweeps() {
+		return retrySweeps.sum();
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	public long getLineUses(int line) {
+		return lineUses.get(line);
+	}
+
+	public long getLineBottlenecks(int line) {
+		return lineBottlenecks.get(line);
+	}
+
+	// numbers of the lines that were bottlenecks most often, most first (at most count of them, and only lines that were)
+	public int[] getCongestedLines(int count) {
+		List<Integer> congested = new ArrayList<Integer>();
+		for(int l = 0; l < lineBottlenecks.length(); ++l) {
+			if(lineBottlenecks.get(l) > 0)
+				congested.add(l);
+		}
+		Collections.sort(congested, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int order = Long.compare(lineBottlenecks.get(b), lineBottlenecks.get(a));
+				return order != 0 ? order : Integer.compare(a, b);
+			}
+		});
+
+		int[] lines = new int[Math.min(count, congested.size())];
+		for(int i = 0; i < lines.length; ++i)
+			lines[i] = congested.get(i);
+		return lines;
+	}
+
+	/*
+	 * counts the network's lines with capacity by how full they are now
+	 * bucket i of n counts lines whose current, in either direction, is at
+	 * least i / n and less than (i + 1) / n of their capacity; full lines go
+	 * in the last bucket
+	 */
+	public long[] getUtilizationHistogram(int buckets) {
+		if(buckets < 1)
+			throw new IllegalArgumentException("Error: number of buckets must be positive");
+
+		long[] histogram = new long[buckets];
+		double utilization;
+		for(int l = 0; l < network.getLineCount(); ++l) {
+			if(network.capacity[l] <= 0)
+				continue;
+			utilization = Math.abs(network.current[l]) / network.capacity[l];
+			++histogram[Math.min(buckets - 1, (int) (utilization * buckets))];
+		}
+		return histogram;
+	}
+
+	// sets every counter back to 0
+	public void reset() {
+		transfers.reset();
+		turnedDown.reset();
+		filled.reset();
+		partlyFilled.reset();
+		failed.reset();
+		requestedMicros.reset();
+		sentMicros.reset();
+		searches.reset();
+		regionsVisited.reset();
+		blockedArcs.reset();
+		pathSteps.reset();
+		paths.reset();
+		transferNanos.reset();
+		longestTransferNanos.reset();
+		rounds.reset();
+		retrySweeps.reset();
+		retries.reset();
+		for(int l = 0; l < lineUses.length(); ++l) {
+			lineUses.set(l, 0);
+			lineBottlenecks.set(l, 0);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Runs many independent simulations of one market in parallel, and gathers
+ * statistics of their results
+ *
+ * A single run is one random draw: the order in which companies order
+ * trades is shuffled, and results depend on it. The runner runs a given
+ * number of scenarios, each forked from one ModelBaseline: a scenario's
+ * state is a ModelOverlay of its own, built into companies, regions, plants
+ * and lines only while it runs, and every scenario shares the baseline's
+ * parameters and network topology, so scenarios share nothing they change
+ * and can run on any thread.
+ *
+ * Each scenario's randomness comes from a SplittableRandom stream split off
+ * a master stream, in the order of the scenarios, so a seed gives the same
+ * scenarios however many threads run them. Scenarios are run in batches of a
+ * few per thread, and each batch's results are added to the statistics in
+ * the order of the scenarios, so the statistics too depend only on the
+ * seed. Results are not kept once they are added: each company's expenses
+ * and each region's shortfall go into a StreamingStatistics, which keeps
+ * their mean, variance, extremes and quantiles in constant space.
+ *
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ScenarioRunner {
+	// quantiles estimated for each result, as probabilities
+	public static final double[] QUANTILES = {0.05, 0.5, 0.95};
+
+	// scenarios run per thread in each batch
+	public static final int BATCH_PER_THREAD = 4;
+
+	// model that scenarios fork from
+	private final ModelBaseline baseline;
+
+	// how scenarios clear the market: matching mode, whether by DC power flow, and number of zones if at
+	// locational marginal prices (0 if not)
+	private final MatchingMode mode;
+	private boolean dcPowerFlow = false;
+	private int zoneCount = 0;
+
+	// number of threads on which scenarios run
+	private final int threads;
+
+	// master stream that each scenario's stream is split off
+	private final SplittableRandom random;
+
+	// statistics of each company's expenses, by company number, and each region's shortfall, by region number
+	private final StreamingStatistics[] expenses;
+	private final StreamingStatistics[] shortfalls;
+
+	// number of scenarios whose zonal dispatch did not converge (see ZonalDispatch.isConverged())
+	private int unconvergedRuns = 0;
+
+	// constructor
+	public ScenarioRunner(ModelBaseline model, MatchingMode matching, int threadCount, long seed) {
+		super();
+		if(threadCount < 1)
+			throw new IllegalArgumentException("Error: number of threads must be positive");
+		baseline = model;
+		mode = matching;
+		threads = threadCount;
+		random = new SplittableRandom(seed);
+
+		int regionCount = model.getRegionCount();
+		expenses = new StreamingStatistics[model.getCompanyCount()];
+		for(int c = 0; c < expenses.length; ++c)
+			expenses[c] = new StreamingStatistics(QUANTILES);
+		shortfalls = new StreamingStatistics[regionCount];
+		for(int r = 0; r < regionCount; ++r)
+			shortfalls[r] = new StreamingStatistics(QUANTILES);
+	}
+
+	// has scenarios send electricity by DC power flow
+	public void setPowerFlow(boolean b) {
+		dcPowerFlow = b;
+	}
+
+	// has scenarios clear at locational marginal prices, over the whole network (1 zone) or by zones
+	public void setNodalPricing(int zones) {
+		zoneCount = zones;
+	}
+
+	// statistics of a company's expenses, by company number, and of a region's shortfall, by region number
+	public StreamingStatistics getExpenses(int company) {
+		return expenses[company];
+	}
+
+	public StreamingStatistics getShortfall(int region) {
+		return shortfalls[region];
+	}
+
+	public int getUnconvergedRuns() {
+		return unconvergedRuns;
+	}
+
+	// runs a number of scenarios, adding their results to the statistics
+	public void run(int runs) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<double[]>> batch = new ArrayList<Future<double[]>>();
+		int batchSize = threads * BATCH_PER_THREAD;
+
+		try {
+			for(int start = 0; start < runs; start += batchSize) {
+				// start a batch, splitting off each scenario's stream in order
+				batch.clear();
+				for(int i = start; i < Math.min(runs, start + batchSize); ++i) {
+					final SplittableRandom stream = random.split();
+					batch.add(pool.submit(new Callable<double[]>() {
+						public double[] call() {
+							return runScenario(stream);
+						}
+					}));
+				}
+
+				// add results in order of scenario
+				for(Future<double[]> f : batch)
+					addResults(f.get());
+			}
+		}
+		catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Error: interrupted while running scenarios", ex);
+		}
+		catch(ExecutionException ex) {
+			throw new IllegalStateException("Error: a scenario failed: " + ex.getCause(), ex.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// runs one scenario forked from the baseline
+	// returns each company's expenses, by company number, then each region's shortfall, by region number, then 1 if
+	// its zonal dispatch did not converge (else 0)
+	private double[] runScenario(SplittableRandom stream) {
+		ModelOverlay overlay = baseline.fork();
+
+		// set up market
+		TransmissionNetwork network = overlay.build();
+		AuctionMarket market = new AuctionMarket(mode);
+		if(dcPowerFlow)
+			market.setPowerFlow(new DcPowerFlow(network));
+
+		// run it
+		TimeSeriesEngine engine = new TimeSeriesEngine(overlay.getCompanies(), network, market, 1, stream.nextLong());
+		try {
+			if(zoneCount > 0)
+				engine.setNodalPricing(zoneCount);
+			engine.runInterval();
+		}
+		finally {
+			engine.shutdown();
+		}
+		overlay.capture();
+
+		// collect results
+		double[] results = new double[expenses.length + shortfalls.length + 1];
+		for(int c = 0; c < expenses.length; ++c)
+			results[c] = overlay.getExpenses(c);
+		for(int r = 0; r < shortfalls.length; ++r)
+			results[expenses.length + r] = overlay.getShortfall(r);
+		results[expenses.length + shortfalls.length] = engine.getUnconvergedIntervals();
+		return results;
+	}
+
+	// adds one scenario's results to the statistics
+	private void addResults(double[] results) {
+		for(int c = 0; c < expenses.length; ++c)
+			expenses[c].add(results[c]);
+		for(int r = 0; r < shortfalls.length; ++r)
+			shortfalls[r].add(results[expenses.length + r]);
+		if(results[expenses.length + shortfalls.length] > 0)
+			++unconvergedRuns;
+	}
+}
@@ -0,0 +1,226 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Mean, variance, extremes and quantiles of a stream of numbers, kept in
+ * constant space however many numbers there are
+ *
+ * The mean and variance are updated by Welford's method, which adds each
+ * number's deviation from the running mean instead of summing squares, so
+ * the variance does not lose precision when the mean is large.
+ *
+ * Each quantile is estimated by the P-squared algorithm of Jain and
+ * Chlamtac: five markers track the smallest number, the largest, the
+ * quantile and two points halfway to it, and as numbers come in, the
+ * markers' heights are moved along a parabola through their neighbors so
+ * that their positions stay where the quantiles they track should be. Until
+ * five numbers have come in, quantiles are exact. The estimates depend on
+ * the order of the numbers, so adding the same numbers in the same order
+ * always gives the same estimates.
+ *
+ */
+
+import java.util.Arrays;
+
+public class StreamingStatistics {
+	// number of numbers added, their mean, and sum of squares of differences from the mean
+	private long count = 0;
+	private double mean = 0;
+	private double squares = 0;
+
+	// smallest and largest number added
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	// quantiles estimated, as probabilities, and estimator of each
+	private final double[] probabilities;
+	private final QuantileEstimator[] estimators;
+
+	// constructor
+	// estimates the quantiles for a given set of probabilities, each from 0 to 1
+	public StreamingStatistics(double... quantiles) {
+		super();
+		probabilities = quantiles.clone();
+		estimators = new QuantileEstimator[quantiles.length];
+		for(int i = 0; i < quantiles.length; ++i) {
+			if(!(quantiles[i] >= 0 && quantiles[i] <= 1))
+				throw new IllegalArgumentException("Error: quantile must be from 0 to 1");
+			estimators[i] = new QuantileEstimator(quantiles[i]);
+		}
+	}
+
+	// adds a number
+	public void add(double x) {
+		// update mean and squares
+		++count;
+		double delta = x - mean;
+		mean += delta / count;
+		squares += delta * (x - mean);
+
+		// update extremes
+		if(count == 1) {
+			min = x;
+			max = x;
+		}
+		else {
+			min = Math.min(min, x);
+			max = Math.max(max, x);
+		}
+
+		for(QuantileEstimator estimator : estimators)
+			estimator.add(x);
+	}
+
+	// accessor methods
+	public long getCount() {
+		return count;
+	}
+
+	// mean, or NaN if no numbers have been added
+	public double getMean() {
+		return count > 0 ? mean : Double.NaN;
+	}
+
+	// sample variance, or NaN if fewer than two numbers have been added
+	public double getVariance() {
+		return count > 1 ? squares / (count - 1) : Double.NaN;
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	// estimate of the quantile for a given probability, which must be one of those given to the constructor
+	// returns NaN if no numbers have been added
+	public double getQuantile(double probability) {
+		for(int i = 0; i < probabilities.length; ++i) {
+			if(probabilities[i] == probability)
+				return estimators[i].get();
+		}
+		throw new IllegalArgumentException("Error: quantile " + probability + " is not being estimated");
+	}
+
+	/*
+	 * P-squared estimator of one quantile
+	 *
+	 * Marker i has a height (an estimate of a quantile), a position (how
+	 * many numbers are at or below its height, counting from 1), and a
+	 * desired position, which grows by a fixed increment with each number.
+	 */
+	private static class QuantileEstimator {
+		// probability of quantile
+		private final double probability;
+
+		// heights, positions, desired positions, and increments of desired positions of the markers
+		private final double[] heights = new double[5];
+		private final double[] positions = new double[5];
+		private final double[] desired = new double[5];
+		private final double[] increments = new double[5];
+
+		// number of numbers added
+		private long count = 0;
+
+		// constructor
+		public QuantileEstimator(double p) {
+			super();
+			probability = p;
+			increments[0] = 0;
+			increments[1] = p / 2;
+			increments[2] = p;
+			increments[3] = (1 + p) / 2;
+			increments[4] = 1;
+		}
+
+		// adds a number
+		public void add(double x) {
+			// the first five numbers are kept as they are, then become the markers
+			if(count < 5) {
+				heights[(int) count++] = x;
+				if(count == 5) {
+					Arrays.sort(heights);
+					for(int i = 0; i < 5; ++i) {
+						positions[i] = i + 1;
+						desired[i] = 1 + 4 * increments[i];
+					}
+				}
+				return;
+			}
+			++count;
+
+			// find cell x falls in, stretching the end markers if it falls outside them
+			int cell;
+			if(x < heights[0]) {
+				heights[0] = x;
+				cell = 0;
+			}
+			else if(x >= heights[4]) {
+				heights[4] = Math.max(heights[4], x);
+				cell = 3;
+			}
+			else {
+				cell = 0;
+				while(x >= heights[cell + 1])
+					++cell;
+			}
+
+			// markers above the cell move up one position
+			for(int i = cell + 1; i < 5; ++i)
+				++positions[i];
+			for(int i = 0; i < 5; ++i)
+				desired[i] += increments[i];
+
+			// move middle markers that are a whole position or more from where they should be
+			double offset;
+			double step;
+			double height;
+			for(int i = 1; i < 4; ++i) {
+				offset = desired[i] - positions[i];
+				if((offset >= 1 && positions[i + 1] - positions[i] > 1) || (offset <= -1 && positions[i - 1] - positions[i] < -1)) {
+					step = Math.signum(offset);
+					height = parabolic(i, step);
+					if(heights[i - 1] < height && height < heights[i + 1])
+						heights[i] = height;
+					else
+						heights[i] = linear(i, step);
+					positions[i] += step;
+				}
+			}
+		}
+
+		// height of marker i moved one position along the parabola through it and its neighbors
+		private double parabolic(int i, double step) {
+			return heights[i] + step / (positions[i + 1] - positions[i - 1])
+					* ((positions[i] - positions[i - 1] + step) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i])
+					+ (positions[i + 1] - positions[i] - step) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+		}
+
+		// height of marker i moved one position along the line to the neighbor in the direction of the step
+		private double linear(int i, double step) {
+			int neighbor = i + (int) step;
+			return heights[i] + step * (heights[neighbor] - heights[i]) / (positions[neighbor] - positions[i]);
+		}
+
+		// estimate of quantile
+		public double get() {
+			if(count == 0)
+				return Double.NaN;
+			if(count >= 5)
+				return heights[2];
+
+			// with fewer than five numbers, take the nearest rank
+			double[] sorted = Arrays.copyOf(heights, (int) count);
+			Arrays.sort(sorted);
+			return sorted[(int) Math.min(count - 1, Math.max(0, Math.ceil(probability * count) - 1))];
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Runs the market for a series of intervals (e.g., the 8,760 hours of a
+ * year), one after another, on one set of companies, regions, plants and
+ * lines
+ *
+ * Everything that does not change from one interval to the next is built
+ * once and kept: the network and its arrays, the plants, the market and its
+ * book, the transfer engines and pools, and the nodal or zonal dispatch, if
+ * clearing at locational marginal prices. Before each interval,
+ * startInterval() resets only what an interval changes: every order left in
+ * the book is cancelled, every line's current goes back to 0 (and a DC power
+ * flow forgets which lines blocked which trades), companies' expenses go
+ * back to 0, each region takes its demand for the interval, and every plant
+ * that can change its output runs at its maximum again, as when the input
+ * file is read. runInterval() then runs the market just as a single run
+ * does: companies order trades, in a new random order each interval, and the
+ * market executes them (or the network is dispatched at once), and companies
+ * stop any output they do not need.
+ *
+ * On more than one thread, companies work out their orders at once, but the
+ * market takes in each company's orders and executes trades one company at a
+ * time, in the same shuffled order as on one thread. A company's orders only
+ * depend on its own regions, which trades of companies before it cannot
+ * touch, so the outcome is the same on any number of threads.
+ *
+ * run() reads intervals from a DemandProfile and prints a line for each as
+ * soon as it is done, so a long series shows progress and nothing about
+ * past intervals is kept but running totals: each company's expenses and
+ * each region's shortfall.
+ *
+ * An engine must only be used by one thread at a time, and shutdown() must
+ * be called when it is no longer needed, to stop its pools.
+ *
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TimeSeriesEngine {
+	// companies, network and market being simulated
+	private final List<ElectricityCompany> companies;
+	private final TransmissionNetwork network;
+	private final AuctionMarket market;
+
+	// companies in the order in which they order trades, shuffled every interval
+	private final List<ElectricityCompany> shuffledCompanies;
+	private final Random random;
+
+	// number of threads on which companies order trades, and pools for them, if more than one
+	private final int threads;
+	private ExecutorService orderPool;
+	private ForkJoinPool routingPool;
+
+	// dispatch that clears the market at locational marginal prices, if any, and prices it found, by region number
+	private NodalDispatch nodalDispatch;
+	private ZonalDispatch zonalDispatch;
+	private double[] prices;
+
+	// number of intervals whose zonal dispatch did not converge (see ZonalDispatch.isConverged())
+	private int unconvergedIntervals = 0;
+
+	// number of intervals run, each company's expenses over all of them, by company id, and each region's
+	// shortfall, by region number
+	private int intervals = 0;
+	private final double[] totalExpenses;
+	private final double[] totalShortfalls;
+
+	// constructor
+	// companies order trades in an order shuffled with a given seed
+	public TimeSeriesEngine(List<ElectricityCompany> companyList, TransmissionNetwork n, AuctionMarket m, int threadCount, long seed) {
+		super();
+		if(threadCount < 1)
+			throw new IllegalArgumentException("Error: number of threads must be positive");
+		companies = companyList;
+		network = n;
+		market = m;
+		threads = threadCount;
+		shuffledCompanies = new ArrayList<ElectricityCompany>(companyList);
+		random = new Random(seed);
+		totalShortfalls = new double[n.getRegionCount()];
+
+		// companies' totals are kept by id, so every company needs its own
+		int largestId = -1;
+		for(ElectricityCompany company : companyList) {
+			if(company.getId() < 0)
+				throw new IllegalArgumentException("Error: every company must have an id");
+			largestId = Math.max(largestId, company.getId());
+		}
+		totalExpenses = new double[largestId + 1];
+		boolean[] seen = new boolean[largestId + 1];
+		for(ElectricityCompany company : companyList) {
+			if(seen[company.getId()])
+				throw new IllegalArgumentException("Error: two companies have id " + company.getId());
+			seen[company.getId()] = true;
+		}
+
+		// companies order trades in parallel, and the market routes islands of the network in parallel
+		if(threads > 1) {
+			orderPool = Executors.newFixedThreadPool(threads);
+			routingPool = new ForkJoinPool(threads);
+			market.setComponentRouter(new ComponentRouter(routingPool));
+		}
+	}
+
+	// has every interval cleared at locational marginal prices instead of by trading,
+	// over the whole network at once, or by a given number of zones solved in parallel
+	public void setNodalPricing(int zoneCount) {
+		if(zoneCount > 1) {
+			if(routingPool == null)
+				routingPool = new ForkJoinPool(threads);
+			zonalDispatch = new ZonalDispatch(network, zoneCount, routingPool);
+		}
+		else
+			nodalDispatch = new NodalDispatch(network);
+		prices = new double[network.getRegionCount()];
+	}
+
+	// accessor methods
+	public int getIntervals() {
+		return intervals;
+	}
+
+	public int getUnconvergedIntervals() {
+		return unconvergedIntervals;
+	}
+
+	// prices found in the last interval, by region number, or null if not clearing at locational marginal prices
+	public double[] getPrices() {
+		return prices;
+	}
+
+	// a company's expenses over every interval run so far
+	public double getTotalExpenses(ElectricityCompany company) {
+		return totalExpenses[company.getId()];
+	}
+
+	// demand that went unmet in a region over every interval run so far
+	public double getTotalShortfall(Region region) {
+		return totalShortfalls[region.getId()];
+	}
+
+	/*
+	 * resets everything an interval changes, and gives each region its
+	 * demand for the next interval, by region number
+	 */
+	public void startInterval(double[] demands) {
+		if(demands.length < network.getRegionCount())
+			throw new IllegalArgumentException("Error: " + demands.length + " demands given, but there are " + network.getRegionCount() + " regions");
+
+		// clear book and company records
+		market.cancelAllOrders();
+		for(ElectricityCompany company : companies) {
+			company.clearOrders();
+			company.updateExpenses(-1 * company.getExpenses());
+		}
+
+		// empty every line
+		for(int l = 0; l < network.getLineCount(); ++l) {
+			if(network.current[l] != 0)
+				network.setCurrent(l, 0);
+		}
+		if(market.getPowerFlow() != null)
+			market.getPowerFlow().clearBlockedPairs();
+
+		// give regions their demand, and run their plants at full output again (charging companies for it)
+		for(int r = 0; r < network.getRegionCount(); ++r) {
+			network.getRegion(r).setDemand(demands[r]);
+			network.getRegion(r).setAvailableElectricity();
+		}
+	}
+
+	/*
+	 * runs the market for one interval, as things are now (as after
+	 * startInterval(), or as read from the input file for the first interval)
+	 */
+	public void runInterval() {
+		Collections.shuffle(shuffledCompanies, random);
+
+		// if clearing at locational marginal prices, dispatch the network, by zones or all at once
+		if(zonalDispatch != null) {
+			zonalDispatch.solve();
+			if(!zonalDispatch.isConverged())
+				++unconvergedIntervals;
+			zonalDispatch.apply();
+			for(int r = 0; r < prices.length; ++r)
+				prices[r] = zonalDispatch.getPrice(network.getRegion(r));
+		}
+		else if(nodalDispatch != null) {
+			nodalDispatch.solve();
+			nodalDispatch.apply();
+			for(int r = 0; r < prices.length; ++r)
+				prices[r] = nodalDispatch.getPrice(network.getRegion(r));
+		}
+		// else if running on one thread, companies take turns ordering trades
+		else if(threads == 1) {
+			for(ElectricityCompany company : shuffledCompanies) {
+				// have company order trades
+				company.orderTrades(market);
+				// market tries to execute trades
+				// (when matching continuously, trades were already made as orders came in)
+				market.makeTrades();
+			}
+		}
+		// else all companies order trades at once, and then the market tries to execute them
+		else
+			tradeInParallel();
+
+		// have companies make final adjustments
+		// (a nodal or zonal dispatch already runs each plant at the output it needs)
+		if(prices == null) {
+			for(ElectricityCompany company : companies)
+				company.stopExtraOutput();
+		}
+
+		// add interval to totals
+		++intervals;
+		for(ElectricityCompany company : companies)
+			totalExpenses[company.getId()] += company.getExpenses();
+		for(int r = 0; r < totalShortfalls.length; ++r)
+			totalShortfalls[r] += shortfall(network.getRegion(r));
+	}
+
+	// has all companies order trades at once, and then has the market take in each company's orders and execute
+	// trades, one company at a time in shuffled order (as on one thread), routing islands of the network in parallel
+	private void tradeInParallel() {
+		List<Future<?>> orders = new ArrayList<Future<?>>();
+		market.setConcurrentIntake(true);
+		try {
+			for(final ElectricityCompany company : shuffledCompanies) {
+				orders.add(orderPool.submit(new Runnable() {
+					public void run() {
+						company.orderTrades(market);
+					}
+				}));
+			}
+
+			// wait for every company to finish
+			for(Future<?> f : orders)
+				f.get();
+
+			// take in each company's orders, and trade, in turn
+			for(ElectricityCompany company : shuffledCompanies) {
+				market.enterIntake(company);
+				market.makeTrades();
+			}
+		}
+		catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Error: interrupted while companies ordered trades", ex);
+		}
+		catch(ExecutionException ex) {
+			throw new IllegalStateException("Error: a company failed to order trades: " + ex.getCause(), ex.getCause());
+		}
+		finally {
+			market.setConcurrentIntake(false);
+		}
+	}
+
+	// demand in a region that its electricity does not cover
+	private static double shortfall(Region region) {
+		return Math.max(0, region.getDemand() - region.getElectricity());
+	}
+
+	/*
+	 * runs an interval for each interval of a demand profile, printing a
+	 * line for each one as it is done
+	 * returns the number of intervals run
+	 *
+	 * Each line gives the interval's number, total demand, demand served,
+	 * shortfall and expenses of all companies, and the average price
+	 * (weighted by demand) if clearing at locational marginal prices, as
+	 * comma-separated values, after a line of headings.
+	 */
+	public int run(DemandProfile profile, PrintStream out) throws IOException {
+		double[] demands = new double[network.getRegionCount()];
+		int count = 0;
+
+		// temporary storage
+		Region tempRegion;
+		double demand;
+		double shortfall;
+		double expenses;
+		double priceTotal;
+
+		out.println("Interval,Demand,Served,Shortfall,Expenses,Price");
+		while(profile.next(demands)) {
+			startInterval(demands);
+			runInterval();
+			++count;
+
+			// add up interval's results
+			demand = 0;
+			shortfall = 0;
+			expenses = 0;
+			priceTotal = 0;
+			for(int r = 0; r < demands.length; ++r) {
+				tempRegion = network.getRegion(r);
+				demand += tempRegion.getDemand();
+				shortfall += shortfall(tempRegion);
+				if(prices != null)
+					priceTotal += prices[r] * tempRegion.getDemand();
+			}
+			for(ElectricityCompany company : companies)
+				expenses += company.getExpenses();
+
+			out.println(intervals + "," + demand + "," + (demand - shortfall) + "," + shortfall + "," + expenses + "," + (prices != null && demand > 0 ? String.valueOf(priceTotal / demand) : ""));
+		}
+		return count;
+	}
+
+	// stops the engine's pools
+	public void shutdown() {
+		if(orderPool != null)
+			orderPool.shutdown();
+		if(routingPool != null)
+			routingPool.shutdown();
+	}
+}
@@ -0,0 +1,166 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Append-only binary journal of the trades made in an auction market
+ *
+ * Every fill is written as a fixed-width record into a memory-mapped file, so
+ * recording a fill is a handful of puts into memory with no system call.
+ * Records are written through a window mapped at the end of the file; when it
+ * is full, it is written out and a window twice as large (up to
+ * MAX_WINDOW_RECORDS records) is mapped after it, so a journal can grow past
+ * what one mapping can hold and is only remapped now and then. The header has
+ * its own mapping. The operating system writes pages back to the file in its
+ * own time; close() forces them out and cuts the file down to the records
+ * written.
+ *
+ * File layout (big-endian):
+ *
+ * header, HEADER_SIZE bytes:
+ *   int magic, int version, int record size, int run count, long record count
+ * records, RECORD_SIZE bytes each:
+ *   long bid order id, long ask order id, double price, double quantity sent,
+ *   int bid region id, int ask region id, long timestamp (ms since the epoch),
+ *   int run number, int unused
+ *
+ * The record count in the header is updated after every record, so a reader
+ * never sees a record that is only partly written. Opening an existing
+ * journal appends to it as a new run: order ids start again in every run, so
+ * a fill is known by its run number and order ids together. Use
+ * TradeJournalReader to read a journal back.
+ *
+ * A journal must only be written by one thread.
+ *
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class TradeJournal implements Closeable {
+	// file format
+	static final int MAGIC = 0x454C544A;
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 24;
+	static final int RECORD_SIZE = 56;
+	static final int RUNS_OFFSET = 12;
+	static final int COUNT_OFFSET = 16;
+
+	// number of records in the first window mapped, and most in any window
+	private static final long INITIAL_RECORDS = 1 << 16;
+	static final long MAX_WINDOW_RECORDS = 1 << 22;
+
+	// file, mapping of its header, and mapping of the window records are written through, which starts at
+	// windowStart in the file and holds windowRecords records
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowRecords = INITIAL_RECORDS / 2;
+
+	// number of records in journal
+	private long count;
+
+	// number of this run, counting from 1 (the run count in the header, once it is opened)
+	private final int run;
+
+	// constructor
+	// opens a journal, making a new one if file does not exist
+	public TradeJournal(Path file) throws IOException {
+		super();
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			if(channel.size() == 0) {
+				// new journal: write header
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, RECORD_SIZE);
+				header.putLong(COUNT_OFFSET, 0);
+				count = 0;
+				run = 1;
+			}
+			else {
+				// existing journal: check header and pick up where it left off
+				if(channel.size() < HEADER_SIZE)
+					throw new IOException("Error: " + file + " is not a trade journal");
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				if(header.getInt(0) != MAGIC)
+					throw new IOException("Error: " + file + " is not a trade journal");
+				if(header.getInt(4) != VERSION)
+					throw new IOException("Error: unsupported trade journal version " + header.getInt(4));
+				if(header.getInt(8) != RECORD_SIZE)
+					throw new IOException("Error: " + file + " is not a trade journal");
+				count = header.getLong(COUNT_OFFSET);
+				if(count < 0 || count > (channel.size() - HEADER_SIZE) / RECORD_SIZE)
+					throw new IOException("Error: " + file + " is damaged: it has room for " + (channel.size() - HEADER_SIZE) / RECORD_SIZE + " records, but its header counts " + count);
+				run = header.getInt(RUNS_OFFSET) + 1;
+			}
+			header.putInt(RUNS_OFFSET, run);
+			moveWindow(HEADER_SIZE + count * RECORD_SIZE);
+		}
+		catch(IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	// number of records in journal
+	public long getCount() {
+		return count;
+	}
+
+	// number of the run fills are recorded as
+	public int getRun() {
+		return run;
+	}
+
+	// records one fill
+	public void record(long bidId, long askId, double price, double quantity, int bidRegion, int askRegion) throws IOException {
+		long position = HEADER_SIZE + count * RECORD_SIZE;
+
+		// if window is full, move it on
+		if(position + RECORD_SIZE > windowStart + window.capacity())
+			moveWindow(position);
+
+		int i = (int)(position - windowStart);
+		window.putLong(i, bidId);
+		window.putLong(i + 8, askId);
+		window.putDouble(i + 16, price);
+		window.putDouble(i + 24, quantity);
+		window.putInt(i + 32, bidRegion);
+		window.putInt(i + 36, askRegion);
+		window.putLong(i + 40, System.currentTimeMillis());
+		window.putInt(i + 48, run);
+
+		// record is complete, so count it
+		++count;
+		header.putLong(COUNT_OFFSET, count);
+	}
+
+	// writes everything out to the file, cuts off the space mapped for records not yet written, and closes it
+	public void close() throws IOException {
+		try {
+			window.force();
+			header.force();
+			channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	// writes out the current window, if any, and maps one twice as large (up to the most) at "position" in file,
+	// growing file if needed
+	private void moveWindow(long position) throws IOException {
+		if(window != null)
+			window.force();
+		windowRecords = Math.min(2 * windowRecords, MAX_WINDOW_RECORDS);
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowRecords * RECORD_SIZE);
+	}
+}
@@ -0,0 +1,158 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Reads a trade journal back, one record at a time (see the TradeJournal
+ * class for the file layout)
+ *
+ * The journal is memory-mapped read-only, so streaming through it copies
+ * nothing: next() moves to the next record, and the accessor methods read
+ * fields of the current record straight from the mapping. Records are mapped
+ * a window of at most TradeJournal.MAX_WINDOW_RECORDS at a time, so a journal
+ * can be larger than one mapping can hold.
+ *
+ * Run as a program, it prints a journal as CSV for settlement audits:
+ *   TradeJournalReader fileName
+ *
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class TradeJournalReader implements Closeable {
+	// file, and mapping of the window of records being read, which starts at windowStart in the file (null before
+	// the first record is read)
+	private final FileChannel channel;
+	private MappedByteBuffer window = null;
+	private long windowStart;
+
+	// number of records in journal
+	private final long count;
+
+	// index of current record, or -1 before the first call to next()
+	private long current = -1;
+
+	// position of current record in window
+	private int position;
+
+	// constructor
+	public TradeJournalReader(Path file) throws IOException {
+		super();
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+
+		try {
+			if(channel.size() < TradeJournal.HEADER_SIZE)
+				throw new IOException("Error: " + file + " is not a trade journal");
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TradeJournal.HEADER_SIZE);
+			if(header.getInt(0) != TradeJournal.MAGIC || header.getInt(8) != TradeJournal.RECORD_SIZE)
+				throw new IOException("Error: " + file + " is not a trade journal");
+			if(header.getInt(4) != TradeJournal.VERSION)
+				throw new IOException("Error: unsupported trade journal version " + header.getInt(4));
+			count = header.getLong(TradeJournal.COUNT_OFFSET);
+			if(count < 0 || count > (channel.size() - TradeJournal.HEADER_SIZE) / TradeJournal.RECORD_SIZE)
+				throw new IOException("Error: " + file + " is damaged: it has room for " + (channel.size() - TradeJournal.HEADER_SIZE) / TradeJournal.RECORD_SIZE + " records, but its header counts " + count);
+		}
+		catch(IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	// number of records in journal
+	public long getCount() {
+		return count;
+	}
+
+	// moves to the next record, mapping the window after the last one if it is past it
+	// returns false if there are no more records
+	public boolean next() throws IOException {
+		if(current + 1 >= count)
+			return false;
+
+		++current;
+		long filePosition = TradeJournal.HEADER_SIZE + current * TradeJournal.RECORD_SIZE;
+		if(window == null || filePosition + TradeJournal.RECORD_SIZE > windowStart + window.capacity()) {
+			windowStart = filePosition;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(TradeJournal.MAX_WINDOW_RECORDS, count - current) * TradeJournal.RECORD_SIZE);
+		}
+		position = (int)(filePosition - windowStart);
+		return true;
+	}
+
+	// accessor methods for current record
+	public long getBidId() {
+		return window.getLong(position);
+	}
+
+	public long getAskId() {
+		return window.getLong(position + 8);
+	}
+
+	public double getPrice() {
+		return window.getDouble(position + 16);
+	}
+
+	public double getQuantity() {
+		return window.getDouble(position + 24);
+	}
+
+	public int getBidRegion() {
+		return window.getInt(position + 32);
+	}
+
+	public int getAskRegion() {
+		return window.getInt(position + 36);
+	}
+
+	public long getTimestamp() {
+		return window.getLong(position + 40);
+	}
+
+	public int getRun() {
+		return window.getInt(position + 48);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// prints a journal as CSV
+	public static void main(String[] args) throws IOException {
+		// check usage
+		if(args.length != 1) {
+			System.out.println("Usage: TradeJournalReader fileName");
+			return;
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+		TradeJournalReader reader = new TradeJournalReader(Paths.get(args[0]));
+		try {
+			out.println("run,bidId,askId,price,quantity,bidRegion,askRegion,timestamp");
+			while(reader.next()) {
+				out.print(reader.getRun());
+				out.print(',');
+				out.print(reader.getBidId());
+				out.print(',');
+				out.print(reader.getAskId());
+				out.print(',');
+				out.print(reader.getPrice());
+				out.print(',');
+				out.print(reader.getQuantity());
+				out.print(',');
+				out.print(reader.getBidRegion());
+				out.print(',');
+				out.print(reader.getAskRegion());
+				out.print(',');
+				out.println(reader.getTimestamp());
+			}
+		}
+		finally {
+			reader.close();
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Sends electricity from one region to another across the network of
+ * transmission lines
+ *
+ * A transfer is a maximum-flow problem: each line can carry current in either
+ * direction up to its capacity, so from region u to region v a line has
+ * capacity - current of free capacity if u is its source, and capacity +
+ * current if u is its sink. The engine runs Dinic's algorithm on those free
+ * capacities: a breadth-first search labels regions by their distance from
+ * the sending region, and depth-first searches then push electricity along
+ * shortest paths until none is left, repeating until the receiving region
+ * can no longer be reached. This takes O(V^2 E) time at worst, whatever the
+ * shape of the network.
+ *
+ * The searches run on the arrays of a TransmissionNetwork, so both regions
+ * must belong to one. Line currents are updated as each path is found; the
+ * regions' electricity is updated once, when the transfer is done. Regions
+ * in between end up with as much electricity as they started with.
+ *
+ * Transfers that cannot succeed are turned down before any search, in O(1):
+ * using the network's island labels and counts of lines with free capacity,
+ * the ranks of regions in the residual network (see the TransmissionNetwork
+ * class), and the last search that failed: the regions it reached have no
+ * free capacity leading out of them, so until a current changes, none of
+ * them can send anything to a region outside them. The engine ranks an
+ * island, with Tarjan's algorithm, when its ranks are needed and an arc in
+ * it has opened since they were computed, and after a search in it fails,
+ * if an arc has filled up since, so that the cut that stopped the search is
+ * in the ranks. Either way ranking costs O(V + E) for the island, no more
+ * than the search that called for it. Ranks only show which regions cannot
+ * reach which through arcs with any free capacity at all, so a transfer
+ * blocked by lines with less free capacity than the engine bothers with
+ * is only turned down once a search has found the cut.
+ *
+ * The engine keeps its search state in arrays of its own, stamped with the
+ * number of the search that wrote it: state with an older stamp counts as
+ * cleared, so starting a new search costs O(1) however much of the network
+ * the last one reached. The engine must only be used by one thread at a
+ * time.
+ *
+ * The engine counts the searches, regions and paths each transfer takes,
+ * and adds them to its RoutingMetrics, if it has any, when the transfer
+ * ends. Each transfer is also recorded as a TransferEvent.
+ *
+ */
+
+import java.util.Arrays;
+
+public class TransferEngine {
+	// network being searched
+	private TransmissionNetwork network;
+
+	// number of current search, and number of the search that last labeled each region
+	// a region has been reached by the current search only if its stamp is the current epoch
+	private int epoch = 0;
+	private int[] stamp = new int[0];
+
+	// distance of each region from sending region, and next arc to try, for regions reached by current search
+	private int[] level = new int[0];
+	private int[] cursor = new int[0];
+
+	// queue for breadth-first search; every region reached by a search is put in it
+	private int[] queue = new int[0];
+	private int queueEnd = 0;
+
+	// stack of arcs on the path being followed by push(), and regions they leave from
+	private int[] pathArcs = new int[0];
+	private int[] pathRegions = new int[0];
+
+	// lowest discovery number each region reached by rankIsland() leads back to
+	private int[] low = new int[0];
+
+	// amounts of free capacity smaller than this are treated as 0
+	private double tolerance;
+
+	// regions reached by the last search that failed, marked with cutStamp
+	// valid while version of their island is cutVersion, for tolerances of at least cutTolerance
+	private int[] cut = new int[0];
+	private int cutStamp = 0;
+	private long cutVersion = -1;
+	private double cutTolerance;
+
+	// metrics to add each transfer to, or null
+	private RoutingMetrics metrics;
+
+	// work done by the transfer in progress: searches, regions they reached, full arcs they found, steps along paths, and paths pushed
+	private int searchCount;
+	private int visitedCount;
+	private int blockedCount;
+	private int stepCount;
+	private int pathCount;
+
+	// constructor
+	public TransferEngine() {
+		super();
+	}
+
+	public RoutingMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(RoutingMetrics m) {
+		metrics = m;
+	}
+
+	// sends as much as possible of a given quantity of electricity from origin to destination
+	// origin can send no more than its surplus (electricity minus demand), so it never sells electricity its own
+	// demand needs; the routing this engine replaced only kept it from sending more than its electricity
+	// returns the amount of electricity sent
+	public double transfer(Region origin, Region destination, double quantity) {
+		// a region does not need to send electricity to itself
+		if(origin == destination)
+			return 0;
+
+		// amount to send
+		double limit = Math.min(quantity, origin.getElectricity() - origin.getDemand());
+		if(limit <= 0)
+			return 0;
+		tolerance = 16 * Math.ulp(limit);
+
+		if(origin.network == null || origin.network != destination.network)
+			throw new IllegalStateException("Error: regions are not part of the same transmission network");
+		setNetwork(origin.network);
+
+		int s = origin.getId();
+		int t = destination.getId();
+		double sent = 0;
+		double pushed;
+
+		// turn down transfers that cannot succeed
+		if(!network.mightReach(s, t) || !mightReachByRank(s, t) || isCut(s, t)) {
+			if(metrics != null)
+				metrics.recordTurnedDown(limit);
+			return 0;
+		}
+
+		// start counting
+		TransferEvent event = new TransferEvent();
+		event.begin();
+		long started = metrics != null ? System.nanoTime() : 0;
+		searchCount = 0;
+		visitedCount = 0;
+		blockedCount = 0;
+		stepCount = 0;
+		pathCount = 0;
+
+		// while destination can be reached, push electricity along shortest paths
+		boolean cutOff = false;
+		while(limit - sent > tolerance) {
+			if(!labelRegions(s, t)) {
+				rememberCut();
+				cutOff = true;
+				break;
+			}
+			do {
+				pushed = push(s, t, limit - sent);
+				sent += pushed;
+			}
+			while(pushed > tolerance && limit - sent > tolerance);
+		}
+		clearLabels();
+
+		// a cut stopped the search, so rank the island again if arcs have filled up since it was ranked
+		if(cutOff && !network.isRankedSharply(s))
+			rankIsland(s);
+
+		// record transfer
+		if(metrics != null)
+			metrics.recordTransfer(limit, sent, searchCount, visitedCount, blockedCount, stepCount, pathCount, System.nanoTime() - started);
+		event.end();
+		if(event.shouldCommit()) {
+			event.origin = s;
+			event.destination = t;
+			event.requested = limit;
+			event.sent = sent;
+			event.searches = searchCount;
+			event.regionsVisited = visitedCount;
+			event.paths = pathCount;
+			event.commit();
+		}
+
+		// move electricity from origin to destination
+		if(sent > 0) {
+			origin.changeElectricity(-1*sent);
+			destination.changeElectricity(sent);
+		}
+
+		return sent;
+	}
+
+	// switches to a network, making room for its regions
+	private void setNetwork(TransmissionNetwork n) {
+		if(network == n)
+			return;
+
+		network = n;
+		int size = n.getRegionCount();
+		if(level.length < size) {
+			stamp = new int[size];
+			level = new int[size];
+			cursor = new int[size];
+			queue = new int[size];
+			pathArcs = new int[size];
+			pathRegions = new int[size];
+			low = new int[size];
+			cut = new int[size];
+		}
+		queueEnd = 0;
+		cutVersion = -1;
+	}
+
+	// whether the ranks of origin's island allow it to reach destination, ranking the island first if they are stale
+	private boolean mightReachByRank(int origin, int destination) {
+		if(!network.isRanked(origin))
+			rankIsland(origin);
+		return network.rank[destination] <= network.rank[origin];
+	}
+
+	/*
+	 * ranks the regions of a region's island in the residual network
+	 * 
+	 * Tarjan's algorithm finds the strongly connected components of the
+	 * graph of arcs with free capacity, and completes each one only after
+	 * every component it can reach, so numbering components in the order
+	 * they are completed gives each region a rank no lower than that of any
+	 * region it can reach. The depth-first search is kept on an explicit
+	 * stack: pathRegions holds the regions being searched from, with cursor
+	 * pointing at the next arc of each to try, and queue holds the regions
+	 * not yet put into a component. level holds the order in which regions
+	 * were discovered, set to Integer.MAX_VALUE once a region is in a
+	 * component, so it no longer lowers the low number of others.
+	 */
+	private void rankIsland(int region) {
+		clearLabels();
+
+		// temporary storage
+		int[] offsets = network.offsets;
+		int[] heads = network.heads;
+		int[] members = network.members;
+		int[] rank = network.rank;
+		int root = network.island[region];
+		int discovered = 0;
+		int components = 0;
+		int depth = 0;
+		int tempRegion;
+		int otherRegion;
+		int a;
+
+		for(int i = network.memberStarts[root]; i < network.memberStarts[root + 1]; ++i) {
+			if(stamp[members[i]] == epoch)
+				continue;
+
+			// discover first region of a new search
+			tempRegion = members[i];
+			stamp[tempRegion] = epoch;
+			level[tempRegion] = low[tempRegion] = discovered++;
+			cursor[tempRegion] = offsets[tempRegion];
+			queue[queueEnd++] = tempRegion;
+			pathRegions[depth++] = tempRegion;
+
+			while(depth > 0) {
+				tempRegion = pathRegions[depth - 1];
+
+				// try next arc with free capacity
+				if(cursor[tempRegion] < offsets[tempRegion + 1]) {
+					a = cursor[tempRegion]++;
+					if(network.freeCapacity(a) <= 0)
+						continue;
+					otherRegion = heads[a];
+
+					// discover region it leads to, or lower this region's low number to it
+					if(stamp[otherRegion] != epoch) {
+						stamp[otherRegion] = epoch;
+						level[otherRegion] = low[otherRegion] = discovered++;
+						cursor[otherRegion] = offsets[otherRegion];
+						queue[queueEnd++] = otherRegion;
+						pathRegions[depth++] = otherRegion;
+					}
+					else
+						low[tempRegion] = Math.min(low[tempRegion], level[otherRegion]);
+					continue;
+				}
+
+				// every arc has been tried, so go back a step
+				--depth;
+
+				// if region leads back to nothing discovered before it, it and the regions after it make a component
+				if(low[tempRegion] == level[tempRegion]) {
+					do {
+						otherRegion = queue[--queueEnd];
+						rank[otherRegion] = components;
+						level[otherRegion] = Integer.MAX_VALUE;
+					}
+					while(otherRegion != tempRegion);
+					++components;
+				}
+				if(depth > 0)
+					low[pathRegions[depth - 1]] = Math.min(low[pathRegions[depth - 1]], low[tempRegion]);
+			}
+		}
+
+		clearLabels();
+		network.setRanked(region);
+	}
+
+	// whether the last failed search shows that origin cannot reach destination
+	private boolean isCut(int origin, int destination) {
+		return cutVersion == network.getVersion(origin) && tolerance >= cutTolerance && cut[origin] == cutStamp && cut[destination] != cutStamp;
+	}
+
+	// marks the regions reached by a search that failed
+	private void rememberCut() {
+		// on overflow, start stamps over
+		if(cutStamp == Integer.MAX_VALUE) {
+			Arrays.fill(cut, 0);
+			cutStamp = 0;
+		}
+		++cutStamp;
+
+		for(int i = 0; i < queueEnd; ++i)
+			cut[queue[i]] = cutStamp;
+		cutVersion = network.getVersion(queue[0]);
+		cutTolerance = tolerance;
+	}
+
+	// labels each region reachable from origin through lines with free capacity by its distance from origin
+	// returns whether destination was reached
+	private boolean labelRegions(int origin, int destination) {
+		clearLabels();
+
+		// temporary storage
+		int tempRegion;
+		int depth = -1;
+		int otherRegion;
+		int end;
+		int[] offsets = network.offsets;
+		int[] heads = network.heads;
+
+		stamp[origin] = epoch;
+		level[origin] = 0;
+		cursor[origin] = offsets[origin];
+		queue[queueEnd++] = origin;
+
+		for(int head = 0; head < queueEnd; ++head) {
+			tempRegion = queue[head];
+
+			// regions further away than destination are not on a shortest path
+			if(depth >= 0 && level[tempRegion] >= depth)
+				continue;
+
+			end = offsets[tempRegion + 1];
+			for(int a = offsets[tempRegion]; a < end; ++a) {
+				otherRegion = heads[a];
+
+				// label other region if it is new and line can carry current to it
+				if(stamp[otherRegion] != epoch) {
+					if(network.freeCapacity(a) <= tolerance) {
+						++blockedCount;
+						continue;
+					}
+					stamp[otherRegion] = epoch;
+					level[otherRegion] = level[tempRegion] + 1;
+					cursor[otherRegion] = offsets[otherRegion];
+					queue[queueEnd++] = otherRegion;
+					if(otherRegion == destination)
+						depth = level[otherRegion];
+				}
+			}
+		}
+
+		++searchCount;
+		visitedCount += queueEnd;
+		return depth >= 0;
+	}
+
+	// pushes up to "amount" of electricity from origin to destination along one shortest path
+	// the path is followed with an explicit stack rather than recursion, so its length is not
+	// limited by the size of the thread's stack
+	// returns the amount pushed
+	private double push(int origin, int destination, double amount) {
+		// temporary storage
+		int[] offsets = network.offsets;
+		int[] heads = network.heads;
+		int region = origin;
+		int depth = 0;
+		int otherRegion;
+		int a;
+		double pushed;
+
+		while(true) {
+			// destination reached: send bottleneck amount along path
+			if(region == destination) {
+				pushed = amount;
+				for(int i = 0; i < depth; ++i)
+					pushed = Math.min(pushed, network.freeCapacity(pathArcs[i]));
+				for(int i = 0; i < depth; ++i)
+					network.addCurrent(pathArcs[i], pushed);
+				++pathCount;
+				if(metrics != null)
+					recordPath(depth);
+				return pushed;
+			}
+
+			// try region's arcs, picking up where the last push left off
+			for(; cursor[region] < offsets[region + 1]; ++cursor[region]) {
+				a = cursor[region];
+				otherRegion = heads[a];
+
+				// arc must lead one step further from origin, and have free capacity
+				if(stamp[otherRegion] == epoch && level[otherRegion] == level[region] + 1 && network.freeCapacity(a) > tolerance)
+					break;
+			}
+
+			// advance along arc
+			if(cursor[region] < offsets[region + 1]) {
+				pathRegions[depth] = region;
+				pathArcs[depth++] = cursor[region];
+				region = heads[cursor[region]];
+				++stepCount;
+			}
+			// else no path to destination from here, so go back a step and try the next arc from there
+			else {
+				if(depth == 0)
+					return 0;
+				region = pathRegions[--depth];
+				++cursor[region];
+				++stepCount;
+			}
+		}
+	}
+
+	// records the lines of the path just pushed, and which of them it filled, in the metrics
+	private void recordPath(int depth) {
+		if(metrics.getNetwork() != network)
+			return;
+		for(int i = 0; i < depth; ++i)
+			metrics.recordLineUse(network.arcs[pathArcs[i]] >>> 1, network.freeCapacity(pathArcs[i]) <= tolerance);
+	}
+
+	// clears labels from every region labeled by the last search, by starting a new epoch
+	private void clearLabels() {
+		// on overflow, start stamps over
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			epoch = 0;
+		}
+		++epoch;
+		queueEnd = 0;
+	}
+}
@@ -0,0 +1,56 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Java Flight Recorder event for one transfer of electricity by a
+ * TransferEngine
+ *
+ * The event is disabled unless a recording turns it on (e.g., with
+ * -XX:StartFlightRecording, or by name in a .jfc settings file), and then
+ * costs next to nothing. A recording shows how long each transfer took and
+ * between which regions, so the transfers that dominate a slow run can be
+ * picked out, e.g., with "jfr print --events com.goodeast.economics.Transfer".
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.goodeast.economics.Transfer")
+@Label("Electricity Transfer")
+@Category({"Electricity Market", "Routing"})
+@Description("Transfer of electricity from one region to another across transmission lines")
+public class TransferEvent extends Event {
+	@Label("Origin")
+	@Description("Number of the region sending electricity")
+	int origin;
+
+	@Label("Destination")
+	@Description("Number of the region receiving electricity")
+	int destination;
+
+	@Label("Requested")
+	@Description("Electricity asked for")
+	double requested;
+
+	@Label("Sent")
+	@Description("Electricity that reached the destination")
+	double sent;
+
+	@Label("Searches")
+	@Description("Breadth-first searches of the network")
+	int searches;
+
+	@Label("Regions Visited")
+	@Description("Regions reached by the searches, counted once per search")
+	int regionsVisited;
+
+	@Label("Paths")
+	@Description("Paths that electricity was pushed along")
+	int paths;
+}
@@ -0,0 +1,395 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Frozen, array-based copy of the network of regions and transmission lines
+ *
+ * Once the input has been parsed, the network is built in compressed sparse
+ * row (CSR) form: regions are numbered 0 to n - 1 and lines 0 to m - 1, and
+ * every line becomes two arcs, one leaving each end. The arcs leaving region
+ * r are arcs offsets[r] to offsets[r + 1] - 1; for arc a, heads[a] is the
+ * region it leads to, and arcs[a] is its line's number times 2, plus 1 if
+ * the arc runs from the line's sink to its source. Capacities and currents
+ * are kept in double arrays indexed by line number, so graph walks touch a
+ * few flat arrays instead of chasing objects.
+ *
+ * The network also keeps an index of which regions can possibly reach which,
+ * so routing can turn down hopeless transfers without searching: regions
+ * joined by lines with capacity are labeled with the same island (found by
+ * union-find when the network is built), and each region counts the arcs
+ * leaving and entering it that have free capacity. The counts are updated as
+ * currents change, in O(1) per change, and every change bumps a version
+ * number for the line's island so that searches cached elsewhere know when
+ * they have gone stale. Since islands share no lines, currents in different
+ * islands may be changed from different threads at once.
+ *
+ * On top of that, each region has a rank in the residual network, i.e., the
+ * graph of arcs with free capacity: its strongly connected components are
+ * numbered so that a region can only reach regions of the same or a lower
+ * rank (see TransferEngine.rankIsland(), which computes them). Ranks are
+ * computed for one island at a time, and kept until an arc in the island
+ * opens (its free capacity rises above 0): an arc filling up only takes away
+ * paths, so ranks computed with it are still right, if less sharp. Each
+ * island counts the times an arc in it opened, and the times one opened or
+ * filled up, so it is known when its ranks are stale, and when they could be
+ * sharper.
+ *
+ * While a region or line belongs to a network, the network's arrays are the
+ * record of the line's current (see the TransmissionLine class). Lines added
+ * to regions after the network is built are not part of it.
+ *
+ */
+
+import java.util.*;
+
+public class TransmissionNetwork {
+	// regions and lines, by number
+	final Region[] regions;
+	final TransmissionLine[] lines;
+
+	// arcs leaving each region: offsets[r] to offsets[r + 1] - 1
+	final int[] offsets;
+
+	// region each arc leads to
+	final int[] heads;
+
+	// line number * 2 for each arc, plus 1 if arc runs from sink to source
+	final int[] arcs;
+
+	// capacity of each line, and current from source to sink (negative if from sink to source)
+	final double[] capacity;
+	final double[] current;
+
+	// island of each region: two regions are in the same island if lines with capacity join them
+	final int[] island;
+
+	// number of arcs leaving and entering each region that have free capacity
+	final int[] openOut;
+	final int[] openIn;
+
+	// number of times a current has changed in each island, by the region that labels it
+	private final long[] versions;
+
+	// regions of each island, grouped by island: regions of the island labeled by region r
+	// are members[memberStarts[r]] to members[memberStarts[r + 1] - 1]
+	final int[] members;
+	final int[] memberStarts;
+
+	// rank of each region in the residual network, as last computed for its island
+	final int[] rank;
+
+	// number of times an arc in each island opened or filled up, and number of times one opened,
+	// by the region that labels it
+	private final long[] shapes;
+	private final long[] openings;
+
+	// values of those counts when each island was last ranked, or -1 if it never has been
+	private final long[] rankedShapes;
+	private final long[] rankedOpenings;
+
+	// stack of region numbers for walks of the network (see Region.checkVicinity()), one for each thread
+	// a walk puts each arc's head on the stack at most once, so the stack never needs to grow
+	private final ThreadLocal<int[]> walkStacks = new ThreadLocal<int[]>();
+
+	// constructor
+	// numbers regions and lines in the order given, and builds the arcs
+	public TransmissionNetwork(List<Region> regionList, List<TransmissionLine> lineList) {
+		super();
+		int n = regionList.size();
+		int m = lineList.size();
+
+		regions = regionList.toArray(new Region[n]);
+		lines = lineList.toArray(new TransmissionLine[m]);
+		offsets = new int[n + 1];
+		heads = new int[2 * m];
+		arcs = new int[2 * m];
+		capacity = new double[m];
+		current = new double[m];
+		island = new int[n];
+		openOut = new int[n];
+		openIn = new int[n];
+		versions = new long[n];
+		members = new int[n];
+		memberStarts = new int[n + 1];
+		rank = new int[n];
+		shapes = new long[n];
+		openings = new long[n];
+		rankedShapes = new long[n];
+		rankedOpenings = new long[n];
+		Arrays.fill(rankedShapes, -1);
+		Arrays.fill(rankedOpenings, -1);
+
+		// number regions
+		for(int r = 0; r < n; ++r) {
+			regions[r].setId(r);
+			regions[r].network = this;
+		}
+
+		// count arcs leaving each region
+		TransmissionLine tempLine;
+		for(int l = 0; l < m; ++l) {
+			tempLine = lines[l];
+			if(tempLine.getSource().network != this || tempLine.getSink().network != this)
+				throw new IllegalArgumentException("Error: transmission line " + (l + 1) + " connects a region outside the network");
+			++offsets[tempLine.getSource().getId() + 1];
+			++offsets[tempLine.getSink().getId() + 1];
+		}
+		for(int r = 0; r < n; ++r)
+			offsets[r + 1] += offsets[r];
+
+		// fill in arcs, keeping each region's arcs in the order its lines were given
+		int[] next = Arrays.copyOf(offsets, n);
+		int from, to;
+		for(int l = 0; l < m; ++l) {
+			tempLine = lines[l];
+			from = tempLine.getSource().getId();
+			to = tempLine.getSink().getId();
+
+			heads[next[from]] = to;
+			arcs[next[from]++] = 2 * l;
+			heads[next[to]] = from;
+			arcs[next[to]++] = 2 * l + 1;
+
+			// line's current is kept by network from now on
+			capacity[l] = tempLine.getCapacity();
+			current[l] = tempLine.getCurrent();
+			tempLine.network = this;
+			tempLine.index = l;
+
+			// count arcs with free capacity
+			if(capacity[l] - current[l] > 0) {
+				++openOut[from];
+				++openIn[to];
+			}
+			if(capacity[l] + current[l] > 0) {
+				++openOut[to];
+				++openIn[from];
+			}
+		}
+
+		// join regions into islands along lines with capacity
+		for(int r = 0; r < n; ++r)
+			island[r] = r;
+		for(int l = 0; l < m; ++l) {
+			if(capacity[l] > 0) {
+				from = findIsland(lines[l].getSource().getId());
+				to = findIsland(lines[l].getSink().getId());
+				if(from != to)
+					island[Math.max(from, to)] = Math.min(from, to);
+			}
+		}
+		for(int r = 0; r < n; ++r)
+			island[r] = findIsland(r);
+
+		// group regions by island
+		for(int r = 0; r < n; ++r)
+			++memberStarts[island[r] + 1];
+		for(int r = 0; r < n; ++r)
+			memberStarts[r + 1] += memberStarts[r];
+		next = Arrays.copyOf(memberStarts, n);
+		for(int r = 0; r < n; ++r)
+			members[next[island[r]]++] = r;
+	}
+
+	// constructor
+	// numbers regions and lines in the order given, sharing the arcs and islands of a network built
+	// from lines with the same ends and capacities, so only currents and counts are new
+	TransmissionNetwork(TransmissionNetwork topology, Region[] regionArray, TransmissionLine[] lineArray) {
+		super();
+		int n = regionArray.length;
+		int m = lineArray.length;
+		if(n != topology.regions.length || m != topology.lines.length)
+			throw new IllegalArgumentException("Error: network does not have the topology it is to share");
+
+		regions = regionArray;
+		lines = lineArray;
+		offsets = topology.offsets;
+		heads = topology.heads;
+		arcs = topology.arcs;
+		capacity = topology.capacity;
+		island = topology.island;
+		members = topology.members;
+		memberStarts = topology.memberStarts;
+		current = new double[m];
+		openOut = new int[n];
+		openIn = new int[n];
+		versions = new long[n];
+		rank = new int[n];
+		shapes = new long[n];
+		openings = new long[n];
+		rankedShapes = new long[n];
+		rankedOpenings = new long[n];
+		Arrays.fill(rankedShapes, -1);
+		Arrays.fill(rankedOpenings, -1);
+
+		// number regions
+		for(int r = 0; r < n; ++r) {
+			regions[r].setId(r);
+			regions[r].network = this;
+		}
+
+		// temporary storage
+		TransmissionLine tempLine;
+		int from, to;
+
+		for(int l = 0; l < m; ++l) {
+			tempLine = lines[l];
+			from = tempLine.getSource().getId();
+			to = tempLine.getSink().getId();
+			if(tempLine.getSource().network != this || tempLine.getSink().network != this
+					|| from != topology.lines[l].getSource().getId() || to != topology.lines[l].getSink().getId()
+					|| tempLine.getCapacity() != capacity[l])
+				throw new IllegalArgumentException("Error: transmission line " + (l + 1) + " does not match the topology it is to share");
+
+			// line's current is kept by network from now on
+			current[l] = tempLine.getCurrent();
+			tempLine.network = this;
+			tempLine.index = l;
+
+			// count arcs with free capacity
+			if(capacity[l] - current[l] > 0) {
+				++openOut[from];
+				++openIn[to];
+			}
+			if(capacity[l] + current[l] > 0) {
+				++openOut[to];
+				++openIn[from];
+			}
+		}
+	}
+
+	// finds the region that labels a region's island, halving the path to it on the way
+	private int findIsland(int r) {
+		while(island[r] != r) {
+			island[r] = island[island[r]];
+			r = island[r];
+		}
+		return r;
+	}
+
+	// builds the network for every region of every company, in order, and a list of lines
+	public static TransmissionNetwork build(List<ElectricityCompany> companies, List<TransmissionLine> lineList) {
+		List<Region> regionList = new ArrayList<Region>();
+		Iterator<ElectricityCompany> companyItr = companies.iterator();
+		while(companyItr.hasNext())
+			regionList.addAll(companyItr.next().regions);
+		return new TransmissionNetwork(regionList, lineList);
+	}
+
+	// accessor methods
+	public int getRegionCount() {
+		return regions.length;
+	}
+
+	public Region getRegion(int r) {
+		return regions[r];
+	}
+
+	public int getLineCount() {
+		return lines.length;
+	}
+
+	public TransmissionLine getLine(int l) {
+		return lines[l];
+	}
+
+	// number of times a current has changed in a region's island
+	public long getVersion(int r) {
+		return versions[island[r]];
+	}
+
+	// stack for a walk of the network on the calling thread, made the first time the thread asks for it
+	int[] getWalkStack() {
+		int[] stack = walkStacks.get();
+		if(stack == null) {
+			stack = new int[heads.length];
+			walkStacks.set(stack);
+		}
+		return stack;
+	}
+
+	// whether a transfer from one region to another could possibly succeed, judging by islands and counts alone
+	// false means it cannot: the regions are in different islands, or every line out of
+	// the first region or into the second is full in that direction
+	public boolean mightReach(int from, int to) {
+		return island[from] == island[to] && openOut[from] > 0 && openIn[to] > 0;
+	}
+
+	// whether the ranks of a region's island are up to date, i.e., no arc in it has opened since it was ranked
+	// while they are, a region cannot reach a region of higher rank
+	public boolean isRanked(int r) {
+		return rankedOpenings[island[r]] == openings[island[r]];
+	}
+
+	// whether no arc in a region's island has opened or filled up since it was ranked
+	public boolean isRankedSharply(int r) {
+		return rankedShapes[island[r]] == shapes[island[r]];
+	}
+
+	// records that a region's island has just been ranked
+	void setRanked(int r) {
+		rankedShapes[island[r]] = shapes[island[r]];
+		rankedOpenings[island[r]] = openings[island[r]];
+	}
+
+	// free capacity of an arc, i.e., how much more current its line can carry in the arc's direction
+	public double freeCapacity(int arc) {
+		int l = arcs[arc] >>> 1;
+		if((arcs[arc] & 1) == 0)
+			return capacity[l] - current[l];
+		else
+			return capacity[l] + current[l];
+	}
+
+	// adds current to an arc's line in the arc's direction
+	public void addCurrent(int arc, double amount) {
+		int l = arcs[arc] >>> 1;
+		if((arcs[arc] & 1) == 0)
+			setCurrent(l, current[l] + amount);
+		else
+			setCurrent(l, current[l] - amount);
+	}
+
+	// sets a line's current, keeping counts of arcs with free capacity up to date
+	void setCurrent(int l, double amount) {
+		int from = lines[l].getSource().getId();
+		int to = lines[l].getSink().getId();
+		boolean forwardOpen = capacity[l] - current[l] > 0;
+		boolean backwardOpen = capacity[l] + current[l] > 0;
+
+		current[l] = amount;
+		++versions[island[from]];
+		if(island[to] != island[from])
+			++versions[island[to]];
+
+		// arc from source to sink opened or filled up
+		if(forwardOpen != capacity[l] - amount > 0) {
+			++shapes[island[from]];
+			if(forwardOpen) {
+				--openOut[from];
+				--openIn[to];
+			}
+			else {
+				++openOut[from];
+				++openIn[to];
+				++openings[island[from]];
+			}
+		}
+
+		// arc from sink to source opened or filled up
+		if(backwardOpen != capacity[l] + amount > 0) {
+			++shapes[island[to]];
+			if(backwardOpen) {
+				--openOut[to];
+				--openIn[from];
+			}
+			else {
+				++openOut[to];
+				++openIn[from];
+				++openings[island[to]];
+			}
+		}
+	}
+}
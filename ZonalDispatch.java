@@ -0,0 +1,595 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Clears the market at locational marginal prices zone by zone, with the
+ * zones solved in parallel
+ *
+ * The network is split into zones by a ZonePartitioner, and each zone gets a
+ * NodalDispatch of its own, in which the tie lines to other zones carry fixed
+ * flows. First, all zones are solved at once on a fork-join pool, with
+ * nothing flowing between them. Each zone's solve takes the time of a nodal
+ * dispatch of the zone, so with z zones on z cores this takes about 1/z of
+ * the time of a nodal dispatch of the whole network, or less, since min-cost
+ * flow grows faster than linearly with size.
+ *
+ * Then electricity is exchanged between zones at prices found across the
+ * whole network, as a NodalDispatch finds them: the price of a region is the
+ * cheapest way to get one more unit there by running a plant harder or
+ * serving less load in any region that reaches it over lines with free
+ * capacity, tie lines included. Wherever one more unit would be worth more
+ * (by serving load or turning a plant down) than its price, it is got where
+ * its price came from and sent there along the way it was priced, by as much
+ * as can go that way, and prices are found again. These moves are made to the
+ * zones' flows where they stand, tie lines included, so zones are never
+ * solved again, and every tie line's flow is always all used at both ends, so
+ * electricity is conserved. Each move gets and uses electricity at the
+ * prices found, so it raises welfare, and the moves are those of a
+ * successive-shortest-path min-cost flow started from the zones' solutions:
+ * prices only rise, and each round of moves fills a line or uses up a way to
+ * get or use electricity at some price. When no region gains, the dispatch is
+ * as good as a NodalDispatch of the whole network, its prices are the same
+ * (the cheapest way to get one more unit does not depend on which best
+ * dispatch is found), and the dispatch has converged. If it has not after
+ * MAX_ROUNDS rounds of moves, it is a feasible dispatch but not necessarily
+ * the best one, and its prices are those of the whole network for that
+ * dispatch. Either way, zones settle at those prices.
+ *
+ * A zonal dispatch must only be used by one thread at a time.
+ *
+ */
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ZonalDispatch {
+	// most rounds of moves across zones
+	public static final int MAX_ROUNDS = 10000;
+
+	// network being dispatched
+	private final TransmissionNetwork network;
+
+	// pool on which zones are solved
+	private final ForkJoinPool pool;
+
+	// zone of each region, by region number, and dispatch of each zone
+	private final int[] zoneOf;
+	private final NodalDispatch[] zones;
+
+	// tie lines, by line number, and each one's place in the tie lists of the zones at its source and sink
+	private final int[] ties;
+	private final int[] sourceTies;
+	private final int[] sinkTies;
+
+	// flow on each tie line from source to sink
+	private final double[] flows;
+
+	// differences in price smaller than this are treated as 0, and free capacity of lines smaller than this
+	private final double priceTolerance;
+	private final double capacityTolerance;
+
+	// tie number of each line, or -1 if it is not a tie line
+	private final int[] tieOf;
+
+	// for prices across zones: current on each line, each region's price and the region it came from (-1 if none
+	// yet), and whether it cannot get any more electricity at all
+	private final double[] currents;
+	private final double[] prices;
+	private final int[] origins;
+	private final boolean[] unreached;
+
+	// cheapest way to get one more unit of electricity in each region from the region itself and how much can be
+	// had that way, and best use for it there and how much can be used that way (see NodalDispatch.getLocalCost()
+	// and getLocalValue()); only moves change them, and only where they get or use electricity
+	private final double[] localCosts;
+	private final double[] localSupplies;
+	private final double[] localValues;
+	private final double[] localDemands;
+
+	// regions in order of the cost of getting one more unit there from the region itself, and a queue of regions
+	private final RadixSort sorter = new RadixSort();
+	private final long[] costKeys;
+	private final int[] order;
+	private final int[] queue;
+
+	// number of rounds of moves taken by the last solve, and whether it ended with no move worth making
+	private int rounds;
+	private boolean converged;
+
+	// for moves: what is left to be had in each region at its price, and to be used there at more than its price
+	// (found by findGains()), and levels, cursors and path stack for blocking flows, as in NodalDispatch
+	private final double[] supplyLeft;
+	private final double[] demandLeft;
+	private final int[] levels;
+	private final int[] cursors;
+	private final int[] pathArcs;
+
+	// constructor
+	// splits network into a given number of zones, to be solved on a pool
+	public ZonalDispatch(TransmissionNetwork n, int zoneCount, ForkJoinPool p) {
+		super();
+		network = n;
+		pool = p;
+		zoneOf = new ZonePartitioner(n).partition(zoneCount);
+		zoneCount = 0;
+		for(int r = 0; r < zoneOf.length; ++r)
+			zoneCount = Math.max(zoneCount, zoneOf[r] + 1);
+
+		// find tie lines, and the regions and tie lines of each zone
+		List<List<Integer>> zoneRegions = new ArrayList<List<Integer>>();
+		List<List<Integer>> zoneTies = new ArrayList<List<Integer>>();
+		for(int z = 0; z < zoneCount; ++z) {
+			zoneRegions.add(new ArrayList<Integer>());
+			zoneTies.add(new ArrayList<Integer>());
+		}
+		for(int r = 0; r < zoneOf.length; ++r)
+			zoneRegions.get(zoneOf[r]).add(r);
+		List<Integer> tieList = new ArrayList<Integer>();
+		int sourceZone;
+		int sinkZone;
+		for(int l = 0; l < n.getLineCount(); ++l) {
+			sourceZone = zoneOf[n.getLine(l).getSource().getId()];
+			sinkZone = zoneOf[n.getLine(l).getSink().getId()];
+			if(n.capacity[l] > 0 && sourceZone != sinkZone) {
+				tieList.add(l);
+				zoneTies.get(sourceZone).add(l);
+				zoneTies.get(sinkZone).add(l);
+			}
+		}
+		ties = toArray(tieList);
+		sourceTies = new int[ties.length];
+		sinkTies = new int[ties.length];
+		flows = new double[ties.length];
+
+		// flow out of a zone must be served first, so it is worth more than anything else is worth or costs
+		double largestPrice = 0;
+		for(int r = 0; r < n.getRegionCount(); ++r) {
+			largestPrice = Math.max(largestPrice, n.getRegion(r).getCompany().getMaxPrice());
+			for(PowerPlant tempPlant : n.getRegion(r).powerPlants)
+				largestPrice = Math.max(largestPrice, tempPlant.getMargCost());
+		}
+		double exportValue = 2 * largestPrice + 1;
+		priceTolerance = 1e-9 * exportValue;
+		double largestCapacity = 0;
+		for(int l = 0; l < n.getLineCount(); ++l)
+			largestCapacity = Math.max(largestCapacity, n.capacity[l]);
+		capacityTolerance = 1e-9 * largestCapacity;
+
+		// build each zone's dispatch, and note where each tie line is in the zones' lists
+		zones = new NodalDispatch[zoneCount];
+		tieOf = new int[n.getLineCount()];
+		Arrays.fill(tieOf, -1);
+		for(int t = 0; t < ties.length; ++t)
+			tieOf[ties[t]] = t;
+		List<Integer> tempTies;
+		int t;
+		for(int z = 0; z < zoneCount; ++z) {
+			tempTies = zoneTies.get(z);
+			zones[z] = new NodalDispatch(n, toArray(zoneRegions.get(z)), toArray(tempTies), exportValue);
+			for(int i = 0; i < tempTies.size(); ++i) {
+				t = tieOf[tempTies.get(i)];
+				if(zoneOf[n.getLine(ties[t]).getSource().getId()] == z)
+					sourceTies[t] = i;
+				else
+					sinkTies[t] = i;
+			}
+		}
+
+		currents = new double[n.getLineCount()];
+		prices = new double[n.getRegionCount()];
+		origins = new int[n.getRegionCount()];
+		unreached = new boolean[n.getRegionCount()];
+		localCosts = new double[n.getRegionCount()];
+		localSupplies = new double[n.getRegionCount()];
+		localValues = new double[n.getRegionCount()];
+		localDemands = new double[n.getRegionCount()];
+		costKeys = new long[n.getRegionCount()];
+		order = new int[n.getRegionCount()];
+		queue = new int[n.getRegionCount()];
+		supplyLeft = new double[n.getRegionCount()];
+		demandLeft = new double[n.getRegionCount()];
+		levels = new int[n.getRegionCount()];
+		cursors = new int[n.getRegionCount()];
+		pathArcs = new int[n.getRegionCount()];
+	}
+
+	// copies a list of numbers into an array
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; ++i)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	// finds the dispatch, line currents and prices, exchanging electricity between zones until their prices agree
+	public void solve() {
+		// each zone clears on its own first, with nothing flowing between zones
+		for(int t = 0; t < ties.length; ++t)
+			flows[t] = 0;
+		solveZones();
+		for(int l = 0; l < currents.length; ++l) {
+			if(tieOf[l] >= 0)
+				currents[l] = flows[tieOf[l]];
+			else
+				currents[l] = zones[zoneOf[network.getLine(l).getSource().getId()]].getCurrent(l);
+		}
+		for(int r = 0; r < localCosts.length; ++r)
+			findLocalOptions(r);
+
+		// then, while one more unit of electricity is worth more somewhere than it costs to get there, get it and
+		// move it there along the ways it takes, as far as they go, and find prices again
+		// (ways that can move only a rounding error's worth are as good as none)
+		for(rounds = 0; ; ++rounds) {
+			findPrices();
+			converged = !findGains();
+			if(converged || rounds == MAX_ROUNDS)
+				break;
+			if(!moveAlongGains()) {
+				converged = true;
+				break;
+			}
+		}
+
+		// zones settle at the prices across zones
+		for(int r = 0; r < prices.length; ++r)
+			zones[zoneOf[r]].setPrice(network.getRegion(r), prices[r]);
+	}
+
+	// finds the cheapest way to get more electricity in a region from the region itself, and the best use for it
+	// there, and how much each can take
+	private void findLocalOptions(int r) {
+		NodalDispatch zone = zones[zoneOf[r]];
+		Region region = network.getRegion(r);
+		localCosts[r] = zone.getLocalCost(region, capacityTolerance);
+		localSupplies[r] = zone.getLocalSupply(region, capacityTolerance);
+		localValues[r] = zone.getLocalValue(region, capacityTolerance);
+		localDemands[r] = zone.getLocalDemand(region, capacityTolerance);
+	}
+
+	/*
+	 * finds the price of electricity in every region across zones, as
+	 * NodalDispatch finds it within a zone: the cheapest way to get one more
+	 * unit there, by running a plant harder or serving less load in any region
+	 * that can reach it over lines with free capacity, tie lines included
+	 *
+	 * Lines cost nothing, so a region's price is the cheapest of the ways the
+	 * regions that reach it have on their own. Regions are taken in order of
+	 * that cost, and each one prices the regions it reaches that are not
+	 * priced yet, in a breadth-first search; regions that nothing reaches are
+	 * priced as NodalDispatch.priceShortages() prices them. Currents on lines
+	 * are kept up to date by the moves, so they are not read from the zones.
+	 */
+	private void findPrices() {
+		// temporary storage
+		int regionCount = network.getRegionCount();
+		int queueEnd;
+		int v;
+		int w;
+		double price;
+
+		// take regions in order of their own cheapest way to get one more unit
+		for(int r = 0; r < regionCount; ++r) {
+			costKeys[r] = RadixSort.sortableKey(localCosts[r]);
+			order[r] = r;
+			origins[r] = -1;
+		}
+		sorter.sort(costKeys, order, regionCount);
+		for(int i = 0; i < regionCount; ++i) {
+			v = order[i];
+			price = localCosts[v];
+			if(price == Double.POSITIVE_INFINITY)
+				break;
+			if(origins[v] >= 0)
+				continue;
+
+			// price the regions it reaches that are not priced yet
+			queueEnd = 0;
+			prices[v] = price;
+			origins[v] = v;
+			unreached[v] = false;
+			queue[queueEnd++] = v;
+			for(int j = 0; j < queueEnd; ++j) {
+				v = queue[j];
+				for(int a = network.offsets[v]; a < network.offsets[v + 1]; ++a) {
+					w = network.heads[a];
+					if(origins[w] >= 0 || freeCapacity(a) <= capacityTolerance)
+						continue;
+					prices[w] = price;
+					origins[w] = origins[v];
+					unreached[w] = false;
+					queue[queueEnd++] = w;
+				}
+			}
+		}
+
+		// regions that cannot get any more electricity: such regions joined by lines share a price, the most any of
+		// their companies would pay (they are marked priced with no region they came from)
+		for(int r = 0; r < regionCount; ++r) {
+			if(origins[r] >= 0)
+				continue;
+
+			// collect regions joined to this one
+			queueEnd = 0;
+			origins[r] = r;
+			queue[queueEnd++] = r;
+			price = 0;
+			for(int j = 0; j < queueEnd; ++j) {
+				v = queue[j];
+				price = Math.max(price, network.getRegion(v).getCompany().getMaxPrice());
+				for(int a = network.offsets[v]; a < network.offsets[v + 1]; ++a) {
+					w = network.heads[a];
+					if(origins[w] < 0 && network.capacity[network.arcs[a] >>> 1] > 0) {
+						origins[w] = w;
+						queue[queueEnd++] = w;
+					}
+				}
+			}
+
+			for(int j = 0; j < queueEnd; ++j) {
+				prices[queue[j]] = price;
+				unreached[queue[j]] = true;
+			}
+		}
+	}
+
+	// region an arc of the network leaves
+	private int tail(int a) {
+		TransmissionLine tempLine = network.getLine(network.arcs[a] >>> 1);
+		if((network.arcs[a] & 1) == 0)
+			return tempLine.getSource().getId();
+		return tempLine.getSink().getId();
+	}
+
+	// free capacity of an arc of the network, with currents as the zones and tie lines have them
+	private double freeCapacity(int a) {
+		int l = network.arcs[a] >>> 1;
+		if((network.arcs[a] & 1) == 0)
+			return network.capacity[l] - currents[l];
+		return network.capacity[l] + currents[l];
+	}
+
+	// finds the regions where one more unit of electricity is worth more than it costs (see findPrices()) by more
+	// than the tolerance, and how much can be used in each at that worth
+	// returns whether there are any
+	private boolean findGains() {
+		boolean found = false;
+		for(int r = 0; r < prices.length; ++r) {
+			if(!unreached[r] && localValues[r] - prices[r] > priceTolerance) {
+				demandLeft[r] = localDemands[r];
+				found = true;
+			}
+			else
+				demandLeft[r] = 0;
+		}
+		return found;
+	}
+
+	/*
+	 * gets electricity in regions whose own cheapest way to get it is their
+	 * price, and moves it to the regions found by findGains(), where it is
+	 * used, as much as can go
+	 *
+	 * Electricity goes only along lines with free capacity between regions
+	 * with the same price, where it costs nothing more, so each move gets and
+	 * uses electricity at the prices found and gains. As in NodalDispatch,
+	 * blocking flows send as much as possible along every such way, and
+	 * zones' flows and flows on tie lines are changed in place.
+	 */
+	// returns whether any moved, i.e., by more than a rounding error
+	private boolean moveAlongGains() {
+		// temporary storage
+		int rootCount;
+		int u;
+		boolean moved = false;
+
+		// what can be had at each region's price
+		for(int r = 0; r < prices.length; ++r) {
+			if(!unreached[r] && localCosts[r] - prices[r] <= priceTolerance)
+				supplyLeft[r] = localSupplies[r];
+			else
+				supplyLeft[r] = 0;
+		}
+
+		while((rootCount = labelLevels()) > 0) {
+			for(int i = 0; i < rootCount; ++i) {
+				u = queue[i];
+				while(supplyLeft[u] > capacityTolerance && push(u))
+					moved = true;
+			}
+		}
+		return moved;
+	}
+
+	// whether electricity can go along an arc of the network in a blocking flow: the line has free capacity, and
+	// the regions at both ends have the same price
+	private boolean admissible(int v, int a) {
+		return freeCapacity(a) > capacityTolerance && Math.abs(prices[network.heads[a]] - prices[v]) <= priceTolerance;
+	}
+
+	// labels regions that can be reached along admissible arcs from regions with electricity to be had by their
+	// distance from the nearest such region, which are put first in queue
+	// returns the number of regions with electricity to be had, or 0 if no region that gains was reached
+	private int labelLevels() {
+		// temporary storage
+		int queueEnd = 0;
+		int rootCount;
+		int v;
+		int w;
+		boolean reached = false;
+
+		Arrays.fill(levels, -1);
+		for(int r = 0; r < prices.length; ++r) {
+			if(supplyLeft[r] > capacityTolerance) {
+				levels[r] = 0;
+				cursors[r] = network.offsets[r];
+				queue[queueEnd++] = r;
+			}
+		}
+		rootCount = queueEnd;
+		for(int i = 0; i < queueEnd; ++i) {
+			v = queue[i];
+			if(demandLeft[v] > capacityTolerance)
+				reached = true;
+			for(int a = network.offsets[v]; a < network.offsets[v + 1]; ++a) {
+				w = network.heads[a];
+				if(levels[w] < 0 && admissible(v, a)) {
+					levels[w] = levels[v] + 1;
+					cursors[w] = network.offsets[w];
+					queue[queueEnd++] = w;
+				}
+			}
+		}
+		return reached ? rootCount : 0;
+	}
+
+	// gets electricity in a region and moves it along one way of admissible arcs that lead one level further to a
+	// region that gains, where it is used, by as much as is left to be had, used, and sent along the way
+	// follows the way with an explicit stack, as NodalDispatch does
+	// returns whether a way was found
+	private boolean push(int u) {
+		// temporary storage
+		int v = u;
+		int depth = 0;
+		int a;
+		int l;
+		double amount;
+		double change;
+
+		while(demandLeft[v] <= capacityTolerance) {
+			// try region's arcs, picking up where the last push left off
+			for(; cursors[v] < network.offsets[v + 1]; ++cursors[v]) {
+				a = cursors[v];
+				if(levels[network.heads[a]] == levels[v] + 1 && admissible(v, a))
+					break;
+			}
+
+			// advance along arc
+			if(cursors[v] < network.offsets[v + 1]) {
+				pathArcs[depth++] = cursors[v];
+				v = network.heads[cursors[v]];
+			}
+			// else no way to a region that gains from here, so go back a step and try the next arc from there
+			else {
+				if(depth == 0)
+					return false;
+				v = tail(pathArcs[--depth]);
+				++cursors[v];
+			}
+		}
+
+		// region that gains reached: send bottleneck amount along way
+		amount = Math.min(supplyLeft[u], demandLeft[v]);
+		for(int i = 0; i < depth; ++i)
+			amount = Math.min(amount, freeCapacity(pathArcs[i]));
+
+		// get it, move it along the way, in the zones or on tie lines, and use it
+		zones[zoneOf[u]].moveLocal(network.getRegion(u), false, amount, capacityTolerance);
+		for(int i = 0; i < depth; ++i) {
+			a = pathArcs[i];
+			l = network.arcs[a] >>> 1;
+			change = (network.arcs[a] & 1) == 0 ? amount : -1 * amount;
+			currents[l] += change;
+			if(tieOf[l] >= 0)
+				moveTieFlow(tieOf[l], currents[l]);
+			else
+				zones[zoneOf[network.heads[a]]].moveCurrent(l, change);
+		}
+		zones[zoneOf[v]].moveLocal(network.getRegion(v), true, amount, capacityTolerance);
+		findLocalOptions(u);
+		findLocalOptions(v);
+		supplyLeft[u] -= amount;
+		demandLeft[v] -= amount;
+		return true;
+	}
+
+	// sets the flow on a tie line in the zones at both its ends
+	private void moveTieFlow(int t, double flow) {
+		flows[t] = flow;
+		sourceZone(t).moveTieFlow(sourceTies[t], flow);
+		sinkZone(t).moveTieFlow(sinkTies[t], flow);
+	}
+
+	// solves every zone, in parallel, with the current flows on tie lines
+	private void solveZones() {
+		for(int t = 0; t < ties.length; ++t) {
+			sourceZone(t).setTieFlow(sourceTies[t], flows[t]);
+			sinkZone(t).setTieFlow(sinkTies[t], flows[t]);
+		}
+
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for(final NodalDispatch zone : zones) {
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					zone.solve();
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	// zones at a tie line's source and sink
+	private NodalDispatch sourceZone(int t) {
+		return zones[zoneOf[network.getLine(ties[t]).getSource().getId()]];
+	}
+
+	private NodalDispatch sinkZone(int t) {
+		return zones[zoneOf[network.getLine(ties[t]).getSink().getId()]];
+	}
+
+	// accessor methods for results of the last solve
+	public int getZoneCount() {
+		return zones.length;
+	}
+
+	public int getZone(Region region) {
+		return zoneOf[region.getId()];
+	}
+
+	public int getTieLineCount() {
+		return ties.length;
+	}
+
+	public int getRounds() {
+		return rounds;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	public double getPrice(Region region) {
+		return prices[region.getId()];
+	}
+
+	public double getWelfare() {
+		double welfare = 0;
+		for(NodalDispatch zone : zones)
+			welfare += zone.getWelfare();
+		return welfare;
+	}
+
+	// current on a tie line, from source to sink, by its place among the tie lines
+	public double getTieFlow(int t) {
+		return flows[t];
+	}
+
+	// puts the results of the last solve into the regions, plants, lines and companies (see NodalDispatch.apply())
+	// zones are applied one at a time, since zones can share companies
+	public void apply() {
+		for(NodalDispatch zone : zones)
+			zone.apply();
+		for(int t = 0; t < ties.length; ++t)
+			network.setCurrent(ties[t], flows[t]);
+	}
+}
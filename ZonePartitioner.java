@@ -0,0 +1,263 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Splits the regions of a transmission network into zones of about equal
+ * size, joined by as few tie lines as it can
+ *
+ * Zones are grown and then refined. Seeds are spread out first: each one is
+ * the region furthest, in lines, from the seeds picked before it. Then every
+ * zone grows breadth-first from its seed, one region at a time, always
+ * growing the smallest zone that can still grow, so zones stay compact and
+ * about the same size. Regions no zone can reach (on other islands) go to
+ * the smallest zone.
+ *
+ * Growing leaves ragged borders, so passes in the manner of Fiduccia and
+ * Mattheyses then move regions on a border to the zone they have the most
+ * lines to, whenever that cuts tie lines and keeps every zone within
+ * IMBALANCE of an even share. Unlike full Fiduccia-Mattheyses, a pass only
+ * makes moves that cut tie lines, and passes stop when one makes no move.
+ * Each pass takes O(V + E) time.
+ *
+ * Only lines with capacity count, since lines without any cannot tie zones
+ * together.
+ *
+ */
+
+import java.util.*;
+
+public class ZonePartitioner {
+	// most a zone may differ from an even share of the regions, as a fraction of that share
+	public static final double IMBALANCE = 0.1;
+
+	// most refinement passes to make
+	public static final int MAX_PASSES = 16;
+
+	// network being partitioned
+	private final TransmissionNetwork network;
+
+	// zone of each region, from the last partition
+	private int[] zones = new int[0];
+
+	// number of regions in each zone
+	private int[] sizes = new int[0];
+
+	// constructor
+	public ZonePartitioner(TransmissionNetwork n) {
+		super();
+		network = n;
+	}
+
+	/*
+	 * splits the network's regions into a given number of zones (fewer if
+	 * there are fewer regions)
+	 * returns the zone of each region, by region number
+	 */
+	public int[] partition(int zoneCount) {
+		int regionCount = network.getRegionCount();
+		if(zoneCount < 1)
+			throw new IllegalArgumentException("Error: number of zones must be positive");
+		zoneCount = Math.max(1, Math.min(zoneCount, regionCount));
+
+		zones = new int[regionCount];
+		sizes = new int[zoneCount];
+		if(zoneCount == 1) {
+			sizes[0] = regionCount;
+			return zones;
+		}
+
+		grow(pickSeeds(zoneCount));
+		refine();
+		return zones;
+	}
+
+	// number of lines with capacity between regions in different zones, for the last partition
+	public int getTieLineCount() {
+		int count = 0;
+		for(int l = 0; l < network.getLineCount(); ++l) {
+			if(network.capacity[l] > 0 && zones[network.getLine(l).getSource().getId()] != zones[network.getLine(l).getSink().getId()])
+				++count;
+		}
+		return count;
+	}
+
+	// picks one seed per zone, each as far as possible from the ones before it
+	private int[] pickSeeds(int zoneCount) {
+		int regionCount = network.getRegionCount();
+		int[] seeds = new int[zoneCount];
+		int[] distance = new int[regionCount];
+		int[] queue = new int[regionCount];
+
+		// first seed: region furthest from region 0, i.e., at one end of the network
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		spread(0, distance, queue);
+		seeds[0] = furthest(distance);
+
+		// each further seed: region furthest from every seed so far
+		// (regions that no seed can reach come first, so each island gets a seed while there are seeds left)
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		for(int z = 1; z < zoneCount; ++z) {
+			spread(seeds[z - 1], distance, queue);
+			seeds[z] = furthest(distance);
+		}
+
+		return seeds;
+	}
+
+	// lowers each region's distance to its distance from a given region, if that is smaller
+	private void spread(int from, int[] distance, int[] queue) {
+		// temporary storage
+		int queueEnd = 0;
+		int region;
+		int otherRegion;
+
+		distance[from] = 0;
+		queue[queueEnd++] = from;
+		for(int head = 0; head < queueEnd; ++head) {
+			region = queue[head];
+			for(int a = network.offsets[region]; a < network.offsets[region + 1]; ++a) {
+				otherRegion = network.heads[a];
+				if(network.capacity[network.arcs[a] >>> 1] > 0 && distance[region] + 1 < distance[otherRegion]) {
+					distance[otherRegion] = distance[region] + 1;
+					queue[queueEnd++] = otherRegion;
+				}
+			}
+		}
+	}
+
+	// region with the greatest distance (the lowest numbered, if there is a tie)
+	private int furthest(int[] distance) {
+		int best = 0;
+		for(int r = 1; r < distance.length; ++r) {
+			if(distance[r] > distance[best])
+				best = r;
+		}
+		return best;
+	}
+
+	// grows zones from their seeds, smallest zone first
+	private void grow(int[] seeds) {
+		int regionCount = network.getRegionCount();
+		int zoneCount = seeds.length;
+
+		// frontier of each zone: regions next to it, in the order they were found
+		List<ArrayDeque<Integer>> frontiers = new ArrayList<ArrayDeque<Integer>>();
+		for(int z = 0; z < zoneCount; ++z)
+			frontiers.add(new ArrayDeque<Integer>());
+		Arrays.fill(zones, -1);
+
+		// temporary storage
+		int assigned = 0;
+		int zone;
+		int region;
+		ArrayDeque<Integer> frontier;
+
+		for(int z = 0; z < zoneCount; ++z)
+			assigned += claim(seeds[z], z, frontiers.get(z));
+
+		while(assigned < regionCount) {
+			// find smallest zone that can still grow, dropping regions that another zone has claimed
+			zone = -1;
+			for(int z = 0; z < zoneCount; ++z) {
+				frontier = frontiers.get(z);
+				while(!frontier.isEmpty() && zones[frontier.peekFirst()] >= 0)
+					frontier.pollFirst();
+				if(!frontier.isEmpty() && (zone < 0 || sizes[z] < sizes[zone]))
+					zone = z;
+			}
+
+			// grow it by one region
+			if(zone >= 0) {
+				assigned += claim(frontiers.get(zone).pollFirst(), zone, frontiers.get(zone));
+			}
+			// else no zone can grow, so the smallest one takes the first region left (on another island)
+			else {
+				zone = 0;
+				for(int z = 1; z < zoneCount; ++z) {
+					if(sizes[z] < sizes[zone])
+						zone = z;
+				}
+				region = 0;
+				while(zones[region] >= 0)
+					++region;
+				assigned += claim(region, zone, frontiers.get(zone));
+			}
+		}
+	}
+
+	// puts a region in a zone, and its neighbors on the zone's frontier
+	// returns the number of regions newly put in a zone
+	private int claim(int region, int zone, ArrayDeque<Integer> frontier) {
+		if(zones[region] >= 0)
+			return 0;
+
+		zones[region] = zone;
+		++sizes[zone];
+		for(int a = network.offsets[region]; a < network.offsets[region + 1]; ++a) {
+			if(network.capacity[network.arcs[a] >>> 1] > 0 && zones[network.heads[a]] < 0)
+				frontier.addLast(network.heads[a]);
+		}
+		return 1;
+	}
+
+	// moves regions on zone borders to cut tie lines, while zones stay within bounds on size
+	private void refine() {
+		int regionCount = network.getRegionCount();
+		int zoneCount = sizes.length;
+		double share = (double) regionCount / zoneCount;
+		int largest = Math.max(1, (int) Math.floor(share * (1 + IMBALANCE)));
+		int smallest = Math.max(1, (int) Math.ceil(share * (1 - IMBALANCE)));
+
+		// lines from the region being looked at to each zone, and zones it has lines to
+		int[] links = new int[zoneCount];
+		int[] touched = new int[zoneCount];
+
+		// temporary storage
+		int touchedCount;
+		int own;
+		int best;
+		int zone;
+		boolean moved = true;
+
+		for(int pass = 0; pass < MAX_PASSES && moved; ++pass) {
+			moved = false;
+			for(int r = 0; r < regionCount; ++r) {
+				own = zones[r];
+
+				// count region's lines to each zone
+				touchedCount = 0;
+				for(int a = network.offsets[r]; a < network.offsets[r + 1]; ++a) {
+					if(network.capacity[network.arcs[a] >>> 1] <= 0 || network.heads[a] == r)
+						continue;
+					zone = zones[network.heads[a]];
+					if(links[zone]++ == 0)
+						touched[touchedCount++] = zone;
+				}
+
+				// find zone it has the most lines to, if moving there cuts tie lines and keeps sizes in bounds
+				best = own;
+				if(sizes[own] > smallest) {
+					for(int i = 0; i < touchedCount; ++i) {
+						zone = touched[i];
+						if(zone != own && links[zone] > links[best] && sizes[zone] < largest)
+							best = zone;
+					}
+				}
+
+				// move region
+				if(best != own) {
+					zones[r] = best;
+					--sizes[own];
+					++sizes[best];
+					moved = true;
+				}
+
+				// clear counts
+				for(int i = 0; i < touchedCount; ++i)
+					links[touched[i]] = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Checks that a model saved in a model file loads as the same model, and that
+ * a damaged model file is turned down
+ *
+ * Models are made up at random and written as input files, read by the
+ * ModelReader, saved and loaded again; every company, region, plant and line
+ * loaded must match the one read, to the bit.
+ *
+ * Run with: java -cp <classes> com.goodeast.economics.ModelFileTest
+ * (see the README); it prints the number of checks that passed, or throws an
+ * AssertionError at the first one that fails.
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class ModelFileTest {
+	// number of checks that have passed
+	private static int checks = 0;
+
+	public static void main(String[] args) throws IOException {
+		Path input = Files.createTempFile("ModelFileTest", ".txt");
+		Path model = Files.createTempFile("ModelFileTest", ".gem");
+		try {
+			Random random = new Random(1);
+			for(int i = 0; i < 200; ++i)
+				loadsAsSaved(input, model, random);
+			damagedFileIsTurnedDown(input, model, random);
+		}
+		finally {
+			Files.delete(input);
+			Files.delete(model);
+		}
+		System.out.println("ModelFileTest: " + checks + " checks passed");
+	}
+
+	// a model read from an input file, saved and loaded again, is the model read
+	private static void loadsAsSaved(Path input, Path model, Random random) throws IOException {
+		Files.write(input, randomInput(random).getBytes(StandardCharsets.ISO_8859_1));
+		ModelReader reader = new ModelReader(input);
+		try {
+			reader.read();
+		}
+		finally {
+			reader.close();
+		}
+		ModelFile.save(model, reader.isStrategic(), reader.getCompanies(), reader.getTransmissionLines());
+		check(ModelFile.isModelFile(model), "saved file is a model file");
+		check(!ModelFile.isModelFile(input), "input file is not a model file");
+
+		ModelFile loaded = new ModelFile(model);
+		loaded.load();
+		check(loaded.isStrategic() == reader.isStrategic(), "companies think as they did");
+		checkSame(loaded.getCompanies(), loaded.getTransmissionLines(), reader.getCompanies(), reader.getTransmissionLines());
+	}
+
+	// a model file with any byte after its header changed, or cut short, is turned down
+	private static void damagedFileIsTurnedDown(Path input, Path model, Random random) throws IOException {
+		Files.write(input, randomInput(random).getBytes(StandardCharsets.ISO_8859_1));
+		ModelReader reader = new ModelReader(input);
+		try {
+			reader.read();
+		}
+		finally {
+			reader.close();
+		}
+		ModelFile.save(model, reader.isStrategic(), reader.getCompanies(), reader.getTransmissionLines());
+		byte[] saved = Files.readAllBytes(model);
+
+		for(int i = 40; i < saved.length; ++i) {
+			byte[] damaged = saved.clone();
+			damaged[i] ^= (byte)(1 + random.nextInt(255));
+			Files.write(model, damaged);
+			checkTurnedDown(model, "model file with byte " + i + " changed");
+		}
+		Files.write(model, Arrays.copyOf(saved, saved.length - 8));
+		checkTurnedDown(model, "model file cut short");
+	}
+
+	// an input file for a model with a few companies, regions, plants and lines, made up at random
+	private static String randomInput(Random random) {
+		StringBuilder text = new StringBuilder();
+		text.append("Companies think competitively or strategically: ").append(random.nextBoolean() ? "competitively" : "strategically").append("\n\n");
+
+		int companyCount = 1 + random.nextInt(4);
+		int[] regionCounts = new int[companyCount];
+		for(int c = 0; c < companyCount; ++c) {
+			text.append("Company ").append(c + 1).append('\n');
+			text.append("The maximum price the company will pay when buying electricity: ").append(randomNumber(random)).append('\n');
+			regionCounts[c] = random.nextInt(4);
+			for(int r = 0; r < regionCounts[c]; ++r) {
+				text.append("Region ").append(r + 1).append('\n');
+				text.append("Demand for electricity for this hour: ").append(randomNumber(random)).append('\n');
+				int plantCount = random.nextInt(4);
+				for(int p = 0; p < plantCount; ++p) {
+					int type = random.nextInt(3);
+					double max = randomNumber(random);
+					text.append("Power plant ").append(p + 1).append('\n');
+					text.append("Type is base load, load following, or peaker: ").append(type == 0 ? "base load" : type == 1 ? "load following" : "peaker").append('\n');
+					text.append("If type is base load, output rate is: ").append(type == 0 ? Double.toString(max * random.nextInt(5) / 4) : "").append('\n');
+					text.append("Maximum output rate: ").append(max).append('\n');
+					text.append("Marginal cost: ").append(randomNumber(random)).append("\n\n");
+				}
+			}
+		}
+
+		// lines, between any regions there are
+		List<String> regionNames = new ArrayList<String>();
+		for(int c = 0; c < companyCount; ++c) {
+			for(int r = 0; r < regionCounts[c]; ++r)
+				regionNames.add("Company " + (c + 1) + " Region " + (r + 1));
+		}
+		text.append("Transmission lines\n");
+		int lineCount = regionNames.isEmpty() ? 0 : random.nextInt(7);
+		for(int l = 0; l < lineCount; ++l) {
+			text.append("Line ").append(l + 1).append('\n');
+			text.append("Capacity: ").append(randomNumber(random)).append('\n');
+			text.append("Source: ").append(regionNames.get(random.nextInt(regionNames.size()))).append('\n');
+			text.append("Sink: ").append(regionNames.get(random.nextInt(regionNames.size()))).append('\n');
+			if(random.nextBoolean())
+				text.append("Reactance: ").append(0.01 + randomNumber(random)).append('\n');
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	// a whole number, a number of quarters, or any number up to a million
+	private static double randomNumber(Random random) {
+		switch(random.nextInt(3)) {
+			case 0: return random.nextInt(1000);
+			case 1: return random.nextInt(4000) / 4.0;
+			default: return random.nextDouble() * 1e6;
+		}
+	}
+
+	// checks that companies and lines loaded are the same as those read, in the same order
+	private static void checkSame(List<ElectricityCompany> loadedCompanies, List<TransmissionLine> loadedLines, List<ElectricityCompany> companies, List<TransmissionLine> lines) {
+		check(loadedCompanies.size() == companies.size(), "number of companies");
+		List<Region> loadedRegions = new ArrayList<Region>();
+		List<Region> regions = new ArrayList<Region>();
+		for(int c = 0; c < companies.size(); ++c) {
+			ElectricityCompany loadedCompany = loadedCompanies.get(c);
+			ElectricityCompany company = companies.get(c);
+			checkSame(loadedCompany.getMaxPrice(), company.getMaxPrice(), "maximum price of company " + (c + 1));
+			check(loadedCompany.getId() == company.getId(), "id of company " + (c + 1));
+			check(loadedCompany.regions.size() == company.regions.size(), "number of regions of company " + (c + 1));
+			loadedRegions.addAll(loadedCompany.regions);
+			regions.addAll(company.regions);
+		}
+
+		for(int r = 0; r < regions.size(); ++r) {
+			Region loadedRegion = loadedRegions.get(r);
+			Region region = regions.get(r);
+			String what = "region " + (r + 1);
+			check(loadedRegion.getId() == region.getId(), "id of " + what);
+			check(loadedRegion.getCompany() == loadedCompanies.get(region.getCompany().getId()), "company of " + what);
+			checkSame(loadedRegion.getDemand(), region.getDemand(), "demand of " + what);
+			checkSame(loadedRegion.getElectricity(), region.getElectricity(), "electricity of " + what);
+			check(loadedRegion.transmissionLines.size() == region.transmissionLines.size(), "number of lines of " + what);
+			check(loadedRegion.powerPlants.size() == region.powerPlants.size(), "number of plants of " + what);
+			for(int p = 0; p < region.powerPlants.size(); ++p) {
+				PowerPlant loadedPlant = loadedRegion.powerPlants.get(p);
+				PowerPlant plant = region.powerPlants.get(p);
+				check(loadedPlant.getClass() == plant.getClass(), "type of plant " + (p + 1) + " of " + what);
+				checkSame(loadedPlant.getOutputRate(), plant.getOutputRate(), "output rate of plant " + (p + 1) + " of " + what);
+				checkSame(loadedPlant.getMaxOutputRate(), plant.getMaxOutputRate(), "maximum output rate of plant " + (p + 1) + " of " + what);
+				checkSame(loadedPlant.getMargCost(), plant.getMargCost(), "marginal cost of plant " + (p + 1) + " of " + what);
+			}
+		}
+
+		check(loadedLines.size() == lines.size(), "number of lines");
+		for(int l = 0; l < lines.size(); ++l) {
+			TransmissionLine loadedLine = loadedLines.get(l);
+			TransmissionLine line = lines.get(l);
+			checkSame(loadedLine.getCapacity(), line.getCapacity(), "capacity of line " + (l + 1));
+			checkSame(loadedLine.getReactance(), line.getReactance(), "reactance of line " + (l + 1));
+			check(loadedLine.getSource() == loadedRegions.get(regions.indexOf(line.getSource())), "source of line " + (l + 1));
+			check(loadedLine.getSink() == loadedRegions.get(regions.indexOf(line.getSink())), "sink of line " + (l + 1));
+		}
+	}
+
+	// checks that loading a model file fails with an IOException
+	private static void checkTurnedDown(Path model, String what) {
+		try {
+			new ModelFile(model).load();
+		}
+		catch(IOException ex) {
+			++checks;
+			return;
+		}
+		throw new AssertionError(what + ": expected an error, but it loaded");
+	}
+
+	// checks that two numbers are the same, to the bit
+	private static void checkSame(double actual, double expected, String what) {
+		if(Double.doubleToLongBits(actual) != Double.doubleToLongBits(expected))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+		++checks;
+	}
+
+	// checks that something is true
+	private static void check(boolean condition, String what) {
+		if(!condition)
+			throw new AssertionError(what);
+		++checks;
+	}
+}
@@ -0,0 +1,155 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Checks that the ModelReader reads numbers exactly as Double.parseDouble()
+ * does, whether or not they take its fast path, and turns down the ones
+ * Double.parseDouble() turns down
+ *
+ * Each number is written as a region's demand in a small input file, with
+ * different whitespace and line breaks after it, and the file is read back.
+ *
+ * Run with: java -cp <classes> com.goodeast.economics.ModelReaderTest
+ * (see the README); it prints the number of checks that passed, or throws an
+ * AssertionError at the first one that fails.
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class ModelReaderTest {
+	// number of checks that have passed
+	private static int checks = 0;
+
+	// numbers at the edges of the fast path, and numbers that are not numbers at all
+	private static final String[] NUMBERS = {
+		"0", "-0", "+0", "1", "-1", "+3", "1.", ".5", "-.5", "0.1", "1e0", "1E+22", "1e-22", "2E-3", "1e23", "1e-23",
+		"123456789012345", "1234567890123456", "0.123456789012345", "9007199254740993", "00000000000000000001",
+		"0.000000000000000000001", "1e0001", "4.9e-324", "1.7976931348623157e308", "1e400", "-1e400", "1e-400",
+		"NaN", "Infinity", "-Infinity", "0x1p3", "1d", "2f",
+		"1e", "1e+", "2E-", "-1e-", "1.e", ".e1", "e", "e5", "+", "-", ".", "+.", "1e+-2", "1ee2", "1e2.5", "--1",
+		"1-", "1.2.3", "0x", "1e5x", "one"
+	};
+
+	// what may follow a number on its line, and how the line may end
+	private static final String[] TRAILING = {"", " ", "\t", " \t "};
+	private static final String[] LINE_ENDS = {"\n", "\r\n", "\r", ""};
+
+	public static void main(String[] args) throws IOException {
+		Path file = Files.createTempFile("ModelReaderTest", ".txt");
+		try {
+			fixedNumbers(file);
+			randomNumbers(file, new Random(1));
+		}
+		finally {
+			Files.delete(file);
+		}
+		System.out.println("ModelReaderTest: " + checks + " checks passed");
+	}
+
+	// each of the fixed numbers, followed by every kind of whitespace and line break
+	private static void fixedNumbers(Path file) throws IOException {
+		for(String text : NUMBERS) {
+			for(String trailing : TRAILING) {
+				for(String lineEnd : LINE_ENDS)
+					checkNumber(file, text, trailing, lineEnd);
+			}
+		}
+	}
+
+	// numbers made up at random, some of them malformed, each followed by whitespace and a line break at random
+	private static void randomNumbers(Path file, Random random) throws IOException {
+		for(int i = 0; i < 5000; ++i)
+			checkNumber(file, randomNumber(random), TRAILING[random.nextInt(TRAILING.length)], LINE_ENDS[random.nextInt(LINE_ENDS.length)]);
+	}
+
+	// a number with a sign, whole part, fraction and exponent, each there or not, and now and then one character
+	// too many, so that about half of them take the fast path and some are not numbers
+	private static String randomNumber(Random random) {
+		StringBuilder text = new StringBuilder();
+		appendSign(text, random);
+		appendDigits(text, random.nextInt(12), random);
+		if(random.nextInt(4) != 0) {
+			text.append('.');
+			appendDigits(text, random.nextInt(12), random);
+		}
+		if(random.nextBoolean()) {
+			text.append(random.nextBoolean() ? 'e' : 'E');
+			appendSign(text, random);
+			appendDigits(text, random.nextInt(4), random);
+		}
+		if(random.nextInt(20) == 0)
+			text.insert(random.nextInt(text.length() + 1), "+-.eE".charAt(random.nextInt(5)));
+		return text.toString();
+	}
+
+	// appends no sign, a minus or a plus
+	private static void appendSign(StringBuilder text, Random random) {
+		int sign = random.nextInt(4);
+		if(sign == 1)
+			text.append('-');
+		else if(sign == 2)
+			text.append('+');
+	}
+
+	// appends a number of digits, with zeros more often than the others
+	private static void appendDigits(StringBuilder text, int count, Random random) {
+		for(int i = 0; i < count; ++i)
+			text.append(random.nextInt(3) == 0 ? '0' : (char)('0' + random.nextInt(10)));
+	}
+
+	// checks that a number is read as Double.parseDouble() reads it, to the bit, or turned down if it turns it down
+	private static void checkNumber(Path file, String text, String trailing, String lineEnd) throws IOException {
+		String what = "\"" + text + "\" followed by " + describe(trailing + lineEnd);
+		Double expected;
+		try {
+			expected = Double.parseDouble(text);
+		}
+		catch(NumberFormatException ex) {
+			expected = null;
+		}
+
+		Double actual;
+		try {
+			actual = readDemand(file, text + trailing + lineEnd);
+		}
+		catch(IOException ex) {
+			actual = null;
+		}
+
+		if(expected == null && actual != null)
+			throw new AssertionError(what + ": expected an error, got " + actual);
+		if(expected != null && actual == null)
+			throw new AssertionError(what + ": expected " + expected + ", got an error");
+		if(expected != null && Double.doubleToLongBits(actual) != Double.doubleToLongBits(expected))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+		++checks;
+	}
+
+	// writes an input file with one region, whose demand is given by the rest of the file, and reads it
+	// returns the region's demand
+	private static double readDemand(Path file, String demand) throws IOException {
+		String input = "Companies think competitively or strategically: competitively\n"
+				+ "Company 1\n"
+				+ "The maximum price the company will pay when buying electricity: 10\n"
+				+ "Region 1\n"
+				+ "Demand for electricity for this hour: " + demand;
+		Files.write(file, input.getBytes(StandardCharsets.ISO_8859_1));
+		try(ModelReader reader = new ModelReader(file)) {
+			reader.read();
+			return reader.getCompanies().get(0).regions.get(0).getDemand();
+		}
+	}
+
+	// shows whitespace and line breaks so they can be seen in a message
+	private static String describe(String text) {
+		if(text.isEmpty())
+			return "nothing";
+		return text.replace(" ", "<space>").replace("\t", "<tab>").replace("\r", "<cr>").replace("\n", "<lf>");
+	}
+}
@@ -0,0 +1,139 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Checks that the TransferEngine and DcPowerFlow move as much electricity as
+ * they should
+ *
+ * On small networks made up at random, the TransferEngine must send as much
+ * as the smallest cut between origin and destination lets through (found by
+ * trying every cut), after whatever earlier transfers have left on the lines.
+ *
+ * Run with: java -cp <classes> com.goodeast.economics.TransferEngineTest
+ * (see the README); it prints the number of checks that passed, or throws an
+ * AssertionError at the first one that fails.
+ *
+ */
+
+import java.util.*;
+
+public class TransferEngineTest {
+	// number of checks that have passed
+	private static int checks = 0;
+
+	public static void main(String[] args) {
+		sellerSendsNoMoreThanSurplus();
+		sellerWithoutSurplusSendsNothing();
+		engineSendsMaximumFlow(new Random(1));
+		System.out.println("TransferEngineTest: " + checks + " checks passed");
+	}
+
+	// a seller whose ask is more than its surplus sends only its surplus, keeping what its demand needs
+	private static void sellerSendsNoMoreThanSurplus() {
+		Region[] regions = twoRegions(100, 80);
+		double sent = new TransferEngine().transfer(regions[0], regions[1], 50);
+		check(sent, 20, "engine sends a surplus of 20 of an ask of 50");
+		check(regions[0].getElectricity(), 80, "seller's electricity after sending its surplus");
+		check(regions[1].getElectricity(), 20, "buyer's electricity after receiving 20");
+
+		regions = twoRegions(100, 80);
+		sent = new DcPowerFlow(regions[0].getNetwork()).transfer(regions[0], regions[1], 50);
+		check(sent, 20, "power flow sends a surplus of 20 of an ask of 50");
+		check(regions[0].getElectricity(), 80, "seller's electricity after power flow sends its surplus");
+
+		// an ask within the surplus is sent in full
+		regions = twoRegions(100, 80);
+		sent = new TransferEngine().transfer(regions[0], regions[1], 15);
+		check(sent, 15, "engine sends an ask of 15 from a surplus of 20");
+	}
+
+	// a seller with no surplus sends nothing, however much it asks to send
+	private static void sellerWithoutSurplusSendsNothing() {
+		Region[] regions = twoRegions(100, 100);
+		check(new TransferEngine().transfer(regions[0], regions[1], 50), 0, "engine sends nothing from a seller without surplus");
+		check(new DcPowerFlow(regions[0].getNetwork()).transfer(regions[0], regions[1], 50), 0, "power flow sends nothing from a seller without surplus");
+		check(regions[0].getElectricity(), 100, "seller without surplus keeps its electricity");
+	}
+
+	// on small random networks, each transfer sends the smallest of the amount asked for, origin's surplus, and the
+	// free capacity of the smallest cut between origin and destination, and leaves no line past its capacity
+	private static void engineSendsMaximumFlow(Random random) {
+		for(int trial = 0; trial < 500; ++trial) {
+			// regions, some of them owned by the same company, and lines, some of them parallel or out of service
+			int regionCount = 2 + random.nextInt(6);
+			ElectricityCompany[] companies = {new ElectricityCompany(10), new ElectricityCompany(10), new ElectricityCompany(10)};
+			List<Region> regions = new ArrayList<Region>();
+			for(int r = 0; r < regionCount; ++r) {
+				Region region = new Region(companies[random.nextInt(companies.length)], random.nextInt(10));
+				region.electricity = random.nextInt(4) == 0 ? random.nextInt(20) : 1e6;
+				regions.add(region);
+			}
+			List<TransmissionLine> lines = new ArrayList<TransmissionLine>();
+			int lineCount = random.nextInt(2 * regionCount + 1);
+			for(int l = 0; l < lineCount; ++l) {
+				int source = random.nextInt(regionCount);
+				int sink = (source + 1 + random.nextInt(regionCount - 1)) % regionCount;
+				lines.add(new TransmissionLine(random.nextInt(6) * 10, regions.get(source), regions.get(sink)));
+			}
+			new TransmissionNetwork(regions, lines);
+
+			// a few transfers in turn, each using what the ones before it left
+			TransferEngine engine = new TransferEngine();
+			for(int i = 0; i < 4; ++i) {
+				Region origin = regions.get(random.nextInt(regionCount));
+				Region destination = regions.get(random.nextInt(regionCount));
+				double quantity = random.nextBoolean() ? 1e5 : random.nextDouble() * 50;
+				double expected = origin == destination ? 0 : Math.max(0, Math.min(Math.min(quantity, origin.getElectricity() - origin.getDemand()), minimumCut(regions, lines, origin, destination)));
+				String what = "trial " + trial + ", transfer " + (i + 1) + " from region " + regions.indexOf(origin) + " to " + regions.indexOf(destination);
+				check(engine.transfer(origin, destination, quantity), expected, what);
+				for(TransmissionLine line : lines) {
+					if(Math.abs(line.getCurrent()) > line.getCapacity() * (1 + 1e-9))
+						throw new AssertionError(what + ": line carries " + line.getCurrent() + " over a capacity of " + line.getCapacity());
+				}
+			}
+		}
+	}
+
+	// free capacity of the smallest cut between two regions, trying every set of regions that holds origin but not
+	// destination
+	private static double minimumCut(List<Region> regions, List<TransmissionLine> lines, Region origin, Region destination) {
+		double minimum = Double.POSITIVE_INFINITY;
+		int s = regions.indexOf(origin);
+		int t = regions.indexOf(destination);
+		for(int set = 0; set < 1 << regions.size(); ++set) {
+			if((set & 1 << s) == 0 || (set & 1 << t) != 0)
+				continue;
+			double cut = 0;
+			for(TransmissionLine line : lines) {
+				boolean sourceIn = (set & 1 << regions.indexOf(line.getSource())) != 0;
+				boolean sinkIn = (set & 1 << regions.indexOf(line.getSink())) != 0;
+				if(sourceIn && !sinkIn)
+					cut += line.requestFreeCapacity(line.getSource(), line.getSink());
+				else if(sinkIn && !sourceIn)
+					cut += line.requestFreeCapacity(line.getSink(), line.getSource());
+			}
+			minimum = Math.min(minimum, cut);
+		}
+		return minimum;
+	}
+
+	// a seller with given electricity and demand, joined to a buyer with none by a line of ample capacity
+	private static Region[] twoRegions(double electricity, double demand) {
+		ElectricityCompany company = new ElectricityCompany(10);
+		Region seller = new Region(company, demand);
+		Region buyer = new Region(company, 200);
+		seller.electricity = electricity;
+		TransmissionLine line = new TransmissionLine(1000, seller, buyer);
+		new TransmissionNetwork(Arrays.asList(seller, buyer), Arrays.asList(line));
+		return new Region[] {seller, buyer};
+	}
+
+	// checks that a value is what it should be, to within rounding
+	static void check(double actual, double expected, String what) {
+		if(Math.abs(actual - expected) > 1e-9 * Math.max(1, Math.abs(expected)))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+		++checks;
+	}
+}
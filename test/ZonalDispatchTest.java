@@ -0,0 +1,172 @@
+package com.goodeast.economics;
+
+/**
+ *
+ * @author amsuh
+ *
+ * Checks that a ZonalDispatch clears the market as a NodalDispatch of the
+ * whole network does
+ *
+ * On a large grid of 2000 companies, and on small grids made up at random,
+ * the zonal dispatch must converge, with the welfare of the nodal dispatch
+ * and the same price in every region, whatever the number of zones. Once
+ * applied, every region must keep what its plants put in less what its lines
+ * carry away, and no line may carry more than its capacity.
+ *
+ * Run with: java -cp <classes> com.goodeast.economics.ZonalDispatchTest
+ * (see the README); it prints the number of checks that passed, or throws an
+ * AssertionError at the first one that fails.
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class ZonalDispatchTest {
+	// number of checks that have passed
+	private static int checks = 0;
+
+	public static void main(String[] args) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		Path input = Files.createTempFile("ZonalDispatchTest", ".txt");
+		try {
+			Random random = new Random(1);
+			largeGridClearsAsNodal(input, random, pool);
+			for(int i = 0; i < 300; ++i)
+				smallGridClearsAsNodal(input, random, pool);
+		}
+		finally {
+			Files.delete(input);
+			pool.shutdown();
+		}
+		System.out.println("ZonalDispatchTest: " + checks + " checks passed");
+	}
+
+	// a grid of 2000 companies, with 4 and with 8 zones
+	private static void largeGridClearsAsNodal(Path input, Random random, ForkJoinPool pool) throws IOException {
+		Files.write(input, gridInput(random, 2000).getBytes(StandardCharsets.ISO_8859_1));
+		for(int zoneCount = 4; zoneCount <= 8; zoneCount += 4)
+			clearsAsNodal(readNetwork(input), zoneCount, pool, "grid of 2000 companies in " + zoneCount + " zones");
+	}
+
+	// a grid of a few companies, with a few zones
+	private static void smallGridClearsAsNodal(Path input, Random random, ForkJoinPool pool) throws IOException {
+		int companyCount = 1 + random.nextInt(30);
+		int zoneCount = 2 + random.nextInt(6);
+		Files.write(input, gridInput(random, companyCount).getBytes(StandardCharsets.ISO_8859_1));
+		clearsAsNodal(readNetwork(input), zoneCount, pool, "grid of " + companyCount + " companies in " + zoneCount + " zones");
+	}
+
+	// solves a network by zones and as a whole, compares them, and applies the zonal dispatch
+	private static void clearsAsNodal(TransmissionNetwork network, int zoneCount, ForkJoinPool pool, String what) {
+		NodalDispatch nodal = new NodalDispatch(network);
+		nodal.solve();
+		ZonalDispatch zonal = new ZonalDispatch(network, zoneCount, pool);
+		zonal.solve();
+
+		check(zonal.isConverged(), what + ": converged");
+		checkClose(zonal.getWelfare(), nodal.getWelfare(), what + ": welfare");
+		for(int r = 0; r < network.getRegionCount(); ++r)
+			checkClose(zonal.getPrice(network.getRegion(r)), nodal.getPrice(network.getRegion(r)), what + ": price in region " + r);
+
+		// regions keep what their plants put in, less what their lines carry away
+		zonal.apply();
+		Region tempRegion;
+		TransmissionLine tempLine;
+		double kept;
+		for(int r = 0; r < network.getRegionCount(); ++r) {
+			tempRegion = network.getRegion(r);
+			kept = 0;
+			for(PowerPlant tempPlant : tempRegion.powerPlants)
+				kept += tempPlant.getOutputRate();
+			for(int l = 0; l < network.getLineCount(); ++l) {
+				tempLine = network.getLine(l);
+				if(tempLine.getSource() == tempRegion)
+					kept -= tempLine.getCurrent();
+				if(tempLine.getSink() == tempRegion)
+					kept += tempLine.getCurrent();
+			}
+			checkClose(tempRegion.getElectricity(), kept, what + ": electricity kept in region " + r);
+		}
+		for(int l = 0; l < network.getLineCount(); ++l)
+			check(Math.abs(network.getLine(l).getCurrent()) <= network.getLine(l).getCapacity() * (1 + 1e-9), what + ": line " + l + " within its capacity");
+	}
+
+	// reads an input file into a network
+	private static TransmissionNetwork readNetwork(Path input) throws IOException {
+		ModelReader reader = new ModelReader(input);
+		try {
+			reader.read();
+		}
+		finally {
+			reader.close();
+		}
+		return TransmissionNetwork.build(reader.getCompanies(), reader.getTransmissionLines());
+	}
+
+	// an input file for a grid of a given number of companies, each with one to three regions of one to four plants,
+	// joined by a tree of lines and half as many lines again between regions picked at random
+	private static String gridInput(Random random, int companyCount) {
+		StringBuilder text = new StringBuilder();
+		text.append("Companies think competitively or strategically: competitively\n\n");
+
+		List<String> regionNames = new ArrayList<String>();
+		for(int c = 0; c < companyCount; ++c) {
+			text.append("Company ").append(c + 1).append('\n');
+			text.append("The maximum price the company will pay when buying electricity: ").append(5 + random.nextInt(16)).append('\n');
+			int regionCount = 1 + random.nextInt(3);
+			for(int r = 0; r < regionCount; ++r) {
+				regionNames.add("Company " + (c + 1) + " Region " + (r + 1));
+				text.append("Region ").append(r + 1).append('\n');
+				text.append("Demand for electricity for this hour: ").append(100 + random.nextInt(901)).append('\n');
+				int plantCount = 1 + random.nextInt(4);
+				for(int p = 0; p < plantCount; ++p) {
+					int type = random.nextInt(3);
+					int max = 50 + random.nextInt(451);
+					text.append("Power plant ").append(p + 1).append('\n');
+					text.append("Type is base load, load following, or peaker: ").append(type == 0 ? "base load" : type == 1 ? "load following" : "peaker").append('\n');
+					text.append("If type is base load, output rate is: ").append(type == 0 ? Integer.toString(max) : "").append('\n');
+					text.append("Maximum output rate: ").append(max).append('\n');
+					text.append("Marginal cost: ").append(type == 0 ? 1 : 1 + random.nextInt(9)).append("\n\n");
+				}
+			}
+		}
+
+		// each region joined to one before it, then lines between any regions
+		text.append("Transmission lines\n");
+		int line = 0;
+		for(int r = 1; r < regionNames.size(); ++r)
+			appendLine(text, ++line, random, regionNames.get(r), regionNames.get(random.nextInt(r)));
+		for(int i = 0; i < regionNames.size() / 2; ++i) {
+			int source = random.nextInt(regionNames.size());
+			int sink = (source + 1 + random.nextInt(regionNames.size() - 1)) % regionNames.size();
+			appendLine(text, ++line, random, regionNames.get(source), regionNames.get(sink));
+		}
+		return text.toString();
+	}
+
+	// appends a line with a capacity made up at random
+	private static void appendLine(StringBuilder text, int line, Random random, String source, String sink) {
+		text.append("Line ").append(line).append('\n');
+		text.append("Capacity: ").append(10 + random.nextInt(291)).append('\n');
+		text.append("Source: ").append(source).append('\n');
+		text.append("Sink: ").append(sink).append("\n\n");
+	}
+
+	// checks that two numbers are the same, but for rounding error
+	private static void checkClose(double actual, double expected, String what) {
+		if(Math.abs(actual - expected) > 1e-9 * Math.max(1, Math.abs(expected)))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+		++checks;
+	}
+
+	// checks that something is true
+	private static void check(boolean condition, String what) {
+		if(!condition)
+			throw new AssertionError(what);
+		++checks;
+	}
+}